@@ -0,0 +1,74 @@
+package nu.parley.android.data.messages;
+
+import androidx.test.internal.runner.junit4.AndroidJUnit4ClassRunner;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4ClassRunner.class)
+public class ParleyEncryptedDataSourceTest {
+
+    private static final String SECRET = "1234567890123456";
+    private static final String UPLOAD_KEY = ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + "c0ffee00-0000-0000-0000-000000000001";
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "encrypted_test");
+        directory.mkdirs();
+        clear(new ParleyEncryptedDataSource(directory, SECRET));
+    }
+
+    @After
+    public void tearDown() {
+        clear(new ParleyEncryptedDataSource(directory, SECRET));
+    }
+
+    @Test
+    public void set_uploadState_persists() {
+        ParleyEncryptedDataSource dataSource = new ParleyEncryptedDataSource(directory, SECRET);
+        dataSource.set(UPLOAD_KEY, "{\"offset\":4}");
+        dataSource.get(UPLOAD_KEY); // Waits for the write
+
+        ParleyEncryptedDataSource restartedDataSource = new ParleyEncryptedDataSource(directory, SECRET);
+        assertEquals("{\"offset\":4}", restartedDataSource.get(UPLOAD_KEY));
+
+        restartedDataSource.set(UPLOAD_KEY, null);
+        assertNull(restartedDataSource.get(UPLOAD_KEY));
+    }
+
+    @Test
+    public void set_syncCursor_persists() {
+        ParleyEncryptedDataSource dataSource = new ParleyEncryptedDataSource(directory, SECRET);
+        dataSource.set(ParleyKeyValueDataSource.KEY_SYNC_CURSOR, "42");
+        dataSource.get(ParleyKeyValueDataSource.KEY_SYNC_CURSOR); // Waits for the write
+
+        assertEquals("42", new ParleyEncryptedDataSource(directory, SECRET).get(ParleyKeyValueDataSource.KEY_SYNC_CURSOR));
+    }
+
+    @Test
+    public void clear_removesUploadStates() {
+        ParleyEncryptedDataSource dataSource = new ParleyEncryptedDataSource(directory, SECRET);
+        dataSource.set(UPLOAD_KEY, "{\"offset\":4}");
+        clear(dataSource);
+
+        assertNull(new ParleyEncryptedDataSource(directory, SECRET).get(UPLOAD_KEY));
+    }
+
+    /**
+     * Clears the data source and waits for it, reads wait for the pending writes.
+     */
+    private static void clear(ParleyEncryptedDataSource dataSource) {
+        dataSource.clear();
+        dataSource.get(ParleyKeyValueDataSource.KEY_PAGING);
+    }
+}
@@ -0,0 +1,150 @@
+package nu.parley.android.data.messages;
+
+import androidx.test.internal.runner.junit4.AndroidJUnit4ClassRunner;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import nu.parley.android.data.model.Message;
+import nu.parley.android.util.GsonUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4ClassRunner.class)
+public class ParleyMessageJournalTest {
+
+    private static final String SECRET = "1234567890123456";
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "journal_test");
+        deleteDirectory();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void read_tornTail_laterRecordsStayReadable() throws Exception {
+        ParleyMessageJournal journal = createJournal(SECRET);
+        journal.add(-1, createMessages(1, 3));
+        journal.add(0, Collections.singletonList(createMessage(3)));
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(getJournalFile(), true))) {
+            // The app was stopped while writing a record
+            output.writeInt(100);
+            output.write(new byte[10]);
+        }
+
+        ParleyMessageJournal restartedJournal = createJournal(SECRET);
+        restartedJournal.add(0, Collections.singletonList(createMessage(4)));
+
+        assertIds(createJournal(SECRET).read(), 4, 3, 2, 1);
+    }
+
+    @Test
+    public void read_damagedRecord_laterRecordsStayReadable() throws Exception {
+        ParleyMessageJournal journal = createJournal(SECRET);
+        journal.add(-1, createMessages(1, 3));
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(getJournalFile(), true))) {
+            // Complete record that can't be decrypted
+            output.writeInt(48);
+            output.write(new byte[48]);
+        }
+
+        ParleyMessageJournal restartedJournal = createJournal(SECRET);
+        assertIds(restartedJournal.read(), 2, 1);
+        restartedJournal.add(0, Collections.singletonList(createMessage(3)));
+
+        assertIds(createJournal(SECRET).read(), 3, 2, 1);
+    }
+
+    @Test
+    public void read_wrongKey() throws Exception {
+        createJournal(SECRET).add(-1, createMessages(1, 3));
+
+        ParleyMessageJournal otherJournal = createJournal("6543210987654321");
+        assertIds(otherJournal.read());
+        otherJournal.add(-1, createMessages(3, 4));
+
+        assertIds(createJournal("6543210987654321").read(), 3);
+    }
+
+    @Test
+    public void getAll_migratesLegacyMessages() throws Exception {
+        // Previous format: one file with all messages, `[encrypted data][salt][iv]` with a key stretched from its own salt
+        byte[] salt = ParleyCipher.createSalt();
+        byte[] iv = ParleyCipher.createIv();
+        SecretKeySpec keySpec = ParleyCipher.generateKey(SECRET, salt);
+        byte[] encrypted = ParleyCipher.encrypt(keySpec, iv, GsonUtil.getGson().toJson(createMessages(1, 3)).getBytes("UTF-8"));
+        File legacyFile = new File(directory, "messages");
+        try (FileOutputStream output = new FileOutputStream(legacyFile)) {
+            output.write(encrypted);
+            output.write(salt);
+            output.write(iv);
+        }
+
+        assertIds(new ParleyEncryptedDataSource(directory, SECRET).getAll(), 2, 1);
+        assertFalse(legacyFile.exists());
+        assertTrue(getJournalFile().exists());
+        assertIds(new ParleyEncryptedDataSource(directory, SECRET).getAll(), 2, 1);
+    }
+
+    private ParleyMessageJournal createJournal(String secret) {
+        return new ParleyMessageJournal(getJournalFile(), new ParleyKeyDerivation(new File(directory, "key_salt_" + secret), secret));
+    }
+
+    private File getJournalFile() {
+        return new File(directory, "messages_journal");
+    }
+
+    private void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static void assertIds(List<Message> messages, Integer... ids) {
+        assertEquals(ids.length, messages.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Message at " + i, ids[i], messages.get(i).getId());
+        }
+    }
+
+    private static Message createMessage(int id) {
+        return Message.withIdAndStatus(Message.ofTypeOwnMessage("Message " + id), id, Message.SEND_STATUS_SUCCESS);
+    }
+
+    /**
+     * @return Messages with the ids in the given range, newest first like they are cached.
+     */
+    private static List<Message> createMessages(int fromId, int toId) {
+        List<Message> messages = new ArrayList<>();
+        for (int id = toId - 1; id >= fromId; id--) {
+            messages.add(createMessage(id));
+        }
+        return messages;
+    }
+}
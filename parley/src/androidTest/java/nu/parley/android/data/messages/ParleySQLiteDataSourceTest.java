@@ -0,0 +1,143 @@
+package nu.parley.android.data.messages;
+
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.test.internal.runner.junit4.AndroidJUnit4ClassRunner;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nu.parley.android.data.model.Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4ClassRunner.class)
+public class ParleySQLiteDataSourceTest {
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void add_keepsOrder() {
+        ParleySQLiteDataSource dataSource = createDataSource(null);
+        dataSource.add(createMessages(3, 6));
+        dataSource.add(createMessages(0, 3)); // Older page
+        dataSource.add(0, createMessage(6, Message.SEND_STATUS_SUCCESS)); // New message
+        dataSource.add(1, createMessages(10, 12)); // Between the newest messages
+
+        assertIds(dataSource.getAll(), 6, 11, 10, 5, 4, 3, 2, 1, 0);
+        assertIds(dataSource.get(2, 3), 10, 5, 4);
+        assertIds(dataSource.get(8, 5), 0);
+        assertEquals(9, dataSource.count());
+    }
+
+    @Test
+    public void update_pendingMessage() throws InterruptedException {
+        ParleySQLiteDataSource dataSource = createDataSource(null);
+        Message pendingMessage = createMessage(null, Message.SEND_STATUS_PENDING);
+        dataSource.add(createMessages(0, 3));
+        dataSource.add(1, pendingMessage);
+        assertEquals(pendingMessage.getUuid(), getPending(dataSource).get(0).getUuid());
+
+        dataSource.update(Message.withIdAndStatus(pendingMessage, 3, Message.SEND_STATUS_SUCCESS));
+
+        assertEquals(0, getPending(dataSource).size());
+        assertIds(dataSource.getAll(), 2, 3, 1, 0);
+        assertEquals(pendingMessage.getUuid(), findById(dataSource, 3).getUuid());
+        assertNull(findById(dataSource, 4));
+    }
+
+    @Test
+    public void get_readsInBackground() throws InterruptedException {
+        ParleySQLiteDataSource dataSource = createDataSource(null);
+        dataSource.add(createMessages(0, 5));
+
+        Result<List<Message>> result = new Result<>();
+        dataSource.get(1, 2, result);
+
+        assertIds(result.await(), 3, 2);
+    }
+
+    @Test
+    public void encrypted_readsMessagesAndValues() {
+        ParleySQLiteDataSource dataSource = createDataSource("1234567890123456");
+        dataSource.add(createMessages(0, 2));
+        dataSource.set(ParleyKeyValueDataSource.KEY_MESSAGE_INFO, "Welcome");
+
+        ParleySQLiteDataSource reopenedDataSource = new ParleySQLiteDataSource(context, "1234567890123456");
+        assertIds(reopenedDataSource.getAll(), 1, 0);
+        assertEquals("Welcome", reopenedDataSource.get(ParleyKeyValueDataSource.KEY_MESSAGE_INFO));
+
+        reopenedDataSource.set(ParleyKeyValueDataSource.KEY_MESSAGE_INFO, null);
+        assertNull(reopenedDataSource.get(ParleyKeyValueDataSource.KEY_MESSAGE_INFO));
+    }
+
+    private ParleySQLiteDataSource createDataSource(String key) {
+        ParleySQLiteDataSource dataSource = key == null ? new ParleySQLiteDataSource(context) : new ParleySQLiteDataSource(context, key);
+        dataSource.clear();
+        return dataSource;
+    }
+
+    private static List<Message> getPending(ParleySQLiteDataSource dataSource) throws InterruptedException {
+        Result<List<Message>> result = new Result<>();
+        dataSource.getPending(result);
+        return result.await();
+    }
+
+    private static Message findById(ParleySQLiteDataSource dataSource, int id) throws InterruptedException {
+        Result<Message> result = new Result<>();
+        dataSource.findById(id, result);
+        return result.await();
+    }
+
+    private static void assertIds(List<Message> messages, Integer... ids) {
+        assertEquals(ids.length, messages.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Message at " + i, ids[i], messages.get(i).getId());
+        }
+    }
+
+    private static Message createMessage(Integer id, int sendStatus) {
+        return Message.withIdAndStatus(Message.ofTypeOwnMessage("Message " + id), id, sendStatus);
+    }
+
+    /**
+     * @return Messages with the ids in the given range, newest first like they are cached.
+     */
+    private static List<Message> createMessages(int fromId, int toId) {
+        List<Message> messages = new ArrayList<>();
+        for (int id = toId - 1; id >= fromId; id--) {
+            messages.add(createMessage(id, Message.SEND_STATUS_SUCCESS));
+        }
+        return messages;
+    }
+
+    /**
+     * Waits for the result of reading in the background, the tests don't run on the main thread.
+     */
+    private static final class Result<T> implements ParleyPagedMessageDataSource.Callback<T> {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private T result;
+
+        @Override
+        public void onResult(T result) {
+            assertEquals(Looper.getMainLooper(), Looper.myLooper());
+            this.result = result;
+            latch.countDown();
+        }
+
+        T await() throws InterruptedException {
+            assertTrue("Read in time", latch.await(5, TimeUnit.SECONDS));
+            return result;
+        }
+    }
+}
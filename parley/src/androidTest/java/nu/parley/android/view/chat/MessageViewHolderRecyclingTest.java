@@ -0,0 +1,113 @@
+package nu.parley.android.view.chat;
+
+import android.view.View;
+import android.widget.LinearLayout;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.internal.runner.junit4.AndroidJUnit4ClassRunner;
+
+import com.novoda.espresso.ViewTestRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.parley.android.R;
+import nu.parley.android.data.model.Action;
+import nu.parley.android.data.model.Message;
+import nu.parley.android.data.model.MockAction;
+import nu.parley.android.data.model.MockAgent;
+import nu.parley.android.data.model.MockMessage;
+import nu.parley.android.view.chat.holder.MessageViewHolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(AndroidJUnit4ClassRunner.class)
+public class MessageViewHolderRecyclingTest {
+
+    @Rule
+    public ViewTestRule<LinearLayout> rule = new ViewTestRule<>(R.layout.item_message);
+
+    private final MessageViewPools viewPools = new MessageViewPools();
+    private MessageViewHolder holder;
+    private RecyclerView actionsRecyclerView;
+    private RecyclerView carouselRecyclerView;
+
+    @Test
+    public void show_reusesAdapters() {
+        render(createMessage("First", 2));
+        RecyclerView.Adapter actionsAdapter = actionsRecyclerView.getAdapter();
+        RecyclerView.Adapter carouselAdapter = carouselRecyclerView.getAdapter();
+        assertNotNull(actionsAdapter);
+        assertNotNull(carouselAdapter);
+
+        render(createMessage("Second", 3));
+        assertSame(actionsAdapter, actionsRecyclerView.getAdapter());
+        assertSame(carouselAdapter, carouselRecyclerView.getAdapter());
+        assertEquals(3, actionsAdapter.getItemCount());
+        assertEquals(2, carouselAdapter.getItemCount());
+
+        render(MockMessage.textOfAgent(MockAgent.Webuildapps, "Without actions"));
+        assertSame(actionsAdapter, actionsRecyclerView.getAdapter());
+        assertEquals(0, actionsAdapter.getItemCount());
+        assertEquals(View.GONE, actionsRecyclerView.getVisibility());
+        assertEquals(View.GONE, carouselRecyclerView.getVisibility());
+    }
+
+    @Test
+    public void show_reusesActionViews() {
+        render(createMessage("First", 2));
+        View firstAction = actionsRecyclerView.getChildAt(0);
+        assertNotNull(firstAction);
+
+        render(createMessage("Second", 2));
+        assertSame(firstAction, actionsRecyclerView.getChildAt(0));
+    }
+
+    @Test
+    public void setViewPools_sharesPools() {
+        render(createMessage("First", 1));
+
+        assertSame(viewPools.getActionPool(R.style.ParleyMessageAgentStyle), actionsRecyclerView.getRecycledViewPool());
+        assertSame(viewPools.getCarouselPool(), carouselRecyclerView.getRecycledViewPool());
+    }
+
+    private void render(final Message message) {
+        rule.runOnMainSynchronously(new ViewTestRule.Runner<LinearLayout>() {
+            @Override
+            public void run(LinearLayout view) {
+                if (holder == null) {
+                    holder = (MessageViewHolder) MessageViewHolderFactory.getViewHolder(MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_AGENT, view, null);
+                    holder.setViewPools(viewPools);
+                    actionsRecyclerView = view.findViewById(R.id.actions_recycler_view);
+                    carouselRecyclerView = view.findViewById(R.id.carousel_recycler_view);
+                }
+                holder.show(message);
+            }
+        });
+        // Lay out the lists before checking their views
+        rule.runOnMainSynchronously(new ViewTestRule.Runner<LinearLayout>() {
+            @Override
+            public void run(LinearLayout view) {
+                view.measure(View.MeasureSpec.makeMeasureSpec(view.getWidth(), View.MeasureSpec.EXACTLY), View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+                view.layout(view.getLeft(), view.getTop(), view.getRight(), view.getTop() + view.getMeasuredHeight());
+            }
+        });
+    }
+
+    private static Message createMessage(String text, int actionCount) {
+        List<Action> actions = new ArrayList<>();
+        for (int i = 0; i < actionCount; i++) {
+            actions.add(MockAction.create("Action " + i, "payload-" + i));
+        }
+        List<Message> carousel = new ArrayList<>();
+        carousel.add(MockMessage.ofCarousel("Item 1", text, null, null));
+        carousel.add(MockMessage.ofCarousel("Item 2", text, null, null));
+        return MockMessage.messageOfAgent(MockAgent.Webuildapps, null, text, null, actions, carousel);
+    }
+}
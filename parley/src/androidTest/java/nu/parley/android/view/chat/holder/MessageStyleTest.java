@@ -0,0 +1,28 @@
+package nu.parley.android.view.chat.holder;
+
+import android.content.Context;
+
+import androidx.test.internal.runner.junit4.AndroidJUnit4ClassRunner;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import nu.parley.android.R;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(AndroidJUnit4ClassRunner.class)
+public class MessageStyleTest {
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    @Test
+    public void get_resolvesStyleOnce() {
+        MessageStyle agentStyle = MessageStyle.get(context, R.style.ParleyMessageAgentStyle);
+
+        assertSame(agentStyle, MessageStyle.get(context, R.style.ParleyMessageAgentStyle));
+        assertNotSame(agentStyle, MessageStyle.get(context, R.style.ParleyMessageUserStyle));
+    }
+}
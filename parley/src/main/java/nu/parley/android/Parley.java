@@ -2,6 +2,8 @@ package nu.parley.android;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import android.provider.Settings;
@@ -16,25 +18,34 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
+import nu.parley.android.data.messages.MessageOutbox;
 import nu.parley.android.data.messages.MessagesManager;
 import nu.parley.android.data.messages.ParleyDataSource;
+import nu.parley.android.data.messages.ParleyPagedMessageDataSource;
+import nu.parley.android.data.messages.UploadProgress;
 import nu.parley.android.data.model.Message;
 import nu.parley.android.data.model.PushType;
+import nu.parley.android.data.net.Connectivity;
+import nu.parley.android.data.net.HttpCacheMetrics;
+import nu.parley.android.data.net.RealtimeChannel;
 import nu.parley.android.data.net.RepositoryCallback;
+import nu.parley.android.data.net.ResumableUpload;
 import nu.parley.android.data.net.response.ParleyResponse;
 import nu.parley.android.data.repository.DeviceRepository;
 import nu.parley.android.data.repository.EventRepository;
 import nu.parley.android.data.repository.MessageRepository;
+import nu.parley.android.data.repository.StartupRepository;
 import nu.parley.android.notification.PushNotificationHandler;
-import nu.parley.android.util.ChainListener;
 import nu.parley.android.util.CompareUtil;
 import nu.parley.android.util.ConnectivityMonitor;
 import nu.parley.android.util.EmptyParleyCallback;
+import nu.parley.android.util.FileUtil;
+import nu.parley.android.util.ImageCompressor;
 import nu.parley.android.view.ParleyView;
 import nu.parley.android.view.chat.MessageViewHolderFactory;
 
-import static nu.parley.android.data.model.Message.SEND_STATUS_FAILED;
 import static nu.parley.android.notification.PushNotificationHandler.EVENT_START_TYPING;
 import static nu.parley.android.notification.PushNotificationHandler.EVENT_STOP_TYPING;
 
@@ -55,8 +66,13 @@ public final class Parley {
     public static final String ADDITIONAL_VALUE_EMAIL = "email";
     public static final String ADDITIONAL_VALUE_ADDRESS = "address";
 
+    private static final String HTTP_CACHE_DIRECTORY = "parley_http";
+    private static final long DEFAULT_HTTP_CACHE_SIZE = 0; // Disabled, the cache is not encrypted
+
     private State state = State.UNCONFIGURED;
     private ParleyListener listener;
+    @Nullable
+    private Context applicationContext;
     private String secret;
     private ParleyNetwork network = new ParleyNetwork();
     @Nullable
@@ -69,9 +85,38 @@ public final class Parley {
     private PushType pushType = PushType.FCM;
     private String uniqueDeviceIdentifier;
     private MessagesManager messagesManager = new MessagesManager();
+    private final MessageOutbox outbox = new MessageOutbox(messagesManager, new MessageOutbox.Listener() {
+        @Override
+        public void onMessageUpdated(Message message) {
+            if (listener == null) {
+                messagesManager.update(message);
+            } else {
+                listener.onUpdateMessage(message);
+            }
+        }
+
+        @Override
+        public void onMessageSent() {
+            if (listener != null) {
+                listener.onMessageSent();
+            }
+        }
+    });
     private boolean retrievedFirstMessages = false;
     private boolean loadingMore = false;
     private boolean refreshingMessages = false;
+    private boolean parallelStartup = false;
+    private boolean realtimeEnabled = false;
+    private boolean deltaSyncEnabled = false;
+    private boolean deltaSyncUnsupported = false;
+    private long httpCacheSize = DEFAULT_HTTP_CACHE_SIZE;
+    private boolean resumableUploadsEnabled = false;
+    private boolean resumableUploadsUnsupported = false;
+    private int uploadChunkSize = ResumableUpload.DEFAULT_CHUNK_SIZE;
+    private final ImageCompressor imageCompressor = new ImageCompressor();
+    private final UploadProgress uploadProgress = new UploadProgress();
+    @Nullable
+    private RealtimeChannel realtimeChannel;
 
     private Parley() {
         // Hide default constructor
@@ -219,6 +264,123 @@ public final class Parley {
         getInstance().clearUserInformationI(callback);
     }
 
+    /**
+     * Registers the device and retrieves the messages at the same time when configuring and refreshing, instead of retrieving the messages after registering.
+     *
+     * <p>
+     * When retrieving the messages fails while registering succeeds, the messages are retrieved once more after registering.
+     * </p>
+     *
+     * @param enabled `true` to start both requests at the same time, `false` (default) to start them after each other.
+     */
+    @SuppressWarnings("unused")
+    public static void setParallelStartupEnabled(boolean enabled) {
+        getInstance().parallelStartup = enabled;
+    }
+
+    /**
+     * Configures how images are prepared before uploading. Images are scaled down, encoded again and their EXIF data is removed.
+     *
+     * @param maxDimension Maximum width and height in pixels (default {@link ImageCompressor#DEFAULT_MAX_DIMENSION}), `0` to upload the original images.
+     * @param quality      Quality (0-100) of the encoded image (default {@link ImageCompressor#DEFAULT_QUALITY}).
+     * @param format       Format of the encoded image (default JPEG).
+     */
+    @SuppressWarnings("unused")
+    public static void setImageCompression(int maxDimension, int quality, Bitmap.CompressFormat format) {
+        getInstance().imageCompressor.configure(maxDimension, quality, format);
+    }
+
+    /**
+     * Uploads media in chunks, so an upload that is interrupted continues where it stopped instead of starting over. The progress of the upload is shown in the chat.
+     *
+     * <p>
+     * When the server does not support this, Parley falls back to uploading media in a single request.
+     * </p>
+     *
+     * @param enabled `true` to upload media in chunks, `false` (default) to upload media in a single request.
+     */
+    @SuppressWarnings("unused")
+    public static void setResumableUploadsEnabled(boolean enabled) {
+        getInstance().resumableUploadsEnabled = enabled;
+    }
+
+    /**
+     * @param chunkSize Maximum size of a single chunk in bytes when uploading in chunks (default {@link ResumableUpload#DEFAULT_CHUNK_SIZE}).
+     */
+    @SuppressWarnings("unused")
+    public static void setResumableUploadChunkSize(int chunkSize) {
+        getInstance().uploadChunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the size of the HTTP cache, which allows Parley to revalidate the messages it retrieved before instead of retrieving them again.
+     *
+     * <p>
+     * <b>Note:</b> Only applied when configuring. The cache stores the retrieved messages <b>unencrypted</b>
+     * in the cache directory of the app, it is cleared when the user information or the offline messages are reset.
+     * </p>
+     *
+     * @param maxSize Maximum size of the cache in bytes (default `0`, disabled), for example `10 * 1024 * 1024`.
+     */
+    @SuppressWarnings("unused")
+    public static void setHttpCacheSize(long maxSize) {
+        getInstance().httpCacheSize = maxSize;
+    }
+
+    /**
+     * @return The metrics of the HTTP cache since configuring, like the hit ratio and the bytes that didn't have to be transferred.
+     */
+    @SuppressWarnings("unused")
+    public static HttpCacheMetrics getHttpCacheMetrics() {
+        return Connectivity.getCacheMetrics();
+    }
+
+    /**
+     * Retrieves only the messages after the newest known message when refreshing, for example after the network is available again, instead of the latest page of messages.
+     *
+     * <p>
+     * When the server does not support this, Parley falls back to retrieving the latest page of messages.
+     * </p>
+     *
+     * @param enabled `true` to only retrieve newer messages when refreshing, `false` (default) to retrieve the latest page of messages.
+     */
+    @SuppressWarnings("unused")
+    public static void setDeltaSyncEnabled(boolean enabled) {
+        getInstance().deltaSyncEnabled = enabled;
+    }
+
+    /**
+     * Receives new messages and typing events through a persistent connection while the chat is visible.
+     *
+     * <p>
+     * Push notifications are still needed while the chat is not visible, or when the connection is lost.
+     * </p>
+     *
+     * @param enabled `true` to use the connection while the chat is visible, `false` (default) to only use push notifications.
+     */
+    @SuppressWarnings("unused")
+    public static void setRealtimeEnabled(boolean enabled) {
+        getInstance().realtimeEnabled = enabled;
+        getInstance().updateRealtimeChannel();
+    }
+
+    /**
+     * Configures how messages are sent.
+     *
+     * <p>
+     * Media of messages is uploaded in parallel, while the messages themselves are always posted one at a time.
+     * </p>
+     *
+     * @param maxConcurrentUploads Maximum number of media uploads at the same time (default 2).
+     * @param textBypassesMedia    `true` to allow text messages to be posted while the media of an earlier message is still uploading,
+     *                             the messages can be shown in another order after retrieving them again. `false` (default) to keep the order.
+     */
+    @SuppressWarnings("unused")
+    public static void setOutboxParallelism(int maxConcurrentUploads, boolean textBypassesMedia) {
+        getInstance().outbox.setMaxConcurrentUploads(maxConcurrentUploads);
+        getInstance().outbox.setTextBypassesMedia(textBypassesMedia);
+    }
+
     /**
      * Enables offline messaging.
      *
@@ -237,6 +399,7 @@ public final class Parley {
     @SuppressWarnings("unused")
     public static void disableOfflineMessaging() {
         getInstance().messagesManager.disableCaching();
+        Connectivity.clearCache();
     }
 
     /**
@@ -443,13 +606,42 @@ public final class Parley {
         return messagesManager;
     }
 
+    /**
+     * @return The application context, available after configuring.
+     */
+    public Context getApplicationContext() {
+        return applicationContext;
+    }
+
+    public ImageCompressor getImageCompressor() {
+        return imageCompressor;
+    }
+
+    public UploadProgress getUploadProgress() {
+        return uploadProgress;
+    }
+
+    public boolean isResumableUploadsEnabled() {
+        return resumableUploadsEnabled && !resumableUploadsUnsupported;
+    }
+
+    public void setResumableUploadsUnsupported() {
+        resumableUploadsUnsupported = true;
+    }
+
+    public int getUploadChunkSize() {
+        return uploadChunkSize;
+    }
+
     public void setListener(ParleyListener listener) {
         this.listener = listener;
         listener.onStateChanged(state);
+        updateRealtimeChannel();
     }
 
     public void clearListener() {
         this.listener = null;
+        updateRealtimeChannel();
     }
 
     // Implementation
@@ -460,6 +652,59 @@ public final class Parley {
         if (listener != null) {
             listener.onStateChanged(state);
         }
+        updateRealtimeChannel();
+    }
+
+    /**
+     * Opens the realtime connection while the chat is visible and Parley is configured, closes it otherwise.
+     */
+    private void updateRealtimeChannel() {
+        boolean needed = realtimeEnabled && listener != null && state == State.CONFIGURED;
+        if (needed && realtimeChannel == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            realtimeChannel = new RealtimeChannel(
+                    Connectivity.getClient(),
+                    getNetwork().getBaseUrl() + "realtime",
+                    new Executor() {
+                        @Override
+                        public void execute(@NonNull Runnable command) {
+                            mainHandler.post(command);
+                        }
+                    },
+                    new RealtimeChannel.Listener() {
+                        @Override
+                        public void onConnected(boolean reconnected) {
+                            Log.d("Parley", "Realtime connection opened");
+                            if (reconnected) {
+                                // Messages may have been missed in the meantime
+                                triggerRefreshOnConnected();
+                            }
+                        }
+
+                        @Override
+                        public void onDisconnected() {
+                            Log.d("Parley", "Realtime connection lost, using push notifications until it is opened again");
+                        }
+
+                        @Override
+                        public void onMessage(Message message) {
+                            receivedNewMessage(message);
+                        }
+
+                        @Override
+                        public void onEvent(String name) {
+                            receivedEvent(name);
+                        }
+                    });
+            realtimeChannel.open();
+        } else if (!needed && realtimeChannel != null) {
+            realtimeChannel.close();
+            realtimeChannel = null;
+        }
+    }
+
+    private boolean isRealtimeConnected() {
+        return realtimeChannel != null && realtimeChannel.isConnected();
     }
 
     public void triggerRefreshOnConnected() {
@@ -467,91 +712,99 @@ public final class Parley {
             // Ignore, we cannot refresh data if we are not configured yet or if we are already configuring
             return;
         }
+        if (this.refreshingMessages) {
+            // Ignore, the latest messages are being retrieved already
+            return;
+        }
 
-        if (this.state == State.FAILED || !retrievedFirstMessages) {
+        final boolean showingCachedMessages = this.state == State.CONFIGURED && !retrievedFirstMessages && !messagesManager.isEmpty();
+        if (this.state == State.FAILED || (!retrievedFirstMessages && !showingCachedMessages)) {
             // Notify that we are configuring now
             setState(State.CONFIGURING);
         }
 
         // Only additional messages are needed to retrieve
         this.refreshingMessages = true;
-        new DeviceRepository().register(new RepositoryCallback<Void>() {
+        final Integer syncCursor = deltaSyncEnabled && !deltaSyncUnsupported && retrievedFirstMessages ? messagesManager.getSyncCursor() : null;
+        new StartupRepository().start(parallelStartup, syncCursor, new RepositoryCallback<ParleyResponse<List<Message>>>() {
             @Override
-            public void onSuccess(Void data) {
-                new MessageRepository().findAll(new RepositoryCallback<ParleyResponse<List<Message>>>() {
-                    @Override
-                    public void onSuccess(ParleyResponse<List<Message>> data) {
-                        refreshingMessages = false;
-
-                        // Update paging, if needed
-                        if (messagesManager.getPaging() == null) {
-                            messagesManager.applyPaging(data.getPaging());
-                        }
+            public void onSuccess(ParleyResponse<List<Message>> data) {
+                refreshingMessages = false;
 
-                        // Update the welcome message
-                        messagesManager.applyWelcomeMessage(data.getWelcomeMessage());
+                if (syncCursor == null) {
+                    // Update paging, if needed
+                    if (messagesManager.getPaging() == null) {
+                        messagesManager.applyPaging(data.getPaging());
+                    }
 
-                        // Detect new messages, and add them
-                        messagesManager.addOnlyNew(data.getData());
+                    // Update the welcome message
+                    messagesManager.applyWelcomeMessage(data.getWelcomeMessage());
 
-                        // Trigger update to listener
-                        if (listener != null) {
-                            listener.onReceivedLatestMessages();
-                        }
+                    // Detect new messages, and add them
+                    messagesManager.addOnlyNew(data.getData());
+                } else {
+                    if (data.getWelcomeMessage() != null) {
+                        messagesManager.applyWelcomeMessage(data.getWelcomeMessage());
+                    }
 
-                        resendPendingMessages(messagesManager.getPendingMessages(true));
+                    // Only newer and changed messages are retrieved
+                    messagesManager.applySync(data.getData());
+                }
 
-                        if (state != State.CONFIGURED) {
-                            setState(State.CONFIGURED);
-                        }
-                        retrievedFirstMessages = true;
-                    }
+                // Trigger update to listener
+                if (listener != null) {
+                    listener.onReceivedLatestMessages();
+                }
 
-                    @Override
-                    public void onFailed(Integer code, String message) {
-                        refreshingMessages = false;
+                resendPendingMessages();
 
-                        if (ParleyResponse.isOfflineErrorCode(code) && messagesManager.isCachingEnabled()) {
-                            // We are fine with being offline
-                            if (state != State.CONFIGURED) {
-                                setState(State.CONFIGURED);
-                            }
-                        } else {
-                            setState(State.FAILED);
-                        }
-                    }
-                });
+                if (state != State.CONFIGURED) {
+                    setState(State.CONFIGURED);
+                }
+                retrievedFirstMessages = true;
             }
 
             @Override
             public void onFailed(Integer code, String message) {
                 refreshingMessages = false;
 
+                if (syncCursor != null && code != null && code == 404) {
+                    // Server doesn't support retrieving newer messages, retrieve the latest page instead
+                    Log.d("Parley", "Retrieving newer messages is not supported, retrieving the latest messages instead");
+                    deltaSyncUnsupported = true;
+                    triggerRefreshOnConnected();
+                    return;
+                }
+
                 if (ParleyResponse.isOfflineErrorCode(code) && messagesManager.isCachingEnabled()) {
                     // We are fine with being offline
                     if (state != State.CONFIGURED) {
                         setState(State.CONFIGURED);
                     }
-                } else {
+                } else if (!showingCachedMessages) {
                     setState(State.FAILED);
                 }
             }
         });
     }
 
-    private void resendPendingMessages(final List<Message> pendingMessages) {
-        if (pendingMessages.size() > 0) {
-            resendMessage(pendingMessages.get(0), new ChainListener() {
-                @Override
-                public void onNext() {
-                    resendPendingMessages(pendingMessages.subList(1, pendingMessages.size()));
+    private void resendPendingMessages() {
+        messagesManager.getPendingMessages(true, new ParleyPagedMessageDataSource.Callback<List<Message>>() {
+            @Override
+            public void onResult(List<Message> pendingMessages) {
+                boolean usingMedia = getNetwork().apiVersion.isUsingMedia();
+                for (Message pendingMessage : pendingMessages) {
+                    outbox.enqueue(pendingMessage, usingMedia, false);
                 }
-            });
-        }
+                // We are online again, don't wait for the backoff of failed attempts
+                outbox.flush();
+            }
+        });
     }
 
     private void configureI(Context context, String secret, @Nullable String uniqueDeviceIdentifier, final ParleyCallback callback) {
         setState(State.CONFIGURING);
+        this.applicationContext = context.getApplicationContext();
         this.secret = secret;
 
         if (uniqueDeviceIdentifier == null) {
@@ -560,46 +813,69 @@ public final class Parley {
             this.uniqueDeviceIdentifier = uniqueDeviceIdentifier;
         }
 
+        outbox.clear();
+        deltaSyncUnsupported = false;
+        resumableUploadsUnsupported = false;
         messagesManager.clear(false);
 
         applySslPinning(context);
+        Connectivity.setCache(new File(context.getCacheDir(), HTTP_CACHE_DIRECTORY), httpCacheSize);
+        Connectivity.getCacheMetrics().reset();
+        imageCompressor.setDirectory(new File(context.getCacheDir(), FileUtil.DIRECTORY_UPLOADS));
+        deleteLegacyCopies(applicationContext);
 
         if (ConnectivityMonitor.isNetworkOffline(context)) {
             // Direct callback
             setState(messagesManager.isCachingEnabled() ? State.CONFIGURED : State.FAILED);
         } else {
-            new DeviceRepository().register(new RepositoryCallback<Void>() {
-                @Override
-                public void onSuccess(Void data) {
-                    new MessageRepository().findAll(new RepositoryCallback<ParleyResponse<List<Message>>>() {
-                        @Override
-                        public void onSuccess(ParleyResponse<List<Message>> data) {
-                            messagesManager.begin(data.getWelcomeMessage(), data.getStickyMessage(), data.getData(), data.getPaging());
+            final boolean showingCachedMessages = messagesManager.isCachingEnabled() && !messagesManager.isEmpty();
+            if (showingCachedMessages) {
+                // Show the cached messages already, the latest messages are added when retrieved
+                refreshingMessages = true;
+                setState(State.CONFIGURED);
+            }
 
-                            setState(State.CONFIGURED);
-                            retrievedFirstMessages = true;
+            new StartupRepository().start(parallelStartup, new RepositoryCallback<ParleyResponse<List<Message>>>() {
+                @Override
+                public void onSuccess(ParleyResponse<List<Message>> data) {
+                    refreshingMessages = false;
 
-                            callback.onSuccess();
+                    if (showingCachedMessages && messagesManager.hasAnyMessage(data.getData())) {
+                        // The retrieved messages continue the cached messages, only add the new ones
+                        if (messagesManager.getPaging() == null) {
+                            messagesManager.applyPaging(data.getPaging());
                         }
+                        messagesManager.applyWelcomeMessage(data.getWelcomeMessage());
+                        messagesManager.applyStickyMessage(data.getStickyMessage());
+                        messagesManager.addOnlyNew(data.getData());
 
-                        @Override
-                        public void onFailed(Integer code, String message) {
-                            if (ParleyResponse.isOfflineErrorCode(code) && messagesManager.isCachingEnabled()) {
-                                setState(State.CONFIGURED);
-                                callback.onSuccess();
-                            } else {
-                                setState(State.FAILED);
-                                callback.onFailure(code, message);
-                            }
+                        if (listener != null) {
+                            listener.onReceivedLatestMessages();
                         }
-                    });
+
+                        resendPendingMessages();
+                    } else {
+                        messagesManager.begin(data.getWelcomeMessage(), data.getStickyMessage(), data.getData(), data.getPaging());
+
+                        setState(State.CONFIGURED);
+                    }
+                    retrievedFirstMessages = true;
+
+                    callback.onSuccess();
                 }
 
                 @Override
                 public void onFailed(Integer code, String message) {
+                    refreshingMessages = false;
+
                     if (ParleyResponse.isOfflineErrorCode(code) && messagesManager.isCachingEnabled()) {
-                        setState(State.CONFIGURED);
+                        if (state != State.CONFIGURED) {
+                            setState(State.CONFIGURED);
+                        }
                         callback.onSuccess();
+                    } else if (showingCachedMessages) {
+                        // Keep showing the cached messages, the latest messages are retrieved when refreshing again
+                        callback.onFailure(code, message);
                     } else {
                         setState(State.FAILED);
                         callback.onFailure(code, message);
@@ -625,13 +901,21 @@ public final class Parley {
         });
 
         retrievedFirstMessages = false;
+        outbox.clear();
         messagesManager.clear(true);
+        Connectivity.clearCache();
+        imageCompressor.clear();
+        if (applicationContext != null) {
+            FileUtil.deleteUploadCopies(applicationContext); // The pending messages are removed
+        }
+        uploadProgress.clear();
 
         setState(State.UNCONFIGURED);
     }
 
     private void setNetworkI(ParleyNetwork network) {
         this.network = network;
+        Connectivity.invalidate(); // Connections of the previous network can't be reused
     }
 
     private void setUserInformationI(String authorization, @Nullable Map<String, String> additionalInformation, final ParleyCallback callback) {
@@ -639,6 +923,9 @@ public final class Parley {
             additionalInformation = new HashMap<>();
         }
 
+        if (!CompareUtil.equals(this.userAuthorization, authorization)) {
+            Connectivity.clearCache(); // Don't revalidate the messages of the previous user
+        }
         this.userAuthorization = authorization;
         this.userAdditionalInformation = additionalInformation;
 
@@ -650,6 +937,7 @@ public final class Parley {
     }
 
     private void clearUserInformationI(final ParleyCallback callback) {
+        Connectivity.clearCache();
         this.userAuthorization = null;
         this.userAdditionalInformation = new HashMap<>();
 
@@ -697,11 +985,33 @@ public final class Parley {
     }
 
     public void loadMoreMessages() {
-        if (loadingMore || messagesManager.getPaging() == null) {
-            // We are already loading more messages or we have no paging yet
+        if (loadingMore) {
+            // We are already loading more messages
             return;
         }
         loadingMore = true;
+        messagesManager.loadStoredOlderMessages(new ParleyPagedMessageDataSource.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean loaded) {
+                if (loaded) {
+                    // Older messages were read from the data source again, only render them
+                    loadingMore = false;
+                    if (listener != null) {
+                        listener.onReceivedLatestMessages();
+                    }
+                } else {
+                    loadOlderMessages();
+                }
+            }
+        });
+    }
+
+    private void loadOlderMessages() {
+        if (messagesManager.getPaging() == null) {
+            // We have no paging yet
+            loadingMore = false;
+            return;
+        }
         new MessageRepository().getOlder(messagesManager.getPaging(), new RepositoryCallback<ParleyResponse<List<Message>>>() {
             @Override
             public void onSuccess(ParleyResponse<List<Message>> data) {
@@ -729,11 +1039,7 @@ public final class Parley {
     }
 
     public void resendMessage(Message message) {
-        this.resendMessage(message, null);
-    }
-
-    private void resendMessage(Message message, @Nullable ChainListener chainListener) {
-        this.submitMessage(message, false, false, chainListener);
+        this.submitMessage(message, false);
     }
 
     public void sendImageMessage(final File imageFile) {
@@ -751,87 +1057,51 @@ public final class Parley {
         this.submitMessage(message, true);
     }
 
-    @SuppressWarnings("SameParameterValue")
-    private void submitMessage(final Message message, final boolean isNewMessage) {
-        boolean triggerSentMessage = isNewMessage && getNetwork().apiVersion.isUsingMedia() && message.getLegacyImageUrl() == null;
-        this.submitMessage(message, isNewMessage, triggerSentMessage, null);
-    }
-
-    private void submitMessage(final Message message, final boolean showNewMessage, final boolean triggerSentMessage, @Nullable final ChainListener chainListener) {
-        if (showNewMessage) {
-            listener.onNewMessage(message);
-            new EventRepository().fire(EVENT_STOP_TYPING);
-        }
-
-        boolean uploadMediaFirst = getNetwork().apiVersion.isUsingMedia() && message.getLegacyImageUrl() != null;
-        if (uploadMediaFirst) {
-            // Upload image first, then update the message (remove `image`, add `media`) and after that submit the actual message with the right media
-            new MessageRepository().sendMedia(message, new RepositoryCallback<Message>() {
-                @Override
-                public void onSuccess(Message updatedMessage) {
-                    if (updatedMessage.getMedia() == null)
-                        throw new AssertionError("Missing media");
-
-                    // Media is updated
-                    listener.onUpdateMessage(updatedMessage);
-
-                    // Submit the actual message
-                    submitMessage(updatedMessage, false, triggerSentMessage, chainListener);
-                }
-
-                @Override
-                public void onFailed(Integer code, String errorMessage) {
-                    if (ParleyResponse.isOfflineErrorCode(code) && messagesManager.isCachingEnabled()) {
-                        // It is cached, this will be handled later
-                    } else {
-                        Message updatedMessage = Message.withIdAndStatus(message, message.getId(), SEND_STATUS_FAILED);
-                        listener.onUpdateMessage(updatedMessage);
-                    }
-
-                    if (showNewMessage) { // Not on `triggerSentMessage` because we wanna trigger this here when the media upload failed
-                        listener.onMessageSent();
-                    }
-
-                    if (chainListener != null) {
-                        chainListener.onNext();
-                    }
-                }
-            });
-        } else {
-            // Just submit the message (and upload images like before V1.6)
-            new MessageRepository().send(message, new RepositoryCallback<Message>() {
+    /**
+     * Sends the image of the content uri. Only the uri is stored with the pending message, the image is read when it is uploaded.
+     *
+     * @param imageUri Content uri of the image, with a persisted read permission to upload it after a restart.
+     */
+    public void sendImageMessage(final Uri imageUri) {
+        if (refreshingMessages) {
+            // Wait for it
+            new Handler().postDelayed(new Runnable() {
                 @Override
-                public void onSuccess(final Message updatedMessage) {
-                    listener.onUpdateMessage(updatedMessage);
-
-                    if (triggerSentMessage) {
-                        listener.onMessageSent();
-                    }
-
-                    if (chainListener != null) {
-                        chainListener.onNext();
-                    }
+                public void run() {
+                    sendImageMessage(imageUri);
                 }
+            }, 100);
+            return;
+        }
+        final Message message = Message.ofTypeOwnImage(imageUri.toString());
+        this.submitMessage(message, true);
+    }
 
-                @Override
-                public void onFailed(Integer code, String errorMessage) {
-                    if (ParleyResponse.isOfflineErrorCode(code) && messagesManager.isCachingEnabled()) {
-                        // It is cached, this will be handled later
-                    } else {
-                        Message updatedMessage = Message.withIdAndStatus(message, message.getId(), SEND_STATUS_FAILED);
-                        listener.onUpdateMessage(updatedMessage);
-                    }
-
-                    if (triggerSentMessage) {
-                        listener.onMessageSent();
+    /**
+     * Removes the copies of selected images that previous versions left behind, in the background.
+     */
+    private void deleteLegacyCopies(final Context context) {
+        messagesManager.getPendingMessages(false, new ParleyPagedMessageDataSource.Callback<List<Message>>() {
+            @Override
+            public void onResult(final List<Message> pendingMessages) {
+                imageCompressor.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        FileUtil.deleteLegacyCopies(context, pendingMessages);
                     }
+                });
+            }
+        });
+    }
 
-                    if (chainListener != null) {
-                        chainListener.onNext();
-                    }
-                }
-            });
+    private void submitMessage(final Message message, final boolean isNewMessage) {
+        if (isNewMessage) {
+            listener.onNewMessage(message);
+            new EventRepository().fire(EVENT_STOP_TYPING);
         }
+
+        boolean usingMedia = getNetwork().apiVersion.isUsingMedia();
+        outbox.enqueue(message, usingMedia, isNewMessage && usingMedia);
     }
 
     private boolean handleI(Context context, Map<String, String> data, Intent intent) {
@@ -857,6 +1127,8 @@ public final class Parley {
                     PushNotificationHandler.showNotification(context, data, intent);
                 }
             }
+        } else if (isRealtimeConnected() && (PushNotificationHandler.isMessage(data) || PushNotificationHandler.isEvent(data))) {
+            Log.d("Parley", "Incoming message was a Parley message, but it is received through the realtime connection, ignoring it.");
         } else if (PushNotificationHandler.isMessage(data)) {
             retrieveNewMessage(data);
         } else if (PushNotificationHandler.isEvent(data)) {
@@ -864,17 +1136,7 @@ public final class Parley {
             if (eventType == null) {
                 Log.d("Parley", "Incoming message was a Parley event, but without event type");
             } else {
-                switch (eventType) {
-                    case EVENT_START_TYPING:
-                        listener.onAgentStartTyping();
-                        break;
-                    case EVENT_STOP_TYPING:
-                        listener.onAgentStopTyping();
-                        break;
-                    default:
-                        Log.d("Parley", "Incoming message was a Parley event, but with unsupported event type: " + eventType);
-                        break;
-                }
+                receivedEvent(eventType);
             }
         } else {
             Log.d("Parley", "Incoming message was intended for Parley, but unsupported.");
@@ -882,6 +1144,45 @@ public final class Parley {
         return true;
     }
 
+    private void receivedEvent(String eventType) {
+        if (listener == null) {
+            return;
+        }
+        switch (eventType) {
+            case EVENT_START_TYPING:
+                listener.onAgentStartTyping();
+                break;
+            case EVENT_STOP_TYPING:
+                listener.onAgentStopTyping();
+                break;
+            default:
+                Log.d("Parley", "Incoming message was a Parley event, but with unsupported event type: " + eventType);
+                break;
+        }
+    }
+
+    /**
+     * Handles a complete message that was received through the realtime connection, no need to retrieve it.
+     */
+    private void receivedNewMessage(Message message) {
+        if (listener == null) {
+            return;
+        }
+        if (refreshingMessages) {
+            Log.d("Parley", "Incoming message was a Parley message, but we were syncing. Message will appear");
+            return;
+        }
+        if (message.getId() != null && messagesManager.hasMessage(message.getId())) {
+            return;
+        }
+
+        listener.onNewMessage(message);
+
+        if (message.getTypeId() == MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_AGENT) {
+            listener.onAgentStopTyping();
+        }
+    }
+
     private void retrieveNewMessage(Map<String, String> data) {
         Integer messageId = PushNotificationHandler.getMessageId(data);
 
@@ -0,0 +1,307 @@
+package nu.parley.android.data.messages;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import nu.parley.android.data.model.Message;
+import nu.parley.android.data.net.RepositoryCallback;
+import nu.parley.android.data.net.response.ParleyResponse;
+import nu.parley.android.data.repository.MessageRepository;
+
+import static nu.parley.android.data.model.Message.SEND_STATUS_FAILED;
+
+/**
+ * Sends the messages of the user.
+ *
+ * <p>
+ * Messages are queued by their uuid, so a message that is queued again while it is still being sent
+ * is not sent twice. The pending messages themselves are stored by the {@link ParleyDataSource}, the
+ * outbox picks them up again with {@link #enqueue(Message, boolean, boolean)} after a restart.
+ * </p>
+ *
+ * <p>
+ * Media is uploaded in parallel (see {@link #setMaxConcurrentUploads(int)}), messages are posted
+ * one at a time in the order they were queued. Text messages don't have to wait for the media of
+ * earlier messages, unless disabled with {@link #setTextBypassesMedia(boolean)}. Each message is
+ * sent with its uuid as idempotency key, so the server can ignore retries of a message it already
+ * received.
+ * </p>
+ *
+ * <p>
+ * Failures caused by being offline (or by the server) are retried with an exponential backoff.
+ * {@link #flush()} retries them directly, for example when the network is available again.
+ * </p>
+ *
+ * <p>
+ * <b>Note:</b> Not thread safe, it should only be used from the main thread.
+ * </p>
+ */
+public final class MessageOutbox {
+
+    private static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 2;
+    private static final long RETRY_DELAY_INITIAL = 1000; // Milliseconds
+    private static final long RETRY_DELAY_MAX = 60 * 1000; // Milliseconds
+    private static final int RETRY_ATTEMPTS_SERVER_ERROR = 5;
+    private static final int CODE_INVALID_RESPONSE = 500; // Handled like a server error
+
+    public interface Listener {
+
+        /**
+         * The message was updated, for example because it is sent or its media is uploaded.
+         */
+        void onMessageUpdated(Message message);
+
+        /**
+         * A new message is done sending (successful or not), called once per message.
+         */
+        void onMessageSent();
+    }
+
+    private enum State {
+        WAITING,
+        UPLOADING,
+        READY,
+        POSTING,
+        RETRY_WAITING
+    }
+
+    private static final class Entry {
+
+        private Message message;
+        private boolean notifySent;
+        private State state;
+        private State retryState; // State to continue with after waiting for the retry
+        private int attempts = 0;
+
+        private Entry(Message message, boolean notifySent, State state) {
+            this.message = message;
+            this.notifySent = notifySent;
+            this.state = state;
+        }
+    }
+
+    private final Map<UUID, Entry> entries = new LinkedHashMap<>(); // Ordered by queueing
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable retryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            retry(false);
+        }
+    };
+    private final MessageRepository repository = new MessageRepository();
+    private final MessagesManager messagesManager;
+    private final Listener listener;
+
+    private int maxConcurrentUploads = DEFAULT_MAX_CONCURRENT_UPLOADS;
+    private boolean textBypassesMedia = false; // Keeps the order of the chat
+    private int uploading = 0;
+    private boolean posting = false;
+    private long retryAt = 0;
+
+    /**
+     * @param messagesManager Manager of the messages, messages are only retried when offline if they are cached.
+     * @param listener        Listener for the results of sending.
+     */
+    public MessageOutbox(MessagesManager messagesManager, Listener listener) {
+        this.messagesManager = messagesManager;
+        this.listener = listener;
+    }
+
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        this.maxConcurrentUploads = Math.max(1, maxConcurrentUploads);
+    }
+
+    public void setTextBypassesMedia(boolean textBypassesMedia) {
+        this.textBypassesMedia = textBypassesMedia;
+    }
+
+    /**
+     * Queues a message to be sent. Does nothing if the message is already queued.
+     *
+     * @param message          The message.
+     * @param uploadMediaFirst `true` if media should be uploaded before posting the message (API 1.6 and up).
+     * @param notifySent       `true` to call {@link Listener#onMessageSent()} when the message is done sending.
+     */
+    public void enqueue(Message message, boolean uploadMediaFirst, boolean notifySent) {
+        if (entries.containsKey(message.getUuid())) {
+            Log.d("MessageOutbox", "enqueue :: Message is already queued");
+            return;
+        }
+        boolean needsUpload = uploadMediaFirst && message.getLegacyImageUrl() != null;
+        entries.put(message.getUuid(), new Entry(message, notifySent, needsUpload ? State.WAITING : State.READY));
+        pump();
+    }
+
+    /**
+     * Retries the messages that are waiting for a retry right away.
+     */
+    public void flush() {
+        retry(true);
+    }
+
+    /**
+     * Removes all messages from the outbox, messages that are being sent are ignored when they are done.
+     */
+    public void clear() {
+        entries.clear();
+        handler.removeCallbacks(retryRunnable);
+        uploading = 0;
+        posting = false;
+        retryAt = 0;
+    }
+
+    private static boolean hasMedia(Message message) {
+        return message.getLegacyImageUrl() != null || message.getMedia() != null;
+    }
+
+    private void pump() {
+        // Upload media in parallel
+        for (Entry entry : entries.values()) {
+            if (uploading >= maxConcurrentUploads) {
+                break;
+            }
+            if (entry.state == State.WAITING) {
+                upload(entry);
+            }
+        }
+
+        // Post messages one at a time, in order
+        if (posting) {
+            return;
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.state == State.READY) {
+                post(entry);
+                return;
+            }
+            if (!textBypassesMedia || !hasMedia(entry.message)) {
+                return; // Keep the order
+            }
+        }
+    }
+
+    private void upload(final Entry entry) {
+        entry.state = State.UPLOADING;
+        uploading++;
+        repository.sendMedia(entry.message, new RepositoryCallback<Message>() {
+            @Override
+            public void onSuccess(Message updatedMessage) {
+                if (!isQueued(entry)) {
+                    return;
+                }
+                uploading--;
+                if (updatedMessage.getMedia() == null) {
+                    Log.w("MessageOutbox", "Upload of message " + entry.message.getUuid() + " returned no media");
+                    handleFailure(entry, State.WAITING, CODE_INVALID_RESPONSE);
+                    return;
+                }
+
+                // Media is updated, the message can be posted now
+                entry.message = updatedMessage;
+                entry.state = State.READY;
+                entry.attempts = 0;
+                listener.onMessageUpdated(updatedMessage);
+                pump();
+            }
+
+            @Override
+            public void onFailed(Integer code, String message) {
+                if (!isQueued(entry)) {
+                    return;
+                }
+                uploading--;
+                handleFailure(entry, State.WAITING, code);
+            }
+        });
+    }
+
+    private void post(final Entry entry) {
+        entry.state = State.POSTING;
+        posting = true;
+        repository.send(entry.message, new RepositoryCallback<Message>() {
+            @Override
+            public void onSuccess(Message updatedMessage) {
+                if (!isQueued(entry)) {
+                    return;
+                }
+                posting = false;
+                entries.remove(entry.message.getUuid());
+                listener.onMessageUpdated(updatedMessage);
+                notifySent(entry);
+                pump();
+            }
+
+            @Override
+            public void onFailed(Integer code, String message) {
+                if (!isQueued(entry)) {
+                    return;
+                }
+                posting = false;
+                handleFailure(entry, State.READY, code);
+            }
+        });
+    }
+
+    /**
+     * @param retryState The state of the entry when retrying it.
+     */
+    private void handleFailure(Entry entry, State retryState, @Nullable Integer code) {
+        entry.attempts++;
+        boolean offline = ParleyResponse.isOfflineErrorCode(code);
+        boolean serverError = code != null && code >= 500;
+        if ((offline && messagesManager.isCachingEnabled()) || (serverError && entry.attempts < RETRY_ATTEMPTS_SERVER_ERROR)) {
+            // Still pending, retry later
+            entry.state = State.RETRY_WAITING;
+            entry.retryState = retryState;
+            scheduleRetry(entry.attempts);
+        } else {
+            entries.remove(entry.message.getUuid());
+            listener.onMessageUpdated(Message.withIdAndStatus(entry.message, entry.message.getId(), SEND_STATUS_FAILED));
+        }
+        notifySent(entry); // Done for now, a pending message remains visible as pending
+        pump();
+    }
+
+    private void notifySent(Entry entry) {
+        if (entry.notifySent) {
+            entry.notifySent = false;
+            listener.onMessageSent();
+        }
+    }
+
+    private void scheduleRetry(int attempts) {
+        long delay = Math.min(RETRY_DELAY_MAX, RETRY_DELAY_INITIAL << Math.min(attempts - 1, 16));
+        long at = System.currentTimeMillis() + delay;
+        if (retryAt != 0 && retryAt <= at) {
+            return; // An earlier retry is scheduled already
+        }
+        retryAt = at;
+        handler.removeCallbacks(retryRunnable);
+        handler.postDelayed(retryRunnable, delay);
+    }
+
+    private void retry(boolean resetAttempts) {
+        handler.removeCallbacks(retryRunnable);
+        retryAt = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.state == State.RETRY_WAITING) {
+                entry.state = entry.retryState;
+            }
+            if (resetAttempts) {
+                entry.attempts = 0;
+            }
+        }
+        pump();
+    }
+
+    private boolean isQueued(Entry entry) {
+        return entries.get(entry.message.getUuid()) == entry;
+    }
+}
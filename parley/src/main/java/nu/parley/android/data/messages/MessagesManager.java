@@ -2,64 +2,131 @@ package nu.parley.android.data.messages;
 
 import androidx.annotation.Nullable;
 
-import com.google.gson.Gson;
-
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import nu.parley.android.data.model.Message;
 import nu.parley.android.data.net.response.ParleyPaging;
 import nu.parley.android.util.CompareUtil;
+import nu.parley.android.util.GsonUtil;
 import nu.parley.android.util.ListUtil;
 
 import static nu.parley.android.util.DateUtil.isSameDay;
 import static nu.parley.android.view.chat.MessageViewHolderFactory.MESSAGE_TYPE_AGENT_TYPING;
+import static nu.parley.android.view.chat.MessageViewHolderFactory.MESSAGE_TYPE_DATE;
+import static nu.parley.android.view.chat.MessageViewHolderFactory.MESSAGE_TYPE_INFO;
 
 public final class MessagesManager {
 
+    private static final int WINDOW_SIZE = 200; // Messages kept in memory while the newest messages are shown
+    private static final int STORED_PAGE_SIZE = 100; // Messages read from a paged data source at once
+
     private final List<Message> originalMessages = new ArrayList<>(); // last = oldest
     private final List<Message> messages = new ArrayList<>(); // last = oldest
+    // Indexes of `originalMessages` and the amount of pending messages in it, kept in step with that list
+    private final Map<UUID, Message> messagesByUuid = new HashMap<>();
+    private final Map<Integer, Message> messagesById = new HashMap<>();
+    private int pendingCount = 0;
+    // Date messages that are shown in `messages` by day, they are reused when formatting again to keep their identity
+    private final Map<Long, Message> dateMessages = new HashMap<>();
+    @Nullable
+    private Message infoMessage;
 
     private String welcomeMessage;
     private String stickyMessage;
     private ParleyPaging paging;
+    // Id of the newest message known by the server, the high-water mark for retrieving only newer messages
+    @Nullable
+    private Integer syncCursor;
+    @Nullable
+    private Integer savedSyncCursor;
 
     private ParleyDataSource dataSource = null;
+    @Nullable
+    private ParleyPagedMessageDataSource pagedDataSource = null;
+    // `true` when the paged data source has older messages than the ones in `originalMessages`
+    private boolean hasStoredOlderMessages = false;
+    // Changes when `originalMessages` is replaced or trimmed, reads of the paged data source that started before are outdated
+    private int generation = 0;
 
     public void setDataSource(@Nullable ParleyDataSource dataSource) {
         this.dataSource = dataSource;
+        this.pagedDataSource = dataSource instanceof ParleyPagedMessageDataSource ? (ParleyPagedMessageDataSource) dataSource : null;
+        this.hasStoredOlderMessages = false;
+        this.generation++;
         this.originalMessages.clear();
+        this.clearIndexes();
 
         if (dataSource == null) {
             this.welcomeMessage = null;
             this.paging = null;
+            this.savedSyncCursor = null;
         } else {
-            this.originalMessages.addAll(dataSource.getAll());
+            this.savedSyncCursor = parseSyncCursor(dataSource.get(ParleyKeyValueDataSource.KEY_SYNC_CURSOR));
+            this.syncCursor = this.savedSyncCursor;
+            if (pagedDataSource == null) {
+                this.originalMessages.addAll(dataSource.getAll());
+            } else {
+                this.originalMessages.addAll(pagedDataSource.get(0, WINDOW_SIZE));
+                this.hasStoredOlderMessages = pagedDataSource.count() > originalMessages.size();
+            }
+            this.index(this.originalMessages);
             this.welcomeMessage = dataSource.get(ParleyKeyValueDataSource.KEY_MESSAGE_INFO);
 
             String cachedPaging = dataSource.get(ParleyKeyValueDataSource.KEY_PAGING);
             if (cachedPaging != null) {
-                this.paging = new Gson().fromJson(cachedPaging, ParleyPaging.class);
+                this.paging = GsonUtil.getGson().fromJson(cachedPaging, ParleyPaging.class);
             }
         }
         formatMessages();
     }
 
     /**
-     * Returns the messages that are currently pending in a sorted way.
+     * Returns the messages that are currently pending in a sorted way. The pending messages that are
+     * only in the paged data source are read in the background.
      *
      * @param oldestOnTop When `true`, oldest pending messages are on top of the returned list.
-     * @return The pending messages
+     * @param callback    Called with the pending messages, on the main thread.
      */
-    public List<Message> getPendingMessages(boolean oldestOnTop) {
+    public void getPendingMessages(final boolean oldestOnTop, final ParleyPagedMessageDataSource.Callback<List<Message>> callback) {
+        if (pagedDataSource == null || !hasStoredOlderMessages) {
+            callback.onResult(collectPendingMessages(new ArrayList<Message>(), oldestOnTop));
+            return;
+        }
+        final ParleyPagedMessageDataSource source = pagedDataSource;
+        source.getPending(new ParleyPagedMessageDataSource.Callback<List<Message>>() {
+            @Override
+            public void onResult(List<Message> storedPendingMessages) {
+                if (source != pagedDataSource) {
+                    return; // The data source was replaced
+                }
+                callback.onResult(collectPendingMessages(storedPendingMessages, oldestOnTop));
+            }
+        });
+    }
+
+    /**
+     * @param storedPendingMessages The pending messages of the paged data source, the ones that are in memory as well are skipped.
+     */
+    private List<Message> collectPendingMessages(List<Message> storedPendingMessages, boolean oldestOnTop) {
         List<Message> pendingMessages = new ArrayList<>();
         for (Message originalMessage : originalMessages) {
             if (originalMessage.getSendStatus() == Message.SEND_STATUS_PENDING) {
                 pendingMessages.add(originalMessage);
             }
         }
+        // Pending messages that are only in the data source, they are older than the ones in memory
+        for (Message storedMessage : storedPendingMessages) {
+            if (!messagesByUuid.containsKey(storedMessage.getUuid())) {
+                pendingMessages.add(storedMessage);
+            }
+        }
         if (oldestOnTop) {
             Collections.reverse(pendingMessages);
         }
@@ -69,6 +136,10 @@ public final class MessagesManager {
     public void begin(@Nullable String welcomeMessage, @Nullable String stickyMessage, List<Message> messages, ParleyPaging paging) {
         this.originalMessages.clear();
         this.originalMessages.addAll(messages);
+        this.clearIndexes();
+        this.index(this.originalMessages);
+        this.hasStoredOlderMessages = false; // The cache is replaced by these messages
+        this.generation++;
         this.stickyMessage = stickyMessage;
         this.applyWelcomeMessage(welcomeMessage);
         this.applyPaging(paging);
@@ -79,6 +150,11 @@ public final class MessagesManager {
             dataSource.clear();
             dataSource.add(this.originalMessages);
         }
+        saveSyncCursor();
+    }
+
+    public void applyStickyMessage(@Nullable String stickyMessage) {
+        this.stickyMessage = stickyMessage;
     }
 
     public void applyWelcomeMessage(String welcomeMessage) {
@@ -89,14 +165,75 @@ public final class MessagesManager {
     }
 
     public void moreLoad(List<Message> messages) {
-        originalMessages.addAll(messages);
-        formatMessages();
+        addOlder(messages);
 
         if (isCachingEnabled()) {
             dataSource.add(messages);
         }
     }
 
+    /**
+     * Reads the next older messages from the data source in the background, when they were removed
+     * from memory before.
+     *
+     * @param callback Called on the main thread with `true` if older messages were read (or the
+     *                 messages changed while reading, so they should be loaded again), `false` if
+     *                 older messages should be retrieved from the server.
+     */
+    public void loadStoredOlderMessages(final ParleyPagedMessageDataSource.Callback<Boolean> callback) {
+        if (pagedDataSource == null || !hasStoredOlderMessages) {
+            callback.onResult(false);
+            return;
+        }
+        final int readGeneration = generation;
+        final int offset = originalMessages.size();
+        pagedDataSource.get(offset, STORED_PAGE_SIZE, new ParleyPagedMessageDataSource.Callback<List<Message>>() {
+            @Override
+            public void onResult(List<Message> olderMessages) {
+                if (readGeneration != generation || offset != originalMessages.size()) {
+                    callback.onResult(true); // Outdated, the next older messages are loaded again when needed
+                    return;
+                }
+                hasStoredOlderMessages = olderMessages.size() == STORED_PAGE_SIZE;
+                if (olderMessages.isEmpty()) {
+                    callback.onResult(false);
+                    return;
+                }
+                addOlder(olderMessages);
+                callback.onResult(true);
+            }
+        });
+    }
+
+    /**
+     * Removes the older messages from memory when more than the newest {@value #WINDOW_SIZE} messages
+     * are loaded. Only possible with a {@link ParleyPagedMessageDataSource}, the removed messages are
+     * read from it again by {@link #loadStoredOlderMessages(ParleyPagedMessageDataSource.Callback)}.
+     *
+     * @return `true` if messages were removed.
+     */
+    public boolean trimToWindow() {
+        if (pagedDataSource == null || originalMessages.size() <= WINDOW_SIZE) {
+            return false;
+        }
+        List<Message> removedMessages = originalMessages.subList(WINDOW_SIZE, originalMessages.size());
+        for (Message message : removedMessages) {
+            unindex(message);
+        }
+        removedMessages.clear();
+        hasStoredOlderMessages = true;
+        generation++;
+        formatMessages();
+        return true;
+    }
+
+    private void addOlder(List<Message> messages) {
+        Date groupDate = originalMessages.isEmpty() ? null : ListUtil.getLast(originalMessages).getDate();
+        originalMessages.addAll(messages);
+        index(messages);
+        formatOlderMessages(messages, groupDate);
+    }
+
     public void add(Message message) {
         int addIndex = messages.indexOf(getLatestMessage());
         if (addIndex == -1) {
@@ -105,18 +242,20 @@ public final class MessagesManager {
         // Check if we need to add a date
         if (messages.size() == 1) {
             // Only welcome message, add it
-            messages.add(addIndex, Message.ofTypeDate(message.getDate()));
+            messages.add(addIndex, getDateMessage(message.getDate(), new HashMap<Long, Message>()));
         } else if (getLatestMessage() == null || !isSameDay(getLatestMessage().getDate(), message.getDate())) {
             // Last message is of another day
-            messages.add(addIndex, Message.ofTypeDate(message.getDate()));
+            messages.add(addIndex, getDateMessage(message.getDate(), new HashMap<Long, Message>()));
         }
         // Add this message
         originalMessages.add(0, message);
+        index(message);
         messages.add(addIndex, message);
 
         if (isCachingEnabled()) {
             dataSource.add(0, message);
         }
+        saveSyncCursor();
     }
 
     /**
@@ -125,65 +264,245 @@ public final class MessagesManager {
      * @param messages A list of messages which may have messages that we have shown earlier
      */
     public void addOnlyNew(List<Message> messages) {
-        boolean didAddMessage = false;
+        int addedMessages = 0;
         Collections.reverse(messages);
 
-        int pendingMessages = 0;
-        for (Message originalMessage : originalMessages) {
-            if (originalMessage.getSendStatus() == Message.SEND_STATUS_PENDING) {
-                pendingMessages += 1;
-            }
-        }
+        int pendingMessages = pendingCount;
 
         for (Message message : messages) {
-            Integer index = null;
-            for (int i = 0; i < originalMessages.size(); i++) {
-                if (CompareUtil.equals(originalMessages.get(i).getId(), message.getId())) {
-                    index = i;
-                }
-            }
-
-            if (index == null) {
-                didAddMessage = true;
+            if (!hasMessage(message.getId())) {
+                addedMessages++;
                 // Add them before the pending messages, as the pending messages will be later than the retrieved ones
                 originalMessages.add(pendingMessages, message);
+                index(message);
                 if (isCachingEnabled()) {
                     dataSource.add(pendingMessages, message);
                 }
             }
         }
-        if (didAddMessage) {
-            formatMessages();
+        if (addedMessages > 0) {
+            formatNewestMessages(pendingMessages + addedMessages);
+            formatInfoMessage();
+            saveSyncCursor();
         }
     }
 
-    public void update(Message message) {
-        Integer messagesIndex = null;
-        for (int i = 0; i < messages.size(); i++) {
-            if (messages.get(i).getUuid() == message.getUuid()) {
-                messagesIndex = i;
+    /**
+     * Applies the messages that were retrieved since the sync cursor. Known messages are replaced by
+     * their newer version (for example with a changed status), the others are added.
+     *
+     * @param messages Messages that are newer than the sync cursor, or changed since then.
+     */
+    public void applySync(List<Message> messages) {
+        List<Message> newMessages = new ArrayList<>();
+        Integer oldestId = hasStoredOlderMessages ? getOldestId() : null;
+        for (Message message : messages) {
+            Message existingMessage = message.getId() == null ? null : messagesById.get(message.getId());
+            if (existingMessage == null && oldestId != null && message.getId() != null && message.getId() < oldestId) {
+                // Not in memory anymore, it isn't new
+                updateStoredMessage(message);
+            } else if (existingMessage == null) {
+                newMessages.add(message);
+            } else {
+                update(Message.withUuid(message, existingMessage.getUuid()));
             }
         }
+        addOnlyNew(newMessages);
+    }
 
-        Integer originalIndex = null;
-        for (int i = 0; i < originalMessages.size(); i++) {
-            if (originalMessages.get(i).getUuid() == message.getUuid()) {
-                originalIndex = i;
+    /**
+     * Updates a message that is only in the paged data source. It is looked up by id in the
+     * background, as the synced message has a uuid of its own.
+     */
+    private void updateStoredMessage(final Message message) {
+        final ParleyPagedMessageDataSource source = pagedDataSource;
+        source.findById(message.getId(), new ParleyPagedMessageDataSource.Callback<Message>() {
+            @Override
+            public void onResult(@Nullable Message storedMessage) {
+                if (storedMessage == null || source != pagedDataSource) {
+                    return;
+                }
+                Message updatedMessage = Message.withUuid(message, storedMessage.getUuid());
+                if (messagesByUuid.containsKey(updatedMessage.getUuid())) {
+                    update(updatedMessage); // Read into memory again in the meantime
+                } else {
+                    source.update(updatedMessage);
+                }
+            }
+        });
+    }
+
+    public void update(Message message) {
+        Message existingMessage = messagesByUuid.get(message.getUuid());
+        int messagesIndex = -1;
+        int originalIndex = -1;
+        if (existingMessage != null) {
+            // `messages` shows `originalMessages` in the same order, both positions are found in one search
+            // from the newest message. Updated messages are usually recent, so the search is short.
+            int shownOriginals = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                Message item = messages.get(i);
+                if (item == existingMessage) {
+                    messagesIndex = i;
+                    originalIndex = shownOriginals;
+                    break;
+                }
+                if (!isFormattingMessage(item) && item.getTypeId() != MESSAGE_TYPE_AGENT_TYPING) {
+                    shownOriginals++;
+                }
+            }
+            if (originalIndex != -1 && (originalIndex >= originalMessages.size() || originalMessages.get(originalIndex) != existingMessage)) {
+                originalIndex = indexOfInstance(originalMessages, existingMessage);
             }
         }
 
-        if (messagesIndex == null || originalIndex == null) {
+        if (existingMessage == null && pagedDataSource != null && hasStoredOlderMessages) {
+            // Not in memory anymore, only update the data source
+            pagedDataSource.update(message);
+        } else if (messagesIndex == -1 || originalIndex == -1) {
             throw new IllegalArgumentException("Given non-existing message to update!");
         } else {
+            unindex(existingMessage);
             originalMessages.set(originalIndex, message);
             messages.set(messagesIndex, message);
+            index(message);
 
             if (isCachingEnabled()) {
                 dataSource.update(message);
             }
+            saveSyncCursor();
+        }
+    }
+
+    /**
+     * @return The id of the newest message known by the server, or `null` if there are no such messages.
+     */
+    @Nullable
+    public Integer getSyncCursor() {
+        return syncCursor;
+    }
+
+    private void saveSyncCursor() {
+        if (isCachingEnabled() && !CompareUtil.equals(savedSyncCursor, syncCursor)) {
+            dataSource.set(ParleyKeyValueDataSource.KEY_SYNC_CURSOR, syncCursor == null ? null : String.valueOf(syncCursor));
+            savedSyncCursor = syncCursor;
         }
     }
 
+    @Nullable
+    private static Integer parseSyncCursor(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param uuid The uuid of the message.
+     * @return The message with this uuid, or `null` if there is no such message.
+     */
+    @Nullable
+    public Message getMessage(UUID uuid) {
+        return messagesByUuid.get(uuid);
+    }
+
+    /**
+     * @param id The id of the message, as known by the server.
+     * @return `true` if a message with this id exists, `false` otherwise or when the id is `null`.
+     */
+    public boolean hasMessage(@Nullable Integer id) {
+        return id != null && messagesById.containsKey(id);
+    }
+
+    /**
+     * @param messages Messages, for example retrieved from the server.
+     * @return `true` if at least one of these messages exists (by id).
+     */
+    public boolean hasAnyMessage(List<Message> messages) {
+        for (Message message : messages) {
+            if (hasMessage(message.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return `true` if there are no messages, not counting the info and date messages.
+     */
+    public boolean isEmpty() {
+        return originalMessages.isEmpty();
+    }
+
+    /**
+     * Finds the position of the given message instance. Updated messages are usually the most recent
+     * ones, so the search starts at the newest message.
+     */
+    private static int indexOfInstance(List<Message> list, Message message) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == message) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void index(List<Message> messages) {
+        for (Message message : messages) {
+            index(message);
+        }
+    }
+
+    private void index(Message message) {
+        Message previousMessage = messagesByUuid.put(message.getUuid(), message);
+        if (previousMessage != null && previousMessage.getSendStatus() == Message.SEND_STATUS_PENDING) {
+            pendingCount--;
+        }
+        if (message.getSendStatus() == Message.SEND_STATUS_PENDING) {
+            pendingCount++;
+        }
+        if (message.getId() != null) {
+            messagesById.put(message.getId(), message);
+            if (syncCursor == null || message.getId() > syncCursor) {
+                syncCursor = message.getId();
+            }
+        }
+    }
+
+    private void unindex(Message message) {
+        Message removedMessage = messagesByUuid.remove(message.getUuid());
+        if (removedMessage != null && removedMessage.getSendStatus() == Message.SEND_STATUS_PENDING) {
+            pendingCount--;
+        }
+        if (message.getId() != null && messagesById.get(message.getId()) == message) {
+            messagesById.remove(message.getId());
+        }
+    }
+
+    private void clearIndexes() {
+        messagesByUuid.clear();
+        messagesById.clear();
+        pendingCount = 0;
+        syncCursor = null;
+    }
+
+    /**
+     * @return The id of the oldest message in memory that is known by the server.
+     */
+    @Nullable
+    private Integer getOldestId() {
+        for (int i = originalMessages.size() - 1; i >= 0; i--) {
+            if (originalMessages.get(i).getId() != null) {
+                return originalMessages.get(i).getId();
+            }
+        }
+        return null;
+    }
+
     @Nullable
     private Message getLatestMessage() {
         if (messages.isEmpty()) {
@@ -198,37 +517,152 @@ public final class MessagesManager {
     }
 
     private void formatMessages() {
+        Map<Long, Message> reusableDateMessages = new HashMap<>(dateMessages);
+        dateMessages.clear();
         messages.clear();
 
-        if (originalMessages.size() == 0) {
-            addInfoMessage();
+        messages.addAll(format(originalMessages, null, null, reusableDateMessages));
+        addInfoMessageIfNeeded();
+    }
+
+    /**
+     * Formats older messages that were added at the end, the messages that were shown already are kept as is.
+     *
+     * @param olderMessages The added messages.
+     * @param groupDate     Date of the previously oldest message, or `null` if there were no messages.
+     */
+    private void formatOlderMessages(List<Message> olderMessages, @Nullable Date groupDate) {
+        // The date message of the oldest day and the info message are formatted again
+        int end = messages.size();
+        while (end > 0 && isFormattingMessage(messages.get(end - 1))) {
+            end--;
+        }
+        List<Message> tail = messages.subList(end, messages.size());
+        Map<Long, Message> reusableDateMessages = release(tail);
+        tail.clear();
+
+        messages.addAll(format(olderMessages, groupDate, null, reusableDateMessages));
+        addInfoMessageIfNeeded();
+    }
+
+    /**
+     * Formats the newest messages again, the older messages that were shown already are kept as is.
+     *
+     * @param count Amount of messages to format, starting with the newest message.
+     */
+    private void formatNewestMessages(int count) {
+        if (count >= originalMessages.size()) {
+            formatMessages();
+            return;
+        }
+        Message nextMessage = originalMessages.get(count);
+        int nextIndex = indexOfInstance(messages, nextMessage);
+        if (nextIndex == -1) {
+            formatMessages();
             return;
         }
 
-        Date firstDate = ListUtil.getLast(originalMessages).getDate();
+        int start = messages.get(0).getTypeId() == MESSAGE_TYPE_AGENT_TYPING ? 1 : 0;
+        List<Message> head = messages.subList(start, nextIndex);
+        Map<Long, Message> reusableDateMessages = release(head);
+        head.clear();
 
-        Date lastDayDate = firstDate;
+        messages.addAll(start, format(originalMessages.subList(0, count), null, nextMessage.getDate(), reusableDateMessages));
+    }
 
-        for (Message message : originalMessages) {
-            if (!isSameDay(lastDayDate, message.getDate())) {
-                if (!isSameDay(lastDayDate, firstDate)) {
-                    // Add date message
-                    messages.add(Message.ofTypeDate(lastDayDate));
+    /**
+     * Formats the messages to the items that are shown: the oldest message of every day is followed by a date message.
+     *
+     * @param source               The messages to format, newest first.
+     * @param groupDate            Date of the day that is continued by the first message, or `null` if it starts a new day.
+     * @param nextDate             Date of the message that follows the formatted messages, or `null` if there is none.
+     * @param reusableDateMessages Date messages that can be reused.
+     * @return The formatted messages.
+     */
+    private List<Message> format(List<Message> source, @Nullable Date groupDate, @Nullable Date nextDate, Map<Long, Message> reusableDateMessages) {
+        List<Message> formatted = new ArrayList<>(source.size() + 1);
+        Date dayDate = groupDate;
+        for (Message message : source) {
+            if (dayDate == null) {
+                dayDate = message.getDate();
+            } else if (!isSameDay(dayDate, message.getDate())) {
+                formatted.add(getDateMessage(dayDate, reusableDateMessages));
+                dayDate = message.getDate();
+            }
+            formatted.add(message);
+        }
+        if (dayDate != null && (nextDate == null || !isSameDay(dayDate, nextDate))) {
+            formatted.add(getDateMessage(dayDate, reusableDateMessages));
+        }
+        return formatted;
+    }
+
+    /**
+     * @return The date message for the day of this date. The shown date message of this day is reused if possible.
+     */
+    private Message getDateMessage(Date date, Map<Long, Message> reusableDateMessages) {
+        long day = getDay(date);
+        Message dateMessage = reusableDateMessages.remove(day);
+        if (dateMessage == null) {
+            dateMessage = Message.ofTypeDate(date);
+        }
+        if (!dateMessages.containsKey(day)) {
+            dateMessages.put(day, dateMessage);
+        }
+        return dateMessage;
+    }
+
+    /**
+     * Marks the date messages of the items that are about to be removed as reusable.
+     *
+     * @return The reusable date messages by day.
+     */
+    private Map<Long, Message> release(List<Message> removedItems) {
+        Map<Long, Message> reusableDateMessages = new HashMap<>();
+        for (Message item : removedItems) {
+            if (item.getTypeId() == MESSAGE_TYPE_DATE) {
+                long day = getDay(item.getDate());
+                if (dateMessages.get(day) == item) {
+                    dateMessages.remove(day);
+                    reusableDateMessages.put(day, item);
                 }
-                lastDayDate = message.getDate();
             }
-            messages.add(message);
         }
-        messages.add(Message.ofTypeDate(firstDate));
+        return reusableDateMessages;
+    }
+
+    private static boolean isFormattingMessage(Message message) {
+        return message.getTypeId() == MESSAGE_TYPE_DATE || message.getTypeId() == MESSAGE_TYPE_INFO;
+    }
+
+    private static long getDay(Date date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        return calendar.get(Calendar.YEAR) * 1000L + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    /**
+     * Formats the info message at the end again, as the welcome message or paging may have changed.
+     */
+    private void formatInfoMessage() {
+        if (!messages.isEmpty() && ListUtil.getLast(messages).getTypeId() == MESSAGE_TYPE_INFO) {
+            messages.remove(messages.size() - 1);
+        }
+        addInfoMessageIfNeeded();
+    }
 
-        if (!canLoadMore()) {
+    private void addInfoMessageIfNeeded() {
+        if (originalMessages.isEmpty() || !canLoadMore()) {
             addInfoMessage();
         }
     }
 
     private void addInfoMessage() {
         if (welcomeMessage != null) {
-            messages.add(Message.ofTypeInfo(welcomeMessage));
+            if (infoMessage == null || !welcomeMessage.equals(infoMessage.getMessage())) {
+                infoMessage = Message.ofTypeInfo(welcomeMessage);
+            }
+            messages.add(infoMessage);
         }
     }
 
@@ -263,7 +697,7 @@ public final class MessagesManager {
     public void applyPaging(ParleyPaging paging) {
         this.paging = paging;
         if (isCachingEnabled()) {
-            dataSource.set(ParleyKeyValueDataSource.KEY_PAGING, new Gson().toJson(paging));
+            dataSource.set(ParleyKeyValueDataSource.KEY_PAGING, GsonUtil.getGson().toJson(paging));
         }
     }
 
@@ -271,8 +705,16 @@ public final class MessagesManager {
         return dataSource != null;
     }
 
+    /**
+     * @return The data source when caching is enabled, for state of pending messages that should be kept next to them.
+     */
+    @Nullable
+    public ParleyKeyValueDataSource getKeyValueDataSource() {
+        return dataSource;
+    }
+
     public boolean canLoadMore() {
-        return paging != null && paging.getBefore() != null;
+        return hasStoredOlderMessages || (paging != null && paging.getBefore() != null);
     }
 
     public List<String> getAvailableQuickReplies() {
@@ -285,6 +727,9 @@ public final class MessagesManager {
     public void clear(boolean clearDataSource) {
         this.originalMessages.clear();
         this.messages.clear();
+        this.clearIndexes();
+        this.dateMessages.clear();
+        this.infoMessage = null;
         this.welcomeMessage = null;
         this.stickyMessage = null;
         this.paging = null;
@@ -299,5 +744,8 @@ public final class MessagesManager {
             this.dataSource.clear();
         }
         this.dataSource = null;
+        this.pagedDataSource = null;
+        this.hasStoredOlderMessages = false;
+        this.generation++;
     }
 }
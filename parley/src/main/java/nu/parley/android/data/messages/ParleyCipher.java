@@ -0,0 +1,71 @@
+package nu.parley.android.data.messages;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES helpers shared by the encrypted data source and its message journal.
+ */
+final class ParleyCipher {
+
+    static final int ENCRYPTION_KEY_LENGTH = 256;
+    static final int ENCRYPTION_IV_LENGTH = 16;
+
+    private static final int ENCRYPTION_ITERATION_COUNT = 1324;
+
+    private static final String ENCRYPTION_CIPHER_TRANSFORMATION = "AES/CBC/PKCS7Padding";
+    private static final String ENCRYPTION_SECRET_KEY_ALGORITHM = "PBKDF2WithHmacSHA1";
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private ParleyCipher() {
+        // Hide constructor
+    }
+
+    static byte[] encrypt(SecretKeySpec keySpec, byte[] iv, byte[] dataToEncrypt) throws GeneralSecurityException {
+        return getCipher(Cipher.ENCRYPT_MODE, keySpec, iv).doFinal(dataToEncrypt);
+    }
+
+    static byte[] decrypt(SecretKeySpec keySpec, byte[] iv, byte[] encrypted) throws GeneralSecurityException {
+        return getCipher(Cipher.DECRYPT_MODE, keySpec, iv).doFinal(encrypted);
+    }
+
+    static byte[] decrypt(SecretKeySpec keySpec, byte[] iv, byte[] encrypted, int offset, int length) throws GeneralSecurityException {
+        return getCipher(Cipher.DECRYPT_MODE, keySpec, iv).doFinal(encrypted, offset, length);
+    }
+
+    private static Cipher getCipher(int cipherMode, SecretKeySpec keySpec, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(ENCRYPTION_CIPHER_TRANSFORMATION);
+        cipher.init(cipherMode, keySpec, new IvParameterSpec(iv));
+        return cipher;
+    }
+
+    static byte[] createSalt() {
+        return createSalt(ENCRYPTION_KEY_LENGTH);
+    }
+
+    static byte[] createSalt(int length) {
+        byte[] salt = new byte[length];
+        random.nextBytes(salt);
+        return salt;
+    }
+
+    static byte[] createIv() {
+        byte[] iv = new byte[ENCRYPTION_IV_LENGTH];
+        random.nextBytes(iv);
+        return iv;
+    }
+
+    static SecretKeySpec generateKey(String password, byte[] salt) throws GeneralSecurityException {
+        PBEKeySpec pbeKeySpec = new PBEKeySpec(password.toCharArray(), salt, ENCRYPTION_ITERATION_COUNT, ENCRYPTION_KEY_LENGTH);
+        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(ENCRYPTION_SECRET_KEY_ALGORITHM);
+        byte[] keyBytes = secretKeyFactory.generateSecret(pbeKeySpec).getEncoded();
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+}
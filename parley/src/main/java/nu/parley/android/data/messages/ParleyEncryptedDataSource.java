@@ -5,7 +5,6 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
-import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import java.io.BufferedInputStream;
@@ -14,66 +13,85 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Type;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import nu.parley.android.data.model.Message;
+import nu.parley.android.util.GsonUtil;
 
 /**
  * An implementation of caching Parley data by using AES encryption.
  *
  * <p>
+ * Messages are stored in an append-only journal in which every record is encrypted on its own. All
+ * file operations run on a background thread, reads wait for the pending writes to finish.
+ * </p>
+ *
+ * <p>
+ * The key is stretched from the secret only once, see {@link ParleyKeyDerivation}. Files that were
+ * written with a key per file are still read and are rewritten in the current format.
+ * </p>
+ *
+ * <p>
  * Based on: https://www.raywenderlich.com/778533-encryption-tutorial-for-android-getting-started
  * </p>
  */
 public final class ParleyEncryptedDataSource implements ParleyDataSource {
 
-    private static final int ENCRYPTION_KEY_LENGTH = 256;
-    private static final int ENCRYPTION_IV_LENGTH = 16;
+    private static final int JOURNAL_COMPACTION_THRESHOLD = 100; // Records
 
-    private static final int ENCRYPTION_ITERATION_COUNT = 1324;
-
-    private static final String ENCRYPTION_CIPHER_TRANSFORMATION = "AES/CBC/PKCS7Padding";
-    private static final String ENCRYPTION_SECRET_KEY_ALGORITHM = "PBKDF2WithHmacSHA1";
-    private static final String ENCRYPTION_FILE_NAME_MESSAGES = "messages";
+    private static final String ENCRYPTION_FILE_NAME_MESSAGES_LEGACY = "messages";
+    private static final String ENCRYPTION_FILE_NAME_MESSAGES = "messages_journal";
     private static final String ENCRYPTION_FILE_NAME_INFO = "info";
     private static final String ENCRYPTION_FILE_NAME_PAGING = "paging";
+    private static final String ENCRYPTION_FILE_NAME_SYNC_CURSOR = "sync_cursor";
+    private static final String ENCRYPTION_FILE_NAME_KEY_SALT = "key_salt";
+    private static final String ENCRYPTION_FILE_NAME_UPLOAD_PREFIX = "upload_"; // Followed by the uuid of the message
+
+    private static final byte[] ENCRYPTION_FILE_MAGIC = {'P', 'L', 'C', '2'};
 
     private final Type messagesListType = new TypeToken<List<Message>>() {
     }.getType();
 
-    private final File cacheFileMessages;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ParleyKeyDerivation keyDerivation;
+    private final ParleyMessageJournal journal;
+    private final File directory;
+    private final File cacheFileMessagesLegacy;
     private final File cacheFileInfo;
     private final File cacheFilePaging;
-    private final String key;
+    private final File cacheFileSyncCursor;
+    private boolean checkedLegacyMessages = false;
 
     public ParleyEncryptedDataSource(Context context, String key) {
-        this.key = key;
-        this.cacheFileMessages = new File(context.getExternalCacheDir() + "/" + ENCRYPTION_FILE_NAME_MESSAGES);
-        this.cacheFileInfo = new File(context.getExternalCacheDir() + "/" + ENCRYPTION_FILE_NAME_INFO);
-        this.cacheFilePaging = new File(context.getExternalCacheDir() + "/" + ENCRYPTION_FILE_NAME_PAGING);
+        this(context.getExternalCacheDir(), key);
     }
 
-    private void saveToFile(File file, byte[] data, byte[] salt, byte[] iv) {
+    ParleyEncryptedDataSource(File directory, String key) {
+        this.directory = directory;
+        this.keyDerivation = new ParleyKeyDerivation(new File(directory, ENCRYPTION_FILE_NAME_KEY_SALT), key);
+        this.journal = new ParleyMessageJournal(new File(directory, ENCRYPTION_FILE_NAME_MESSAGES), keyDerivation);
+        this.cacheFileMessagesLegacy = new File(directory, ENCRYPTION_FILE_NAME_MESSAGES_LEGACY);
+        this.cacheFileInfo = new File(directory, ENCRYPTION_FILE_NAME_INFO);
+        this.cacheFilePaging = new File(directory, ENCRYPTION_FILE_NAME_PAGING);
+        this.cacheFileSyncCursor = new File(directory, ENCRYPTION_FILE_NAME_SYNC_CURSOR);
+    }
+
+    private void saveToFile(File file, byte[] salt, byte[] iv, byte[] data) {
         try (FileOutputStream outputStream = new FileOutputStream(file)) {
-            outputStream.write(data);
+            outputStream.write(ENCRYPTION_FILE_MAGIC);
             outputStream.write(salt);
             outputStream.write(iv);
+            outputStream.write(data);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -91,59 +109,31 @@ public final class ParleyEncryptedDataSource implements ParleyDataSource {
         return bytes;
     }
 
-    private byte[] encrypt(SecretKeySpec keySpec, byte[] iv, byte[] dataToEncrypt) throws InvalidAlgorithmParameterException, InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, BadPaddingException, IllegalBlockSizeException {
-        return getCipher(Cipher.ENCRYPT_MODE, keySpec, iv).doFinal(dataToEncrypt);
-    }
-
-    private byte[] decrypt(SecretKeySpec keySpec, byte[] iv, byte[] encrypted) throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, InvalidKeyException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException {
-        return getCipher(Cipher.DECRYPT_MODE, keySpec, iv).doFinal(encrypted);
-    }
-
-    private Cipher getCipher(int cipherMode, SecretKeySpec keySpec, byte[] iv) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
-        Cipher cipher = Cipher.getInstance(ENCRYPTION_CIPHER_TRANSFORMATION);
-        cipher.init(cipherMode, keySpec, new IvParameterSpec(iv));
-        return cipher;
-    }
-
-    private byte[] createSalt() {
-        SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[ENCRYPTION_KEY_LENGTH];
-        random.nextBytes(salt);
-
-        return salt;
-    }
-
-    private SecretKeySpec generateKey(String password, byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        PBEKeySpec pbeKeySpec = new PBEKeySpec(password.toCharArray(), salt, ENCRYPTION_ITERATION_COUNT, ENCRYPTION_KEY_LENGTH);
-        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(ENCRYPTION_SECRET_KEY_ALGORITHM);
-        byte[] keyBytes = secretKeyFactory.generateSecret(pbeKeySpec).getEncoded();
-        return new SecretKeySpec(keyBytes, "AES");
-    }
-
-    private byte[] createIv() {
-        SecureRandom ivRandom = new SecureRandom();
-        byte[] iv = new byte[ENCRYPTION_IV_LENGTH];
-        ivRandom.nextBytes(iv);
-        return iv;
-    }
-
-    private void cacheMessages(List<Message> messages) {
-        String messageInJson = new Gson().toJson(messages);
-        cacheData(cacheFileMessages, messageInJson.getBytes());
-    }
-
-    private void cacheValue(String key, String value) {
-        File destinationFile;
+    /**
+     * @return The file of the value, or `null` if the key is not supported.
+     */
+    @Nullable
+    private File getValueFile(String key) {
         switch (key) {
             case KEY_MESSAGE_INFO:
-                destinationFile = cacheFileInfo;
-                break;
+                return cacheFileInfo;
             case KEY_PAGING:
-                destinationFile = cacheFilePaging;
-                break;
+                return cacheFilePaging;
+            case KEY_SYNC_CURSOR:
+                return cacheFileSyncCursor;
             default:
-                Log.d("EncryptedDataSource", "cacheValue :: Unexpected value for key: " + key);
-                return;
+                if (key.startsWith(KEY_UPLOAD_PREFIX)) {
+                    return new File(directory, ENCRYPTION_FILE_NAME_UPLOAD_PREFIX + key.substring(KEY_UPLOAD_PREFIX.length()));
+                }
+                return null;
+        }
+    }
+
+    private void cacheValue(String key, String value) {
+        File destinationFile = getValueFile(key);
+        if (destinationFile == null) {
+            Log.d("EncryptedDataSource", "cacheValue :: Unexpected value for key: " + key);
+            return;
         }
 
         if (value == null) {
@@ -154,25 +144,18 @@ public final class ParleyEncryptedDataSource implements ParleyDataSource {
     }
 
     private void cacheData(File file, byte[] data) {
-        byte[] salt = createSalt();
-        SecretKeySpec originalKeySpec;
+        byte[] salt = ParleyCipher.createSalt(ParleyKeyDerivation.FILE_SALT_LENGTH);
         try {
-            originalKeySpec = generateKey(key, salt);
+            SecretKeySpec keySpec = keyDerivation.deriveFileKey(salt, file.getName());
 
-            byte[] iv = createIv();
-            byte[] encrypted = encrypt(originalKeySpec, iv, data);
-            saveToFile(file, encrypted, salt, iv);
+            byte[] iv = ParleyCipher.createIv();
+            byte[] encrypted = ParleyCipher.encrypt(keySpec, iv, data);
+            saveToFile(file, salt, iv, encrypted);
             return;
-        } catch (NoSuchAlgorithmException |
-                InvalidKeySpecException |
-                NoSuchPaddingException |
-                InvalidKeyException |
-                InvalidAlgorithmParameterException |
-                IllegalBlockSizeException |
-                BadPaddingException e) {
+        } catch (IOException | GeneralSecurityException e) {
             e.printStackTrace();
         }
-        Log.d("EncryptedDataSource", "cacheMessages :: Caching data failed!");
+        Log.d("EncryptedDataSource", "cacheData :: Caching data failed!");
     }
 
     private byte[] getCachedData(File file) {
@@ -181,55 +164,104 @@ public final class ParleyEncryptedDataSource implements ParleyDataSource {
             return new byte[0];
         }
 
-        byte[] encryptedRetrieved;
+        byte[] encryptedRetrieved = getFromFile(file);
+        if (isCurrentFormat(encryptedRetrieved)) {
+            try {
+                return decryptCurrentFormat(file, encryptedRetrieved);
+            } catch (IOException | GeneralSecurityException e) {
+                // Might still be a legacy file that happens to start with the magic
+                Log.d("EncryptedDataSource", "getCachedData :: Failed to decrypt file as current format: " + file);
+            }
+        }
+
+        byte[] decrypted = getLegacyCachedData(encryptedRetrieved);
+        if (decrypted.length > 0) {
+            // Migrate to the current format, so the key stretching is not needed anymore for this file
+            cacheData(file, decrypted);
+        }
+        return decrypted;
+    }
+
+    private static boolean isCurrentFormat(byte[] encrypted) {
+        if (encrypted.length < ENCRYPTION_FILE_MAGIC.length + ParleyKeyDerivation.FILE_SALT_LENGTH + ParleyCipher.ENCRYPTION_IV_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < ENCRYPTION_FILE_MAGIC.length; i++) {
+            if (encrypted[i] != ENCRYPTION_FILE_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decrypts a file in the current format: `[magic][salt][iv][encrypted data]`.
+     */
+    private byte[] decryptCurrentFormat(File file, byte[] encrypted) throws IOException, GeneralSecurityException {
+        int saltOffset = ENCRYPTION_FILE_MAGIC.length;
+        int ivOffset = saltOffset + ParleyKeyDerivation.FILE_SALT_LENGTH;
+        int dataOffset = ivOffset + ParleyCipher.ENCRYPTION_IV_LENGTH;
+        byte[] salt = Arrays.copyOfRange(encrypted, saltOffset, ivOffset);
+        byte[] iv = Arrays.copyOfRange(encrypted, ivOffset, dataOffset);
+        SecretKeySpec keySpec = keyDerivation.deriveFileKey(salt, file.getName());
+
+        return ParleyCipher.decrypt(keySpec, iv, encrypted, dataOffset, encrypted.length - dataOffset);
+    }
+
+    /**
+     * Decrypts a file in the legacy format: `[encrypted data][salt][iv]`, with a key stretched from its own salt.
+     */
+    private byte[] getLegacyCachedData(byte[] encryptedRetrieved) {
         try {
-            encryptedRetrieved = getFromFile(file);
-            if (encryptedRetrieved.length < ENCRYPTION_KEY_LENGTH + ENCRYPTION_IV_LENGTH) {
+            if (encryptedRetrieved.length < ParleyCipher.ENCRYPTION_KEY_LENGTH + ParleyCipher.ENCRYPTION_IV_LENGTH) {
                 throw new IllegalArgumentException("Detected invalid cached file!");
             }
 
-            int encryptedDataLength = encryptedRetrieved.length - (ENCRYPTION_KEY_LENGTH + ENCRYPTION_IV_LENGTH);
+            int encryptedDataLength = encryptedRetrieved.length - (ParleyCipher.ENCRYPTION_KEY_LENGTH + ParleyCipher.ENCRYPTION_IV_LENGTH);
             byte[] retrievedData = Arrays.copyOfRange(encryptedRetrieved, 0, encryptedDataLength);
-            byte[] retrievedSalt = Arrays.copyOfRange(encryptedRetrieved, encryptedDataLength, encryptedRetrieved.length - ENCRYPTION_IV_LENGTH);
-            byte[] retrievedIv = Arrays.copyOfRange(encryptedRetrieved, encryptedRetrieved.length - ENCRYPTION_IV_LENGTH, encryptedRetrieved.length);
-            SecretKeySpec newGenKeySpec = generateKey(key, retrievedSalt);
-
-            return decrypt(newGenKeySpec, retrievedIv, retrievedData);
-        } catch (NoSuchAlgorithmException |
-                InvalidKeyException |
-                InvalidAlgorithmParameterException |
-                NoSuchPaddingException |
-                BadPaddingException |
-                InvalidKeySpecException |
-                IllegalBlockSizeException e) {
+            byte[] retrievedSalt = Arrays.copyOfRange(encryptedRetrieved, encryptedDataLength, encryptedRetrieved.length - ParleyCipher.ENCRYPTION_IV_LENGTH);
+            byte[] retrievedIv = Arrays.copyOfRange(encryptedRetrieved, encryptedRetrieved.length - ParleyCipher.ENCRYPTION_IV_LENGTH, encryptedRetrieved.length);
+            SecretKeySpec newGenKeySpec = keyDerivation.deriveLegacyKey(retrievedSalt);
+
+            return ParleyCipher.decrypt(newGenKeySpec, retrievedIv, retrievedData);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
-            Log.d("EncryptedDataSource", "getCachedMessages :: Failed to retrieve cached messages");
+            Log.d("EncryptedDataSource", "getLegacyCachedData :: Failed to retrieve cached data");
         }
         return new byte[0];
     }
 
-    private List<Message> getCachedMessages() {
-        byte[] decrypted = getCachedData(cacheFileMessages);
-        if (decrypted.length > 0) {
-            return new Gson().fromJson(new String(decrypted), messagesListType);
-        } else {
-            return new ArrayList<>();
+    /**
+     * Moves the messages of the previous cache format (one encrypted file with all messages) into the journal.
+     */
+    private void migrateLegacyMessages() {
+        if (checkedLegacyMessages) {
+            return;
+        }
+        checkedLegacyMessages = true;
+
+        if (cacheFileMessagesLegacy.exists()) {
+            byte[] decrypted = getCachedData(cacheFileMessagesLegacy);
+            if (decrypted.length > 0) {
+                List<Message> legacyMessages = GsonUtil.getGson().fromJson(new String(decrypted), messagesListType);
+                journal.compact(legacyMessages);
+            }
+            cacheFileMessagesLegacy.delete();
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (journal.getRecordCount() > JOURNAL_COMPACTION_THRESHOLD) {
+            journal.compact(journal.read());
         }
     }
 
     @Nullable
     private String getCachedValue(String key) {
-        File destinationFile;
-        switch (key) {
-            case KEY_MESSAGE_INFO:
-                destinationFile = cacheFileInfo;
-                break;
-            case KEY_PAGING:
-                destinationFile = cacheFilePaging;
-                break;
-            default:
-                Log.d("EncryptedDataSource", "cacheValue :: Unexpected value for key: " + key);
-                return null;
+        File destinationFile = getValueFile(key);
+        if (destinationFile == null) {
+            Log.d("EncryptedDataSource", "getCachedValue :: Unexpected value for key: " + key);
+            return null;
         }
         byte[] data = getCachedData(destinationFile);
         if (data.length > 0) {
@@ -239,71 +271,118 @@ public final class ParleyEncryptedDataSource implements ParleyDataSource {
         }
     }
 
+    private void deleteUploadFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(ENCRYPTION_FILE_NAME_UPLOAD_PREFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void addToJournal(final int index, final List<Message> messages) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                migrateLegacyMessages();
+                journal.add(index, messages);
+                compactIfNeeded();
+            }
+        });
+    }
+
+    private <T> T await(Callable<T> task, T fallback) {
+        try {
+            return executor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.d("EncryptedDataSource", "await :: Interrupted while waiting for the cache");
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        return fallback;
+    }
+
     @Override
     public void clear() {
-        cacheFileMessages.delete();
-        cacheFileInfo.delete();
-        cacheFilePaging.delete();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                journal.delete();
+                cacheFileMessagesLegacy.delete();
+                cacheFileInfo.delete();
+                cacheFilePaging.delete();
+                cacheFileSyncCursor.delete();
+                deleteUploadFiles();
+                keyDerivation.clear();
+            }
+        });
     }
 
     @Override
     public List<Message> getAll() {
-        return getCachedMessages();
+        return await(new Callable<List<Message>>() {
+            @Override
+            public List<Message> call() {
+                migrateLegacyMessages();
+                return journal.read();
+            }
+        }, new ArrayList<Message>());
     }
 
     @Override
     public void add(List<Message> messages) {
-        List<Message> cached = getCachedMessages();
-        cached.addAll(messages);
-        cacheMessages(cached);
+        addToJournal(-1, new ArrayList<>(messages));
     }
 
     @Override
     public void add(int index, List<Message> messages) {
-        List<Message> cached = getCachedMessages();
-        cached.addAll(index, messages);
-        cacheMessages(cached);
+        addToJournal(index, new ArrayList<>(messages));
     }
 
     @Override
     public void add(Message message) {
-        List<Message> cached = getCachedMessages();
-        cached.add(message);
-        cacheMessages(cached);
+        addToJournal(-1, Collections.singletonList(message));
     }
 
     @Override
     public void add(int index, Message message) {
-        List<Message> cached = getCachedMessages();
-        cached.add(index, message);
-        cacheMessages(cached);
+        addToJournal(index, Collections.singletonList(message));
     }
 
     @Override
-    public void update(Message message) {
-        List<Message> cachedMessages = getCachedMessages();
-        Integer index = null;
-        for (int i = 0; i < cachedMessages.size(); i++) {
-            if (message.getUuid().equals(cachedMessages.get(i).getUuid())) {
-                index = i;
-                break;
+    public void update(final Message message) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                migrateLegacyMessages();
+                journal.update(message);
+                compactIfNeeded();
             }
-        }
-
-        if (index != null) {
-            cachedMessages.set(index, message);
-            cacheMessages(cachedMessages);
-        }
+        });
     }
 
     @Override
-    public void set(String key, @Nullable String value) {
-        cacheValue(key, value);
+    public void set(final String key, @Nullable final String value) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                cacheValue(key, value);
+            }
+        });
     }
 
     @Nullable
     @Override
-    public String get(String key) {
-        return getCachedValue(key);
+    public String get(final String key) {
+        return await(new Callable<String>() {
+            @Override
+            public String call() {
+                return getCachedValue(key);
+            }
+        }, null);
     }
 }
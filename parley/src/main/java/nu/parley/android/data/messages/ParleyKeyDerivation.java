@@ -0,0 +1,124 @@
+package nu.parley.android.data.messages;
+
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Derives the encryption keys of the encrypted cache.
+ *
+ * <p>
+ * The secret is stretched with PBKDF2 only once into a master key, using a salt that is stored next
+ * to the cache. The master key is kept in memory and every file gets its own key by applying HKDF
+ * (RFC 5869) on the master key with a random salt of that file. Guessing the secret therefore still
+ * costs a full PBKDF2 run, while encrypting or decrypting a file only costs a few HMAC operations.
+ * </p>
+ */
+final class ParleyKeyDerivation {
+
+    static final int FILE_SALT_LENGTH = 32;
+    private static final int FILE_KEY_LENGTH = 32; // AES-256
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final File masterSaltFile;
+    private final String secret;
+
+    @Nullable
+    private byte[] masterKey;
+
+    ParleyKeyDerivation(File masterSaltFile, String secret) {
+        this.masterSaltFile = masterSaltFile;
+        this.secret = secret;
+    }
+
+    /**
+     * Derives the key of a single file.
+     *
+     * @param fileSalt Random salt that is stored in the file, see {@link #FILE_SALT_LENGTH}.
+     * @param purpose  Name of the file (or its purpose), to separate keys of different files.
+     * @return The key for this file.
+     */
+    SecretKeySpec deriveFileKey(byte[] fileSalt, String purpose) throws IOException, GeneralSecurityException {
+        byte[] keyBytes = hkdf(getMasterKey(), fileSalt, purpose.getBytes(CHARSET), FILE_KEY_LENGTH);
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+
+    /**
+     * Derives the key of a file that was written in the format before the master key existed.
+     *
+     * @param salt Salt that is stored in the file.
+     * @return The key for this file.
+     */
+    SecretKeySpec deriveLegacyKey(byte[] salt) throws GeneralSecurityException {
+        return ParleyCipher.generateKey(secret, salt);
+    }
+
+    /**
+     * Forgets the master key and removes its salt. Only to be used when all encrypted files are removed as well.
+     */
+    void clear() {
+        masterKey = null;
+        masterSaltFile.delete();
+    }
+
+    private byte[] getMasterKey() throws IOException, GeneralSecurityException {
+        if (masterKey == null) {
+            masterKey = ParleyCipher.generateKey(secret, getMasterSalt()).getEncoded();
+        }
+        return masterKey;
+    }
+
+    private byte[] getMasterSalt() throws IOException {
+        byte[] salt = new byte[ParleyCipher.ENCRYPTION_KEY_LENGTH];
+        if (masterSaltFile.length() == salt.length) {
+            try (DataInputStream input = new DataInputStream(new FileInputStream(masterSaltFile))) {
+                input.readFully(salt);
+            }
+        } else {
+            salt = ParleyCipher.createSalt(salt.length);
+            try (FileOutputStream output = new FileOutputStream(masterSaltFile)) {
+                output.write(salt);
+            }
+        }
+        return salt;
+    }
+
+    /**
+     * HMAC-based Extract-and-Expand Key Derivation Function (HKDF) with SHA-256, as described in RFC 5869.
+     */
+    static byte[] hkdf(byte[] inputKeyMaterial, byte[] salt, byte[] info, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+
+        // Extract
+        mac.init(new SecretKeySpec(salt.length == 0 ? new byte[mac.getMacLength()] : salt, HMAC_ALGORITHM));
+        byte[] pseudoRandomKey = mac.doFinal(inputKeyMaterial);
+
+        // Expand
+        mac.init(new SecretKeySpec(pseudoRandomKey, HMAC_ALGORITHM));
+        byte[] result = new byte[length];
+        byte[] block = new byte[0];
+        int offset = 0;
+        for (int counter = 1; offset < length; counter++) {
+            mac.update(block);
+            mac.update(info);
+            mac.update((byte) counter);
+            block = mac.doFinal();
+
+            int blockLength = Math.min(block.length, length - offset);
+            System.arraycopy(block, 0, result, offset, blockLength);
+            offset += blockLength;
+        }
+        return result;
+    }
+}
@@ -9,6 +9,8 @@ public interface ParleyKeyValueDataSource {
 
     String KEY_MESSAGE_INFO = "info_message";
     String KEY_PAGING = "paging";
+    String KEY_SYNC_CURSOR = "sync_cursor";
+    String KEY_UPLOAD_PREFIX = "upload_"; // Followed by the uuid of the message
 
     /**
      * Retrieve a value from the cache.
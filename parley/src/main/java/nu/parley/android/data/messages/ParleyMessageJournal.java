@@ -0,0 +1,341 @@
+package nu.parley.android.data.messages;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import nu.parley.android.data.model.Message;
+import nu.parley.android.util.GsonUtil;
+
+/**
+ * Append-only journal of encrypted message operations.
+ *
+ * <p>
+ * The journal starts with a header (magic, version and the salt of the key), followed by the
+ * records. The key is derived from the master key with {@link ParleyKeyDerivation#deriveFileKey(byte[], String)}
+ * and the salt in the header. Every record is encrypted on its own, so adding or updating a message appends a single
+ * record instead of rewriting the whole history. {@link #compact(List)} rewrites the journal to one
+ * record containing the current messages.
+ * </p>
+ *
+ * <p>
+ * A record that can't be read (for example because the app was stopped while writing it) ends the
+ * journal: it is cut off before the next record is appended, so later records stay readable.
+ * </p>
+ *
+ * <p>
+ * <b>Note:</b> Not thread safe, it should only be accessed from a single thread.
+ * </p>
+ */
+final class ParleyMessageJournal {
+
+    private static final int JOURNAL_MAGIC = 0x504C4A31; // "PLJ1"
+    private static final int JOURNAL_VERSION = 1;
+    private static final String JOURNAL_KEY_PURPOSE = "messages_journal";
+
+    private static final String OPERATION_ADD = "add";
+    private static final String OPERATION_UPDATE = "update";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final File file;
+    private final ParleyKeyDerivation keyDerivation;
+    private final Gson gson = GsonUtil.getGson();
+
+    @Nullable
+    private byte[] salt;
+    @Nullable
+    private SecretKeySpec keySpec;
+    private int recordCount = 0;
+    // Length of the readable part of the journal file, `-1` when the journal wasn't read yet
+    private long validLength = -1;
+
+    ParleyMessageJournal(File file, ParleyKeyDerivation keyDerivation) {
+        this.file = file;
+        this.keyDerivation = keyDerivation;
+    }
+
+    /**
+     * @return The amount of records in the journal, as far as known by reading and writing it.
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Replays the journal.
+     *
+     * @return The messages in the journal. A damaged record ends the replay, the records before it are kept.
+     */
+    List<Message> read() {
+        List<Message> messages = new ArrayList<>();
+        recordCount = 0;
+        validLength = 0;
+        if (!file.exists()) {
+            return messages;
+        }
+
+        long length = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            length += readHeader(input);
+            validLength = length;
+
+            byte[] record;
+            while ((record = readRecord(input)) != null) {
+                apply(messages, decryptRecord(record));
+                recordCount++;
+                length += 4 + record.length; // Length and record
+                validLength = length;
+            }
+        } catch (IOException | GeneralSecurityException | JsonParseException e) {
+            e.printStackTrace();
+            Log.d("ParleyMessageJournal", "read :: Stopped reading the journal after " + recordCount + " records");
+        }
+        return messages;
+    }
+
+    /**
+     * Appends the messages at the given index.
+     *
+     * @param index    Index at which the messages should be added, or `-1` to add them at the end.
+     * @param messages Messages to be added.
+     */
+    void add(int index, List<Message> messages) {
+        Record record = new Record();
+        record.operation = OPERATION_ADD;
+        record.index = index;
+        record.messages = messages;
+        append(record);
+    }
+
+    void update(Message message) {
+        Record record = new Record();
+        record.operation = OPERATION_UPDATE;
+        record.messages = Collections.singletonList(message);
+        append(record);
+    }
+
+    /**
+     * Replaces the journal with a journal containing a single record of the given messages.
+     *
+     * @param messages The current messages.
+     */
+    void compact(List<Message> messages) {
+        File compactFile = new File(file.getPath() + ".compact");
+        Record record = new Record();
+        record.operation = OPERATION_ADD;
+        record.index = -1;
+        record.messages = messages;
+
+        try {
+            createKey();
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactFile)))) {
+                writeHeader(output);
+                writeRecord(output, record);
+            }
+            if (compactFile.renameTo(file)) {
+                recordCount = 1;
+                validLength = file.length();
+                return;
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            e.printStackTrace();
+        }
+        compactFile.delete();
+        Log.d("ParleyMessageJournal", "compact :: Compacting the journal failed");
+    }
+
+    void delete() {
+        file.delete();
+        recordCount = 0;
+        validLength = -1;
+        salt = null;
+        keySpec = null;
+    }
+
+    private void append(Record record) {
+        try {
+            truncateDamagedTail();
+            boolean isNewJournal = !file.exists() || file.length() == 0;
+            prepareKey(isNewJournal);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                if (isNewJournal) {
+                    writeHeader(output);
+                }
+                writeRecord(output, record);
+            }
+            recordCount++;
+            validLength = file.length();
+        } catch (IOException | GeneralSecurityException e) {
+            e.printStackTrace();
+            Log.d("ParleyMessageJournal", "append :: Appending to the journal failed");
+        }
+    }
+
+    /**
+     * Cuts off the part of the journal after the last readable record, so records that are appended
+     * after it can be read again. Reads the journal first when that didn't happen yet.
+     */
+    private void truncateDamagedTail() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        if (validLength < 0) {
+            read();
+        }
+        if (file.length() > validLength) {
+            Log.d("ParleyMessageJournal", "truncateDamagedTail :: Removing " + (file.length() - validLength) + " unreadable bytes");
+            try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+                output.setLength(validLength);
+            }
+            if (validLength == 0) {
+                keySpec = null; // Nothing readable is left, start with a new header
+            }
+        }
+    }
+
+    /**
+     * Makes sure the key for writing is available. Keys are derived only once per journal, records
+     * are encrypted with their own IV.
+     *
+     * @param createIfNeeded `true` to create a new key if there is none yet, `false` to read the key salt from the journal.
+     */
+    private void prepareKey(boolean createIfNeeded) throws IOException, GeneralSecurityException {
+        if (keySpec != null) {
+            return;
+        }
+        if (createIfNeeded || !file.exists()) {
+            createKey();
+        } else {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                readHeader(input);
+            }
+        }
+    }
+
+    /**
+     * Creates a new key for a new journal.
+     */
+    private void createKey() throws IOException, GeneralSecurityException {
+        byte[] newSalt = ParleyCipher.createSalt(ParleyKeyDerivation.FILE_SALT_LENGTH);
+        keySpec = keyDerivation.deriveFileKey(newSalt, JOURNAL_KEY_PURPOSE);
+        salt = newSalt;
+    }
+
+    /**
+     * @return The length of the header in bytes.
+     */
+    private int readHeader(DataInputStream input) throws IOException, GeneralSecurityException {
+        if (input.readInt() != JOURNAL_MAGIC) {
+            throw new IOException("Detected invalid journal file!");
+        }
+        int headerVersion = input.readInt();
+        if (headerVersion != JOURNAL_VERSION) {
+            throw new IOException("Detected unsupported journal version: " + headerVersion);
+        }
+        byte[] headerSalt = new byte[ParleyKeyDerivation.FILE_SALT_LENGTH];
+        input.readFully(headerSalt);
+
+        if (keySpec == null || salt == null || !Arrays.equals(salt, headerSalt)) {
+            keySpec = keyDerivation.deriveFileKey(headerSalt, JOURNAL_KEY_PURPOSE);
+            salt = headerSalt;
+        }
+        return 8 + headerSalt.length; // Magic, version and salt
+    }
+
+    private void writeHeader(DataOutputStream output) throws IOException {
+        output.writeInt(JOURNAL_MAGIC);
+        output.writeInt(JOURNAL_VERSION);
+        output.write(salt);
+    }
+
+    @Nullable
+    private byte[] readRecord(DataInputStream input) throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            return null; // End of the journal
+        }
+        if (length <= ParleyCipher.ENCRYPTION_IV_LENGTH) {
+            throw new IOException("Detected invalid journal record!");
+        }
+        byte[] record = new byte[length];
+        input.readFully(record);
+        return record;
+    }
+
+    private void writeRecord(DataOutputStream output, Record record) throws IOException, GeneralSecurityException {
+        byte[] iv = ParleyCipher.createIv();
+        byte[] encrypted = ParleyCipher.encrypt(keySpec, iv, gson.toJson(record).getBytes(CHARSET));
+        output.writeInt(iv.length + encrypted.length);
+        output.write(iv);
+        output.write(encrypted);
+    }
+
+    private Record decryptRecord(byte[] record) throws GeneralSecurityException {
+        byte[] iv = new byte[ParleyCipher.ENCRYPTION_IV_LENGTH];
+        System.arraycopy(record, 0, iv, 0, iv.length);
+        byte[] decrypted = ParleyCipher.decrypt(keySpec, iv, record, iv.length, record.length - iv.length);
+        return gson.fromJson(new String(decrypted, CHARSET), Record.class);
+    }
+
+    private static void apply(List<Message> messages, Record record) {
+        if (record.messages == null) {
+            return;
+        }
+        if (OPERATION_ADD.equals(record.operation)) {
+            if (record.index < 0 || record.index > messages.size()) {
+                messages.addAll(record.messages);
+            } else {
+                messages.addAll(record.index, record.messages);
+            }
+        } else if (OPERATION_UPDATE.equals(record.operation)) {
+            for (Message updatedMessage : record.messages) {
+                for (int i = 0; i < messages.size(); i++) {
+                    if (updatedMessage.getUuid().equals(messages.get(i).getUuid())) {
+                        messages.set(i, updatedMessage);
+                        break;
+                    }
+                }
+            }
+        } else {
+            Log.d("ParleyMessageJournal", "apply :: Unexpected operation: " + record.operation);
+        }
+    }
+
+    private static final class Record {
+
+        @SerializedName("op")
+        private String operation;
+
+        @SerializedName("index")
+        private int index = -1;
+
+        @SerializedName("messages")
+        private List<Message> messages;
+    }
+}
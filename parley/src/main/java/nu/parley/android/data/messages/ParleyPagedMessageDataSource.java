@@ -0,0 +1,64 @@
+package nu.parley.android.data.messages;
+
+import java.util.List;
+
+import nu.parley.android.data.model.Message;
+
+/**
+ * Optional addition to {@link ParleyMessageDataSource} for caches that can read a range of messages
+ * without reading all of them. Parley then only keeps the newest messages in memory, older messages
+ * are read from the cache a page at a time when the loading row of the chat is shown, and removed
+ * from memory again when the chat is scrolled back to the bottom.
+ */
+public interface ParleyPagedMessageDataSource extends ParleyMessageDataSource {
+
+    /**
+     * Receives the result of reading the cache.
+     */
+    interface Callback<T> {
+
+        void onResult(T result);
+    }
+
+    /**
+     * Only read when the data source is set, like {@link #getAll()}.
+     *
+     * @return The amount of cached messages.
+     */
+    int count();
+
+    /**
+     * Retrieve a range of messages from the cache, in the same order as {@link #getAll()}. Only read
+     * when the data source is set, like {@link #getAll()}.
+     *
+     * @param offset Index of the first message to retrieve.
+     * @param limit  Maximum amount of messages to retrieve.
+     * @return The cached messages in this range, fewer than `limit` at the end of the cache.
+     */
+    List<Message> get(int offset, int limit);
+
+    /**
+     * Retrieve a range of messages from the cache in the background, while the chat is shown.
+     *
+     * @param offset   Index of the first message to retrieve.
+     * @param limit    Maximum amount of messages to retrieve.
+     * @param callback Called on the main thread with the cached messages in this range, in the same
+     *                 order as {@link #getAll()} and fewer than `limit` at the end of the cache.
+     */
+    void get(int offset, int limit, Callback<List<Message>> callback);
+
+    /**
+     * Retrieve a cached message by the id the server gave it, in the background.
+     *
+     * @param id       Id of the message, see {@link Message#getId()}.
+     * @param callback Called on the main thread with the cached message, or `null` if there is no message with this id.
+     */
+    void findById(int id, Callback<Message> callback);
+
+    /**
+     * Retrieve the messages that still have to be sent in the background, see {@link Message#SEND_STATUS_PENDING}.
+     *
+     * @param callback Called on the main thread with the pending messages, in the same order as {@link #getAll()}.
+     */
+    void getPending(Callback<List<Message>> callback);
+}
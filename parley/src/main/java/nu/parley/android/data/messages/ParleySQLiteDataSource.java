@@ -0,0 +1,437 @@
+package nu.parley.android.data.messages;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import nu.parley.android.data.model.Message;
+import nu.parley.android.util.GsonUtil;
+
+/**
+ * An implementation of caching Parley data in a SQLite database.
+ *
+ * <p>
+ * Every message is stored in its own row, with indexes on its uuid, id, time and send status.
+ * Adding messages runs in a single transaction, updating a message and looking up the pending
+ * messages use the indexes, and ranges of messages are read with {@link #get(int, int, Callback)}, so Parley
+ * only keeps the newest messages in memory.
+ * </p>
+ *
+ * <p>
+ * When created with a key, the content of the messages and the values are encrypted with AES. The
+ * key is stretched from the secret only once, see {@link ParleyKeyDerivation}. The indexed columns
+ * are not encrypted.
+ * </p>
+ *
+ * <p>
+ * All database operations run on a background thread, reads wait for the pending writes to finish.
+ * The reads while the chat is shown deliver their result on the main thread, only {@link #getAll()},
+ * {@link #count()} and {@link #get(int, int)} wait for it.
+ * </p>
+ */
+public final class ParleySQLiteDataSource implements ParleyDataSource, ParleyPagedMessageDataSource {
+
+    private static final String DATABASE_NAME = "parley_messages.db";
+    private static final String DATABASE_NAME_ENCRYPTED = "parley_messages_encrypted.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String KEY_SALT_FILE_SUFFIX = "_key_salt";
+    private static final String KEY_PURPOSE = "messages_database";
+
+    private static final String TABLE_MESSAGES = "messages";
+    private static final String TABLE_VALUES = "key_values";
+
+    private static final String COLUMN_UUID = "uuid";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_TIME = "time";
+    private static final String COLUMN_SEND_STATUS = "send_status";
+    private static final String COLUMN_POSITION = "position"; // Order of the messages, highest = newest
+    private static final String COLUMN_DATA = "data";
+    private static final String COLUMN_KEY = "name";
+    private static final String COLUMN_VALUE = "value";
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Gson gson = GsonUtil.getGson();
+    private final DatabaseHelper helper;
+    @Nullable
+    private final ParleyKeyDerivation keyDerivation;
+    @Nullable
+    private SecretKeySpec keySpec;
+
+    /**
+     * Creates a data source that stores the messages without encryption.
+     */
+    public ParleySQLiteDataSource(Context context) {
+        this.helper = new DatabaseHelper(context.getApplicationContext(), DATABASE_NAME);
+        this.keyDerivation = null;
+    }
+
+    /**
+     * Creates a data source that encrypts the content of the messages and the values with the given key.
+     */
+    public ParleySQLiteDataSource(Context context, String key) {
+        this.helper = new DatabaseHelper(context.getApplicationContext(), DATABASE_NAME_ENCRYPTED);
+        this.keyDerivation = new ParleyKeyDerivation(new File(context.getDatabasePath(DATABASE_NAME_ENCRYPTED).getPath() + KEY_SALT_FILE_SUFFIX), key);
+    }
+
+    private byte[] encode(String value) throws IOException, GeneralSecurityException {
+        byte[] data = value.getBytes(CHARSET);
+        if (keyDerivation == null) {
+            return data;
+        }
+
+        // `[iv][encrypted data]`
+        byte[] iv = ParleyCipher.createIv();
+        byte[] encrypted = ParleyCipher.encrypt(getKey(), iv, data);
+        byte[] encoded = Arrays.copyOf(iv, iv.length + encrypted.length);
+        System.arraycopy(encrypted, 0, encoded, iv.length, encrypted.length);
+        return encoded;
+    }
+
+    private String decode(byte[] encoded) throws IOException, GeneralSecurityException {
+        if (keyDerivation == null) {
+            return new String(encoded, CHARSET);
+        }
+        if (encoded.length < ParleyCipher.ENCRYPTION_IV_LENGTH) {
+            throw new GeneralSecurityException("Detected invalid cached value!");
+        }
+        byte[] iv = Arrays.copyOfRange(encoded, 0, ParleyCipher.ENCRYPTION_IV_LENGTH);
+        byte[] decrypted = ParleyCipher.decrypt(getKey(), iv, encoded, iv.length, encoded.length - iv.length);
+        return new String(decrypted, CHARSET);
+    }
+
+    private SecretKeySpec getKey() throws IOException, GeneralSecurityException {
+        if (keySpec == null) {
+            // The master salt already makes this key unique, the database doesn't need a salt of its own
+            keySpec = keyDerivation.deriveFileKey(new byte[0], KEY_PURPOSE);
+        }
+        return keySpec;
+    }
+
+    private ContentValues createValues(Message message) throws IOException, GeneralSecurityException {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_UUID, message.getUuid().toString());
+        values.put(COLUMN_ID, message.getId());
+        values.put(COLUMN_TIME, message.getDate() == null ? null : message.getDate().getTime());
+        values.put(COLUMN_SEND_STATUS, message.getSendStatus());
+        values.put(COLUMN_DATA, encode(gson.toJson(message)));
+        return values;
+    }
+
+    private List<Message> queryMessages(@Nullable String selection, @Nullable String[] selectionArgs, @Nullable String limit) {
+        List<Message> messages = new ArrayList<>();
+        SQLiteDatabase database = helper.getReadableDatabase();
+        try (Cursor cursor = database.query(TABLE_MESSAGES, new String[]{COLUMN_DATA}, selection, selectionArgs, null, null, COLUMN_POSITION + " DESC", limit)) {
+            while (cursor.moveToNext()) {
+                try {
+                    messages.add(gson.fromJson(decode(cursor.getBlob(0)), Message.class));
+                } catch (IOException | GeneralSecurityException | JsonParseException e) {
+                    e.printStackTrace();
+                    Log.d("SQLiteDataSource", "queryMessages :: Skipped a message that could not be read");
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Makes room for messages at the given index.
+     *
+     * @return The position of the first (newest) message, the next messages get the positions below it.
+     */
+    private static long reservePositions(SQLiteDatabase database, int index, int count) {
+        long size = DatabaseUtils.queryNumEntries(database, TABLE_MESSAGES);
+        if (size == 0) {
+            return count - 1;
+        }
+        if (index < 0 || index >= size) {
+            // Below the oldest message
+            return DatabaseUtils.longForQuery(database, "SELECT MIN(" + COLUMN_POSITION + ") FROM " + TABLE_MESSAGES, null) - 1;
+        }
+
+        long above;
+        if (index == 0) {
+            above = DatabaseUtils.longForQuery(database, "SELECT MAX(" + COLUMN_POSITION + ") FROM " + TABLE_MESSAGES, null) + 1;
+        } else {
+            above = DatabaseUtils.longForQuery(database, "SELECT " + COLUMN_POSITION + " FROM " + TABLE_MESSAGES +
+                    " ORDER BY " + COLUMN_POSITION + " DESC LIMIT 1 OFFSET " + (index - 1), null);
+            // Move the newer messages up
+            database.execSQL("UPDATE " + TABLE_MESSAGES + " SET " + COLUMN_POSITION + " = " + COLUMN_POSITION + " + ? WHERE " + COLUMN_POSITION + " >= ?", new Object[]{count, above});
+        }
+        return above + count - 1;
+    }
+
+    private void insert(final int index, final List<Message> messages) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (messages.isEmpty()) {
+                    return;
+                }
+                SQLiteDatabase database = helper.getWritableDatabase();
+                database.beginTransaction();
+                try {
+                    long position = reservePositions(database, index, messages.size());
+                    for (Message message : messages) {
+                        ContentValues values = createValues(message);
+                        values.put(COLUMN_POSITION, position--);
+                        database.insertWithOnConflict(TABLE_MESSAGES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                    database.setTransactionSuccessful();
+                } catch (IOException | GeneralSecurityException e) {
+                    e.printStackTrace();
+                    Log.d("SQLiteDataSource", "insert :: Caching messages failed!");
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        });
+    }
+
+    private <T> T await(Callable<T> task, T fallback) {
+        try {
+            return executor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.d("SQLiteDataSource", "await :: Interrupted while waiting for the cache");
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        return fallback;
+    }
+
+    /**
+     * Runs the task after the pending writes, and calls the callback with its result on the main thread.
+     */
+    private <T> void read(final Callable<T> task, final T fallback, final Callback<T> callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = fallback;
+                try {
+                    result = task.call();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                final T finalResult = result;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(finalResult);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void clear() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase database = helper.getWritableDatabase();
+                database.delete(TABLE_MESSAGES, null, null);
+                database.delete(TABLE_VALUES, null, null);
+                if (keyDerivation != null) {
+                    keyDerivation.clear();
+                    keySpec = null;
+                }
+            }
+        });
+    }
+
+    @Override
+    public List<Message> getAll() {
+        return await(new Callable<List<Message>>() {
+            @Override
+            public List<Message> call() {
+                return queryMessages(null, null, null);
+            }
+        }, new ArrayList<Message>());
+    }
+
+    @Override
+    public int count() {
+        return await(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return (int) DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), TABLE_MESSAGES);
+            }
+        }, 0);
+    }
+
+    @Override
+    public List<Message> get(int offset, int limit) {
+        return await(createRangeQuery(offset, limit), new ArrayList<Message>());
+    }
+
+    @Override
+    public void get(int offset, int limit, Callback<List<Message>> callback) {
+        read(createRangeQuery(offset, limit), new ArrayList<Message>(), callback);
+    }
+
+    @Override
+    public void findById(final int id, Callback<Message> callback) {
+        read(new Callable<Message>() {
+            @Override
+            public Message call() {
+                List<Message> messages = queryMessages(COLUMN_ID + " = ?", new String[]{String.valueOf(id)}, "1");
+                return messages.isEmpty() ? null : messages.get(0);
+            }
+        }, null, callback);
+    }
+
+    @Override
+    public void getPending(Callback<List<Message>> callback) {
+        read(new Callable<List<Message>>() {
+            @Override
+            public List<Message> call() {
+                return queryMessages(COLUMN_SEND_STATUS + " = ?", new String[]{String.valueOf(Message.SEND_STATUS_PENDING)}, null);
+            }
+        }, new ArrayList<Message>(), callback);
+    }
+
+    private Callable<List<Message>> createRangeQuery(final int offset, final int limit) {
+        return new Callable<List<Message>>() {
+            @Override
+            public List<Message> call() {
+                return queryMessages(null, null, offset + "," + limit);
+            }
+        };
+    }
+
+    @Override
+    public void add(List<Message> messages) {
+        insert(-1, new ArrayList<>(messages));
+    }
+
+    @Override
+    public void add(int index, List<Message> messages) {
+        insert(index, new ArrayList<>(messages));
+    }
+
+    @Override
+    public void add(Message message) {
+        insert(-1, Collections.singletonList(message));
+    }
+
+    @Override
+    public void add(int index, Message message) {
+        insert(index, Collections.singletonList(message));
+    }
+
+    @Override
+    public void update(final Message message) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ContentValues values = createValues(message);
+                    helper.getWritableDatabase().update(TABLE_MESSAGES, values, COLUMN_UUID + " = ?", new String[]{message.getUuid().toString()});
+                } catch (IOException | GeneralSecurityException e) {
+                    e.printStackTrace();
+                    Log.d("SQLiteDataSource", "update :: Caching message failed!");
+                }
+            }
+        });
+    }
+
+    @Override
+    public void set(final String key, @Nullable final String value) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase database = helper.getWritableDatabase();
+                if (value == null) {
+                    database.delete(TABLE_VALUES, COLUMN_KEY + " = ?", new String[]{key});
+                    return;
+                }
+                try {
+                    ContentValues values = new ContentValues();
+                    values.put(COLUMN_KEY, key);
+                    values.put(COLUMN_VALUE, encode(value));
+                    database.insertWithOnConflict(TABLE_VALUES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                } catch (IOException | GeneralSecurityException e) {
+                    e.printStackTrace();
+                    Log.d("SQLiteDataSource", "set :: Caching value failed!");
+                }
+            }
+        });
+    }
+
+    @Nullable
+    @Override
+    public String get(final String key) {
+        return await(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                SQLiteDatabase database = helper.getReadableDatabase();
+                try (Cursor cursor = database.query(TABLE_VALUES, new String[]{COLUMN_VALUE}, COLUMN_KEY + " = ?", new String[]{key}, null, null, null)) {
+                    return cursor.moveToFirst() ? decode(cursor.getBlob(0)) : null;
+                }
+            }
+        }, null);
+    }
+
+    private static final class DatabaseHelper extends SQLiteOpenHelper {
+
+        DatabaseHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase database) {
+            database.execSQL("CREATE TABLE " + TABLE_MESSAGES + " (" +
+                    COLUMN_UUID + " TEXT NOT NULL, " +
+                    COLUMN_ID + " INTEGER, " +
+                    COLUMN_TIME + " INTEGER, " +
+                    COLUMN_SEND_STATUS + " INTEGER NOT NULL, " +
+                    COLUMN_POSITION + " INTEGER NOT NULL, " +
+                    COLUMN_DATA + " BLOB NOT NULL)");
+            database.execSQL("CREATE UNIQUE INDEX messages_uuid ON " + TABLE_MESSAGES + " (" + COLUMN_UUID + ")");
+            database.execSQL("CREATE INDEX messages_id ON " + TABLE_MESSAGES + " (" + COLUMN_ID + ")");
+            database.execSQL("CREATE INDEX messages_time ON " + TABLE_MESSAGES + " (" + COLUMN_TIME + ")");
+            database.execSQL("CREATE INDEX messages_send_status ON " + TABLE_MESSAGES + " (" + COLUMN_SEND_STATUS + ")");
+            database.execSQL("CREATE INDEX messages_position ON " + TABLE_MESSAGES + " (" + COLUMN_POSITION + ")");
+            database.execSQL("CREATE TABLE " + TABLE_VALUES + " (" +
+                    COLUMN_KEY + " TEXT PRIMARY KEY, " +
+                    COLUMN_VALUE + " BLOB NOT NULL)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+            // Only a cache, start over
+            database.execSQL("DROP TABLE IF EXISTS " + TABLE_MESSAGES);
+            database.execSQL("DROP TABLE IF EXISTS " + TABLE_VALUES);
+            onCreate(database);
+        }
+    }
+}
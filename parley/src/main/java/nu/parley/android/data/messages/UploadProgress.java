@@ -0,0 +1,79 @@
+package nu.parley.android.data.messages;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps track of the progress of the media that is being uploaded, per message. The chat observes
+ * the message it shows, so only that view is updated instead of the whole message.
+ *
+ * <p>
+ * <b>Note:</b> Only accessed on the main thread.
+ * </p>
+ */
+@MainThread
+public final class UploadProgress {
+
+    public interface Listener {
+
+        /**
+         * @param percentage Progress of the upload (0-100), or `null` when the message is not uploading anymore.
+         */
+        void onProgress(@Nullable Integer percentage);
+    }
+
+    private final Map<UUID, Integer> percentages = new HashMap<>();
+    private final Map<UUID, Listener> listeners = new HashMap<>();
+
+    /**
+     * @return Progress of the upload of the message (0-100), or `null` when it is not uploading.
+     */
+    @Nullable
+    public Integer get(UUID uuid) {
+        return percentages.get(uuid);
+    }
+
+    public void update(UUID uuid, long uploaded, long total) {
+        int percentage = total <= 0 ? 100 : (int) Math.min(100, uploaded * 100 / total);
+        Integer previous = percentages.put(uuid, percentage);
+        if (previous != null && previous == percentage) {
+            return; // Only notify when the shown value changes
+        }
+        notify(uuid, percentage);
+    }
+
+    public void remove(UUID uuid) {
+        if (percentages.remove(uuid) != null) {
+            notify(uuid, null);
+        }
+    }
+
+    public void clear() {
+        percentages.clear();
+        listeners.clear();
+    }
+
+    /**
+     * Observes the progress of the message, replacing the previous listener of this message.
+     */
+    public void observe(UUID uuid, Listener listener) {
+        listeners.put(uuid, listener);
+    }
+
+    public void unobserve(UUID uuid, Listener listener) {
+        if (listeners.get(uuid) == listener) {
+            listeners.remove(uuid);
+        }
+    }
+
+    private void notify(UUID uuid, @Nullable Integer percentage) {
+        Listener listener = listeners.get(uuid);
+        if (listener != null) {
+            listener.onProgress(percentage);
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package nu.parley.android.data.model;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.util.Date;
 
 public final class Action {
@@ -31,4 +35,40 @@ public final class Action {
     public ButtonType getType() {
         return type;
     }
+
+    static final class Adapter extends TypeAdapter<Action> {
+
+        @Override
+        public void write(JsonWriter out, Action action) throws IOException {
+            out.beginObject();
+            out.name("title").value(action.title);
+            out.name("payload").value(action.payload);
+            out.name("type").value(action.type == null ? null : action.type.getValue());
+            out.endObject();
+        }
+
+        @Override
+        public Action read(JsonReader in) throws IOException {
+            Action action = new Action(null, null);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "title":
+                        action.title = ModelJson.nextString(in);
+                        break;
+                    case "payload":
+                        action.payload = ModelJson.nextString(in);
+                        break;
+                    case "type":
+                        action.type = ButtonType.fromValue(ModelJson.nextString(in));
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return action;
+        }
+    }
 }
\ No newline at end of file
@@ -1,7 +1,11 @@
 package nu.parley.android.data.model;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.util.Date;
 
 public final class Agent {
@@ -42,4 +46,47 @@ public final class Agent {
         this.name = name;
         this.avatar = avatarUrl;
     }
+
+    static final class Adapter extends TypeAdapter<Agent> {
+
+        @Override
+        public void write(JsonWriter out, Agent agent) throws IOException {
+            out.beginObject();
+            out.name("id").value(agent.id);
+            out.name("name").value(agent.name);
+            out.name("avatar").value(agent.avatar);
+            out.name("isTyping").value(agent.isTyping);
+            out.endObject();
+        }
+
+        @Override
+        public Agent read(JsonReader in) throws IOException {
+            Agent agent = new Agent(null, null);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        agent.id = ModelJson.nextInteger(in);
+                        break;
+                    case "name":
+                        agent.name = ModelJson.nextString(in);
+                        break;
+                    case "avatar":
+                        agent.avatar = ModelJson.nextString(in);
+                        break;
+                    case "isTyping":
+                        Long isTyping = ModelJson.nextLong(in);
+                        if (isTyping != null) {
+                            agent.isTyping = isTyping;
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return agent;
+        }
+    }
 }
\ No newline at end of file
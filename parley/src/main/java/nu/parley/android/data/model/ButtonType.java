@@ -1,12 +1,41 @@
 package nu.parley.android.data.model;
 
+import androidx.annotation.Nullable;
+
 import com.google.gson.annotations.SerializedName;
 
 public enum ButtonType {
     @SerializedName("webUrl")
-    WEB_URL,
+    WEB_URL("webUrl"),
     @SerializedName("phoneNumber")
-    PHONE_NUMBER,
+    PHONE_NUMBER("phoneNumber"),
     @SerializedName("reply")
-    REPLY
+    REPLY("reply");
+
+    private final String value;
+
+    ButtonType(String value) {
+        this.value = value;
+    }
+
+    /**
+     * @return The value of this type in JSON.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @param value The value of the type in JSON.
+     * @return The type, or `null` if the value is unknown.
+     */
+    @Nullable
+    public static ButtonType fromValue(@Nullable String value) {
+        for (ButtonType type : values()) {
+            if (type.value.equals(value)) {
+                return type;
+            }
+        }
+        return null;
+    }
 }
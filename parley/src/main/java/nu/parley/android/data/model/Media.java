@@ -2,8 +2,12 @@ package nu.parley.android.data.model;
 
 import android.text.TextUtils;
 
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -36,4 +40,36 @@ public final class Media {
         splits.remove(0); // Remove account id
         return TextUtils.join("/", splits);
     }
+
+    static final class Adapter extends TypeAdapter<Media> {
+
+        @Override
+        public void write(JsonWriter out, Media media) throws IOException {
+            out.beginObject();
+            out.name("id").value(media.id);
+            out.name("description").value(media.description);
+            out.endObject();
+        }
+
+        @Override
+        public Media read(JsonReader in) throws IOException {
+            Media media = new Media(null);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        media.id = ModelJson.nextString(in);
+                        break;
+                    case "description":
+                        media.description = ModelJson.nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return media;
+        }
+    }
 }
\ No newline at end of file
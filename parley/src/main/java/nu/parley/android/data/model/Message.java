@@ -3,8 +3,12 @@ package nu.parley.android.data.model;
 import androidx.annotation.Nullable;
 
 import com.bumptech.glide.load.model.GlideUrl;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -171,6 +175,27 @@ public final class Message {
         return new Message(sourceMessage.uuid, sourceMessage.id, sourceMessage.timeStamp, sourceMessage.message, null, new Media(mediaId), sourceMessage.typeId, sourceMessage.agent, sourceMessage.sendStatus);
     }
 
+    /**
+     * @return Copy of the source message with the given uuid, for example to replace a known message by a newer version of it.
+     */
+    public static Message withUuid(Message sourceMessage, UUID uuid) {
+        Message message = new Message();
+        message.uuid = uuid;
+        message.id = sourceMessage.id;
+        message.timeStamp = sourceMessage.timeStamp;
+        message.title = sourceMessage.title;
+        message.message = sourceMessage.message;
+        message.imageUrl = sourceMessage.imageUrl;
+        message.media = sourceMessage.media;
+        message.actions = sourceMessage.actions;
+        message.carousel = sourceMessage.carousel;
+        message.quickReplies = sourceMessage.quickReplies;
+        message.typeId = sourceMessage.typeId;
+        message.agent = sourceMessage.agent;
+        message.sendStatus = sourceMessage.sendStatus;
+        return message;
+    }
+
     public static Message withMessageAndDate(Message sourceMessage, String message, Date date) {
         return new Message(sourceMessage.uuid, sourceMessage.id, date.getTime() / 1000, message, sourceMessage.imageUrl, sourceMessage.media, sourceMessage.typeId, sourceMessage.agent, sourceMessage.sendStatus);
     }
@@ -340,4 +365,94 @@ public final class Message {
             return false;
         }
     }
+
+    /**
+     * Streaming adapter, avoids reflection when parsing pages of messages. Writes the same JSON as
+     * the reflective adapter of Gson did, which is also how messages are stored in the cache.
+     */
+    static final class Adapter extends TypeAdapter<Message> {
+
+        private final Media.Adapter mediaAdapter = new Media.Adapter();
+        private final Action.Adapter actionAdapter = new Action.Adapter();
+        private final Agent.Adapter agentAdapter = new Agent.Adapter();
+
+        @Override
+        public void write(JsonWriter out, Message message) throws IOException {
+            out.beginObject();
+            out.name("uuid").value(message.uuid == null ? null : message.uuid.toString());
+            out.name("id").value(message.id);
+            out.name("time").value(message.timeStamp);
+            out.name("title").value(message.title);
+            out.name("message").value(message.message);
+            out.name("image").value(message.imageUrl);
+            ModelJson.writeObject(out, "media", message.media, mediaAdapter);
+            ModelJson.writeList(out, "buttons", message.actions, actionAdapter);
+            ModelJson.writeList(out, "carousel", message.carousel, this);
+            ModelJson.writeStringList(out, "quickReplies", message.quickReplies);
+            out.name("typeId").value(message.typeId);
+            ModelJson.writeObject(out, "agent", message.agent, agentAdapter);
+            out.name("send_status").value(message.sendStatus);
+            out.endObject();
+        }
+
+        @Override
+        public Message read(JsonReader in) throws IOException {
+            Message message = new Message();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "uuid":
+                        String uuid = ModelJson.nextString(in);
+                        if (uuid != null) {
+                            message.uuid = UUID.fromString(uuid);
+                        }
+                        break;
+                    case "id":
+                        message.id = ModelJson.nextInteger(in);
+                        break;
+                    case "time":
+                        message.timeStamp = ModelJson.nextLong(in);
+                        break;
+                    case "title":
+                        message.title = ModelJson.nextString(in);
+                        break;
+                    case "message":
+                        message.message = ModelJson.nextString(in);
+                        break;
+                    case "image":
+                        message.imageUrl = ModelJson.nextString(in);
+                        break;
+                    case "media":
+                        message.media = ModelJson.nextObject(in, mediaAdapter);
+                        break;
+                    case "buttons":
+                        message.actions = ModelJson.nextList(in, actionAdapter);
+                        break;
+                    case "carousel":
+                        message.carousel = ModelJson.nextList(in, this);
+                        break;
+                    case "quickReplies":
+                        message.quickReplies = ModelJson.nextStringList(in);
+                        break;
+                    case "typeId":
+                        message.typeId = ModelJson.nextInteger(in);
+                        break;
+                    case "agent":
+                        message.agent = ModelJson.nextObject(in, agentAdapter);
+                        break;
+                    case "send_status":
+                        Integer sendStatus = ModelJson.nextInteger(in);
+                        if (sendStatus != null) {
+                            message.sendStatus = sendStatus;
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return message;
+        }
+    }
 }
@@ -0,0 +1,32 @@
+package nu.parley.android.data.model;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Provides the streaming type adapters of the message models, so Gson doesn't need reflection to
+ * read and write them.
+ */
+public final class ModelTypeAdapterFactory implements TypeAdapterFactory {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        TypeAdapter<?> adapter;
+        if (rawType == Message.class) {
+            adapter = new Message.Adapter();
+        } else if (rawType == Agent.class) {
+            adapter = new Agent.Adapter();
+        } else if (rawType == Action.class) {
+            adapter = new Action.Adapter();
+        } else if (rawType == Media.class) {
+            adapter = new Media.Adapter();
+        } else {
+            return null;
+        }
+        return (TypeAdapter<T>) adapter.nullSafe();
+    }
+}
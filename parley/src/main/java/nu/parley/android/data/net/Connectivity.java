@@ -1,12 +1,16 @@
 package nu.parley.android.data.net;
 
+import androidx.annotation.Nullable;
+
 import com.bumptech.glide.load.model.GlideUrl;
 import com.bumptech.glide.load.model.LazyHeaders;
 import com.datatheorem.android.trustkit.TrustKit;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -14,6 +18,11 @@ import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.X509TrustManager;
 
 import nu.parley.android.Parley;
+import nu.parley.android.ParleyNetwork;
+import nu.parley.android.util.CompareUtil;
+import nu.parley.android.util.GsonUtil;
+import okhttp3.Cache;
+import okhttp3.Call;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -25,19 +34,215 @@ public final class Connectivity {
 
     private static final String HEADER_PARLEY_IDENTIFICATION = "x-iris-identification"; // Rename Iris to Parley when backend accepts this
     private static final String HEADER_PARLEY_AUTHORIZATION = "Authorization";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String CACHE_CONTROL_REVALIDATE = "no-cache"; // Stored, but always revalidated with the server
+
+    private static final Object lock = new Object();
+    private static final Map<Class<?>, Object> services = new HashMap<>();
+    @Nullable
+    private static Retrofit retrofit;
+    @Nullable
+    private static ParleyNetwork retrofitNetwork;
+    @Nullable
+    private static String retrofitSecret;
+    @Nullable
+    private static Cache cache;
+    private static final HttpCacheMetrics cacheMetrics = new HttpCacheMetrics();
+    private static Configuration configuration = new Configuration() {
+        @Override
+        public ParleyNetwork getNetwork() {
+            return Parley.getInstance().getNetwork();
+        }
+
+        @Nullable
+        @Override
+        public String getSecret() {
+            return Parley.getInstance().getSecret();
+        }
+
+        @Override
+        public OkHttpClient createClient() {
+            return getOkHttpClient();
+        }
+    };
 
     /**
-     * Get a Retrofit instance with Parley's url and path and OkHttpClient.
+     * Source of the network configuration and the client of the shared Retrofit instance.
+     */
+    interface Configuration {
+
+        ParleyNetwork getNetwork();
+
+        @Nullable
+        String getSecret();
+
+        OkHttpClient createClient();
+    }
+
+    /**
+     * Replaces the source of the configuration, for example with a client without SSL pinning in tests.
+     */
+    static void setConfiguration(Configuration configuration) {
+        synchronized (lock) {
+            Connectivity.configuration = configuration;
+            invalidate();
+        }
+    }
+
+    /**
+     * Get the shared Retrofit instance with Parley's url and path and OkHttpClient.
+     *
+     * <p>
+     * The instance (and with it the connection pool and dispatcher of the OkHttpClient) is reused
+     * for all requests. It is only rebuilt when the network configuration or the secret changes.
+     * </p>
      *
      * @return Retrofit
      */
     public static Retrofit getRetrofit() {
-        Retrofit.Builder retrofitBuilder = new Retrofit.Builder()
-                .baseUrl(Parley.getInstance().getNetwork().getBaseUrl())
-                .addConverterFactory(GsonConverterFactory.create())
-                .client(getOkHttpClient());
+        synchronized (lock) {
+            ParleyNetwork network = configuration.getNetwork();
+            String secret = configuration.getSecret();
+            if (retrofit == null || retrofitNetwork != network || !CompareUtil.equals(retrofitSecret, secret)) {
+                invalidate();
+
+                retrofit = new Retrofit.Builder()
+                        .baseUrl(network.getBaseUrl())
+                        .addConverterFactory(GsonConverterFactory.create(GsonUtil.getGson()))
+                        .client(configuration.createClient())
+                        .build();
+                retrofitNetwork = network;
+                retrofitSecret = secret;
+            }
+            return retrofit;
+        }
+    }
 
-        return retrofitBuilder.build();
+    /**
+     * Get the shared service proxy of the given Retrofit service interface.
+     *
+     * @param serviceClass Retrofit service interface.
+     * @return Service proxy, created once per Retrofit instance.
+     */
+    public static <T> T getService(Class<T> serviceClass) {
+        synchronized (lock) {
+            Retrofit currentRetrofit = getRetrofit();
+            Object service = services.get(serviceClass);
+            if (service == null) {
+                service = currentRetrofit.create(serviceClass);
+                services.put(serviceClass, service);
+            }
+            return serviceClass.cast(service);
+        }
+    }
+
+    /**
+     * Sets the on-disk HTTP cache of the shared client. Responses with an `ETag` or `Last-Modified`
+     * header are stored and revalidated with the server on each request, so unchanged responses
+     * don't need to be transferred again.
+     *
+     * <p>
+     * The cache is not encrypted. When caching is disabled, the responses that were stored in the
+     * directory before are removed.
+     * </p>
+     *
+     * @param directory Directory of the cache, or `null` to disable caching.
+     * @param maxSize   Maximum size of the cache in bytes, `0` to disable caching.
+     */
+    public static void setCache(@Nullable File directory, long maxSize) {
+        synchronized (lock) {
+            if (directory == null || maxSize <= 0) {
+                if (cache != null) {
+                    closeCache();
+                    invalidate();
+                }
+                if (directory != null) {
+                    deleteCacheFiles(directory);
+                }
+                return;
+            }
+            if (cache != null && cache.directory().equals(directory) && cache.maxSize() == maxSize) {
+                return;
+            }
+            if (cache != null) {
+                closeCache();
+            }
+            cache = new Cache(directory, maxSize);
+            invalidate();
+        }
+    }
+
+    /**
+     * Removes all responses from the HTTP cache, for example when the user information is reset.
+     */
+    public static void clearCache() {
+        synchronized (lock) {
+            if (cache == null) {
+                return;
+            }
+            try {
+                cache.evictAll();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return The metrics of the HTTP cache in this session.
+     */
+    public static HttpCacheMetrics getCacheMetrics() {
+        return cacheMetrics;
+    }
+
+    private static void deleteCacheFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static void closeCache() {
+        try {
+            cache.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        cache = null;
+    }
+
+    /**
+     * Get the OkHttpClient of the shared Retrofit instance, for connections that are not made through Retrofit.
+     *
+     * @return OkHttpClient
+     */
+    public static OkHttpClient getClient() {
+        return (OkHttpClient) getRetrofit().callFactory();
+    }
+
+    /**
+     * Releases the shared Retrofit instance, its service proxies and its idle connections. A new
+     * instance is created on the next request.
+     */
+    public static void invalidate() {
+        synchronized (lock) {
+            if (retrofit != null) {
+                Call.Factory callFactory = retrofit.callFactory();
+                if (callFactory instanceof OkHttpClient) {
+                    ((OkHttpClient) callFactory).connectionPool().evictAll();
+                }
+            }
+            retrofit = null;
+            retrofitNetwork = null;
+            retrofitSecret = null;
+            services.clear();
+        }
     }
 
     /**
@@ -46,29 +251,62 @@ public final class Connectivity {
      * @return OkHttpClient
      */
     private static OkHttpClient getOkHttpClient() {
-        OkHttpClient.Builder okHttpClientBuilder = new OkHttpClient.Builder()
-                .addInterceptor(new Interceptor() {
-                    @Override
-                    public Response intercept(Chain chain) throws IOException {
-                        Request original = chain.request();
+        OkHttpClient.Builder okHttpClientBuilder = newOkHttpClientBuilder(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request original = chain.request();
+
+                Request.Builder requestBuilder = original.newBuilder()
+                        .method(original.method(), original.body());
+
+                addAdditionalHttpHeaders(requestBuilder);
+                addParleyHttpHeaders(requestBuilder);
 
-                        Request.Builder requestBuilder = original.newBuilder()
-                                .method(original.method(), original.body());
+                Request request = requestBuilder.build();
+                return chain.proceed(request);
+            }
+        }, cache);
 
-                        addAdditionalHttpHeaders(requestBuilder);
-                        addParleyHttpHeaders(requestBuilder);
+        applySslPinning(okHttpClientBuilder);
 
-                        Request request = requestBuilder.build();
-                        return chain.proceed(request);
+        return okHttpClientBuilder.build();
+    }
+
+    /**
+     * Creates the builder of the shared OkHttpClient, without SSL pinning.
+     *
+     * @param headersInterceptor Interceptor that adds the headers to each request.
+     * @param cache              HTTP cache of the client, or `null` to disable caching.
+     * @return OkHttpClient.Builder
+     */
+    static OkHttpClient.Builder newOkHttpClientBuilder(Interceptor headersInterceptor, @Nullable Cache cache) {
+        OkHttpClient.Builder okHttpClientBuilder = new OkHttpClient.Builder()
+                .addInterceptor(headersInterceptor);
+        if (cache != null) {
+            okHttpClientBuilder.addInterceptor(cacheMetrics.getInterceptor());
+        }
+        return okHttpClientBuilder
+                .addNetworkInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        Response response = chain.proceed(chain.request());
+                        if (!"GET".equals(chain.request().method())) {
+                            return response;
+                        }
+                        if (response.code() == 304 || response.header(HEADER_ETAG) != null || response.header(HEADER_LAST_MODIFIED) != null) {
+                            // Messages change, always ask the server if the stored response is still valid
+                            return response.newBuilder()
+                                    .header(HEADER_CACHE_CONTROL, CACHE_CONTROL_REVALIDATE)
+                                    .removeHeader("Pragma")
+                                    .build();
+                        }
+                        return response;
                     }
                 })
+                .cache(cache)
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS);
-
-        applySslPinning(okHttpClientBuilder);
-
-        return okHttpClientBuilder.build();
     }
 
     private static void applySslPinning(OkHttpClient.Builder okHttpClientBuilder) {
@@ -0,0 +1,120 @@
+package nu.parley.android.data.net;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.Nullable;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Request body that reads the content of a content uri while it is sent, without copying it to a
+ * file first. When the content is a regular file, it is transferred from its file channel.
+ */
+public final class ContentUriRequestBody extends RequestBody {
+
+    private static final long LENGTH_UNKNOWN = -1;
+
+    private final ContentResolver contentResolver;
+    private final Uri uri;
+    @Nullable
+    private final MediaType mediaType;
+    @Nullable
+    private Long contentLength;
+
+    public ContentUriRequestBody(ContentResolver contentResolver, Uri uri, @Nullable MediaType mediaType) {
+        this.contentResolver = contentResolver;
+        this.uri = uri;
+        this.mediaType = mediaType;
+    }
+
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        if (contentLength == null) {
+            contentLength = readContentLength();
+        }
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        ParcelFileDescriptor descriptor = openFileDescriptor();
+        if (descriptor != null && descriptor.getStatSize() >= 0) {
+            // Regular file, let the channel transfer it
+            try (FileInputStream input = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+                 FileChannel channel = input.getChannel()) {
+                long size = channel.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = channel.transferTo(position, size - position, sink);
+                    if (transferred <= 0) {
+                        throw new IOException("Content changed while uploading");
+                    }
+                    position += transferred;
+                }
+            }
+            return;
+        }
+
+        // Pipe or stream of the provider
+        try (InputStream input = descriptor != null ? new ParcelFileDescriptor.AutoCloseInputStream(descriptor) : openInputStream()) {
+            if (input == null) {
+                throw new FileNotFoundException("Unable to open " + uri);
+            }
+            try (Source source = Okio.source(input)) {
+                sink.writeAll(source);
+            }
+        }
+    }
+
+    private long readContentLength() {
+        ParcelFileDescriptor descriptor = openFileDescriptor();
+        if (descriptor == null) {
+            return LENGTH_UNKNOWN;
+        }
+        try {
+            return descriptor.getStatSize(); // -1 when it is not a regular file
+        } finally {
+            try {
+                descriptor.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    @Nullable
+    private InputStream openInputStream() throws IOException {
+        try {
+            return contentResolver.openInputStream(uri);
+        } catch (SecurityException e) {
+            throw new IOException("No access to " + uri, e); // For example when the permission was not persisted
+        }
+    }
+
+    @Nullable
+    private ParcelFileDescriptor openFileDescriptor() {
+        try {
+            return contentResolver.openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException | SecurityException e) {
+            return null; // Only available as stream, or not at all
+        }
+    }
+}
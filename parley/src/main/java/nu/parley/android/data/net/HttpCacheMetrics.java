@@ -0,0 +1,133 @@
+package nu.parley.android.data.net;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Counts how many requests are answered by the HTTP cache, since the start of the session.
+ *
+ * <p>
+ * A request counts as cache hit when the cached response is used without contacting the server, and
+ * as conditional hit when the server confirmed (with `304 Not Modified`) that the cached response
+ * is still valid. In both cases the body of the cached response did not have to be transferred.
+ * </p>
+ */
+public final class HttpCacheMetrics {
+
+    private static final String HEADER_UPGRADE = "Upgrade";
+
+    private int requestCount = 0;
+    private int hitCount = 0;
+    private int conditionalHitCount = 0;
+    private long bytesSaved = 0;
+
+    private final Interceptor interceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            Response response = chain.proceed(request);
+            if (isCacheable(request, response)) {
+                record(response);
+            }
+            return response;
+        }
+    };
+
+    HttpCacheMetrics() {
+        // Only created by Connectivity
+    }
+
+    /**
+     * @return Application interceptor that records the responses, it should be added to the client that uses the cache.
+     */
+    Interceptor getInterceptor() {
+        return interceptor;
+    }
+
+    /**
+     * Only GET requests can be answered by the cache. Uploads, the realtime connection and responses
+     * that may not be stored are not counted, they would lower the hit ratio.
+     */
+    private static boolean isCacheable(Request request, Response response) {
+        return "GET".equals(request.method())
+                && request.header(HEADER_UPGRADE) == null
+                && !request.cacheControl().noStore()
+                && !response.cacheControl().noStore();
+    }
+
+    synchronized void record(Response response) {
+        requestCount++;
+        if (response.cacheResponse() == null) {
+            return;
+        }
+        if (response.networkResponse() == null) {
+            hitCount++;
+        } else if (response.networkResponse().code() == 304) {
+            conditionalHitCount++;
+        } else {
+            return; // Cached response was replaced
+        }
+        if (response.body() != null && response.body().contentLength() > 0) {
+            bytesSaved += response.body().contentLength();
+        }
+    }
+
+    /**
+     * Starts counting again, for example when a new session starts.
+     */
+    public synchronized void reset() {
+        requestCount = 0;
+        hitCount = 0;
+        conditionalHitCount = 0;
+        bytesSaved = 0;
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return Requests that were answered by the cache, without contacting the server.
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return Requests that were answered by the cache, after the server confirmed it is still valid.
+     */
+    public synchronized int getConditionalHitCount() {
+        return conditionalHitCount;
+    }
+
+    /**
+     * @return Ratio (0 to 1) of the requests that were answered by the cache, with or without contacting the server.
+     */
+    public synchronized float getHitRatio() {
+        if (requestCount == 0) {
+            return 0;
+        }
+        return (hitCount + conditionalHitCount) / (float) requestCount;
+    }
+
+    /**
+     * @return Bytes of response bodies that didn't have to be transferred, as far as their length is known.
+     */
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "HttpCacheMetrics{" +
+                "requests=" + requestCount +
+                ", hits=" + hitCount +
+                ", conditionalHits=" + conditionalHitCount +
+                ", hitRatio=" + getHitRatio() +
+                ", bytesSaved=" + bytesSaved +
+                '}';
+    }
+}
@@ -0,0 +1,307 @@
+package nu.parley.android.data.net;
+
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nu.parley.android.data.model.Message;
+import nu.parley.android.util.GsonUtil;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Persistent WebSocket connection that receives new messages and events while the chat is visible.
+ *
+ * <p>
+ * Frames use the same structure as the `parley` object of push notifications, but contain the
+ * full message instead of only its id:
+ * </p>
+ *
+ * <pre>
+ * {"type": "message", "object": { ...message... }}
+ * {"type": "event", "object": {"name": "startTyping"}}
+ * </pre>
+ *
+ * <p>
+ * When the connection fails it is opened again with an exponential backoff, until
+ * {@link #close()} is called. Messages that were sent while not connected are not replayed, so
+ * {@link Listener#onConnected(boolean)} indicates when the latest messages should be retrieved.
+ * </p>
+ */
+public final class RealtimeChannel {
+
+    public static final String TYPE_MESSAGE = "message";
+    public static final String TYPE_EVENT = "event";
+
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_OBJECT = "object";
+    private static final String KEY_NAME = "name";
+
+    private static final int CLOSE_NORMAL = 1000;
+    private static final long RECONNECT_DELAY_INITIAL = 1000; // Milliseconds
+    private static final long RECONNECT_DELAY_MAX = 60 * 1000; // Milliseconds
+
+    public interface Listener {
+
+        /**
+         * The connection is open.
+         *
+         * @param reconnected `true` if the connection was lost before, messages may have been missed in the meantime.
+         */
+        void onConnected(boolean reconnected);
+
+        /**
+         * The connection is lost, it will be opened again after a delay.
+         */
+        void onDisconnected();
+
+        void onMessage(Message message);
+
+        void onEvent(String name);
+    }
+
+    private final Object lock = new Object();
+    private final OkHttpClient client;
+    private final String url;
+    private final Executor callbackExecutor;
+    private final Listener listener;
+    private final long reconnectDelayInitial;
+    private final Gson gson = GsonUtil.getGson();
+    private final JsonParser parser = new JsonParser();
+
+    @Nullable
+    private ScheduledExecutorService scheduler;
+    @Nullable
+    private WebSocket webSocket;
+    private boolean open = false;
+    private boolean connected = false;
+    private boolean disconnectedBefore = false;
+    private int attempts = 0;
+
+    /**
+     * @param client           Client used for the connection, its interceptors add the Parley headers.
+     * @param url              Url of the realtime endpoint (`ws://`, `wss://`, `http://` or `https://`).
+     * @param callbackExecutor Executor on which the listener is called.
+     * @param listener         Listener for the messages and events.
+     */
+    public RealtimeChannel(OkHttpClient client, String url, Executor callbackExecutor, Listener listener) {
+        this(client, url, callbackExecutor, listener, RECONNECT_DELAY_INITIAL);
+    }
+
+    RealtimeChannel(OkHttpClient client, String url, Executor callbackExecutor, Listener listener, long reconnectDelayInitial) {
+        this.client = client.newBuilder()
+                .readTimeout(0, TimeUnit.MILLISECONDS) // The connection is idle most of the time
+                .pingInterval(30, TimeUnit.SECONDS)
+                .build();
+        this.url = url;
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+        this.reconnectDelayInitial = reconnectDelayInitial;
+    }
+
+    /**
+     * Opens the connection. Does nothing when it is already open.
+     */
+    public void open() {
+        synchronized (lock) {
+            if (open) {
+                return;
+            }
+            open = true;
+            disconnectedBefore = false;
+            attempts = 0;
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+            connect();
+        }
+    }
+
+    /**
+     * Closes the connection, it is not opened again.
+     */
+    public void close() {
+        synchronized (lock) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            connected = false;
+            if (webSocket != null) {
+                webSocket.close(CLOSE_NORMAL, null);
+                webSocket = null;
+            }
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+    }
+
+    /**
+     * @return `true` if the connection is open at this moment, so new messages and events are received through it.
+     */
+    public boolean isConnected() {
+        synchronized (lock) {
+            return connected;
+        }
+    }
+
+    private void connect() {
+        Request request = new Request.Builder().url(url).build();
+        webSocket = client.newWebSocket(request, new ChannelListener());
+    }
+
+    private void scheduleReconnect() {
+        if (scheduler == null) {
+            return;
+        }
+        attempts++;
+        long delay = Math.min(RECONNECT_DELAY_MAX, reconnectDelayInitial << Math.min(attempts - 1, 16));
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    if (open && webSocket == null) {
+                        connect();
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void handleFrame(String text) {
+        JsonObject frame;
+        try {
+            JsonElement element = parser.parse(text);
+            if (!element.isJsonObject()) {
+                return;
+            }
+            frame = element.getAsJsonObject();
+        } catch (JsonParseException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!frame.has(KEY_TYPE) || !frame.has(KEY_OBJECT) || !frame.get(KEY_OBJECT).isJsonObject()) {
+            return;
+        }
+
+        String type = frame.get(KEY_TYPE).getAsString();
+        JsonObject object = frame.getAsJsonObject(KEY_OBJECT);
+        if (TYPE_MESSAGE.equals(type)) {
+            final Message message;
+            try {
+                message = gson.fromJson(object, Message.class);
+            } catch (JsonParseException e) {
+                e.printStackTrace();
+                return;
+            }
+            if (message == null) {
+                return;
+            }
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onMessage(message);
+                }
+            });
+        } else if (TYPE_EVENT.equals(type) && object.has(KEY_NAME)) {
+            final String name = object.get(KEY_NAME).getAsString();
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onEvent(name);
+                }
+            });
+        }
+    }
+
+    private void deliver(final Runnable runnable) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    if (!open) {
+                        return; // Closed in the meantime
+                    }
+                }
+                runnable.run();
+            }
+        });
+    }
+
+    private final class ChannelListener extends WebSocketListener {
+
+        @Override
+        public void onOpen(WebSocket socket, Response response) {
+            final boolean reconnected;
+            synchronized (lock) {
+                if (socket != webSocket) {
+                    return;
+                }
+                connected = true;
+                attempts = 0;
+                reconnected = disconnectedBefore;
+            }
+            deliver(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onConnected(reconnected);
+                }
+            });
+        }
+
+        @Override
+        public void onMessage(WebSocket socket, String text) {
+            synchronized (lock) {
+                if (socket != webSocket) {
+                    return;
+                }
+            }
+            handleFrame(text);
+        }
+
+        @Override
+        public void onClosing(WebSocket socket, int code, String reason) {
+            socket.close(CLOSE_NORMAL, null);
+            onConnectionLost(socket);
+        }
+
+        @Override
+        public void onFailure(WebSocket socket, Throwable t, @Nullable Response response) {
+            onConnectionLost(socket);
+        }
+
+        private void onConnectionLost(WebSocket socket) {
+            boolean wasConnected;
+            synchronized (lock) {
+                if (socket != webSocket || !open) {
+                    return;
+                }
+                wasConnected = connected;
+                webSocket = null;
+                connected = false;
+                disconnectedBefore = true;
+                scheduleReconnect();
+            }
+            if (wasConnected) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onDisconnected();
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package nu.parley.android.data.net;
+
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+
+import nu.parley.android.data.messages.ParleyKeyValueDataSource;
+import nu.parley.android.data.net.response.ParleyResponse;
+import nu.parley.android.data.net.response.ParleyResponsePostMedia;
+import nu.parley.android.data.net.service.MessageService;
+import nu.parley.android.util.GsonUtil;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * Uploads media in chunks, so an upload that is interrupted continues where it stopped instead of
+ * starting over. The protocol follows tus (https://tus.io) 1.0:
+ *
+ * <pre>
+ * POST  media/uploads        Upload-Length, Upload-Metadata  -> 201, Location of the upload
+ * HEAD  {location}                                           -> 200, Upload-Offset
+ * PATCH {location}           Upload-Offset, chunk            -> 204, Upload-Offset
+ *                                                               200, {"data": {"media": "..."}} after the last chunk
+ * GET   {location}                                           -> 200, {"data": {"media": "..."}} when complete
+ * </pre>
+ *
+ * <p>
+ * The media of a complete upload is retrieved with a GET request, for example when the response of
+ * the last chunk was lost and the server already received the whole file.
+ * </p>
+ *
+ * <p>
+ * The location and offset of an upload are saved under {@link ParleyKeyValueDataSource#KEY_UPLOAD_PREFIX}
+ * and the key of the upload, so the upload also continues after the app is restarted. Without a data
+ * source they are only kept in memory.
+ * </p>
+ *
+ * <p>
+ * <b>Note:</b> Blocking, should not be called on the main thread.
+ * </p>
+ */
+public final class ResumableUpload {
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024; // Bytes
+
+    private static final String TUS_VERSION = "1.0.0";
+    private static final String HEADER_TUS_RESUMABLE = "Tus-Resumable";
+    private static final String HEADER_UPLOAD_LENGTH = "Upload-Length";
+    private static final String HEADER_UPLOAD_OFFSET = "Upload-Offset";
+    private static final String HEADER_UPLOAD_METADATA = "Upload-Metadata";
+    private static final String HEADER_LOCATION = "Location";
+    private static final MediaType MEDIA_TYPE_CHUNK = MediaType.parse("application/offset+octet-stream");
+    private static final RequestBody EMPTY_BODY = RequestBody.create(null, new byte[0]);
+
+    private static final int RESUME_ATTEMPTS = 3; // In a row, reset when the server accepts a chunk
+    private static final int BUFFER_SIZE = 8 * 1024; // Bytes
+
+    private static final Type RESPONSE_TYPE = new TypeToken<ParleyResponse<ParleyResponsePostMedia>>() {
+    }.getType();
+
+    // Fallback when caching is disabled, uploads can still continue while the app is running
+    private static final Map<String, String> memoryStates = new HashMap<>();
+
+    public interface ProgressListener {
+
+        /**
+         * @param uploaded Bytes that are uploaded.
+         * @param total    Size of the file in bytes.
+         */
+        void onProgress(long uploaded, long total);
+    }
+
+    /**
+     * The server responded with an error, the upload is not continued in this attempt.
+     */
+    public static final class UploadException extends IOException {
+
+        private final int code;
+
+        UploadException(int code, String message) {
+            super(code + " " + message);
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+    }
+
+    private final OkHttpClient client;
+    private final String uploadsUrl;
+    @Nullable
+    private final ParleyKeyValueDataSource dataSource;
+    private final int chunkSize;
+    private final Gson gson = GsonUtil.getGson();
+
+    /**
+     * @param client     Client used for the requests, its interceptors add the Parley headers.
+     * @param uploadsUrl Url of the uploads endpoint.
+     * @param dataSource Data source to save the state of the uploads in, `null` to keep it in memory.
+     * @param chunkSize  Maximum size of a single request in bytes.
+     */
+    public ResumableUpload(OkHttpClient client, String uploadsUrl, @Nullable ParleyKeyValueDataSource dataSource, int chunkSize) {
+        this.client = client.newBuilder()
+                .retryOnConnectionFailure(false) // Resuming is handled here, with the offset of the server
+                .build();
+        this.uploadsUrl = uploadsUrl;
+        this.dataSource = dataSource;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Uploads the file, or continues the upload that was started before with the same key.
+     *
+     * @param file     File to upload.
+     * @param mimeType Mime type of the file.
+     * @param key      Unique key of the upload, for example the uuid of the message.
+     * @param listener Listener for the progress, called on the uploading thread.
+     * @return The id of the uploaded media.
+     * @throws UploadException When the server responded with an error, for example 404 when it doesn't support resumable uploads.
+     * @throws IOException     When the connection was lost too often without progress, the state is kept to continue later.
+     */
+    public String upload(File file, String mimeType, String key, @Nullable ProgressListener listener) throws IOException {
+        long length = file.length();
+        State state = loadState(key);
+        if (state != null && state.length != length) {
+            state = null; // Another file, for example compressed differently
+        }
+
+        int resumeAttempts = 0;
+        boolean resuming = state != null;
+        while (true) {
+            try {
+                if (state == null) {
+                    state = create(file, mimeType, key, length);
+                    saveState(key, state);
+                } else if (resuming) {
+                    Long offset = getOffset(state);
+                    if (offset == null) {
+                        // The upload expired or is unknown, start over
+                        removeState(key);
+                        state = null;
+                        continue;
+                    }
+                    state.offset = offset;
+                    saveState(key, state);
+                }
+                resuming = false;
+
+                while (true) {
+                    if (listener != null) {
+                        listener.onProgress(state.offset, length);
+                    }
+                    // An empty file is complete as soon as it is created, it has no chunk to upload
+                    String media = state.offset >= length ? complete(state) : patch(state, file, listener);
+                    if (media != null) {
+                        removeState(key);
+                        return media;
+                    }
+                    saveState(key, state);
+                    resumeAttempts = 0; // The upload made progress, only interruptions in a row count
+                }
+            } catch (UploadException e) {
+                if (e.getCode() == 409 && resumeAttempts < RESUME_ATTEMPTS) {
+                    // Offsets don't match, ask the server where to continue
+                    resumeAttempts++;
+                    resuming = true;
+                } else if (isExpired(e.getCode()) && state != null && resumeAttempts < RESUME_ATTEMPTS) {
+                    // The upload expired while uploading, start over
+                    resumeAttempts++;
+                    removeState(key);
+                    state = null;
+                } else {
+                    throw e;
+                }
+            } catch (IOException e) {
+                if (state == null || resumeAttempts >= RESUME_ATTEMPTS) {
+                    throw e;
+                }
+                // Connection lost, continue at the offset the server received
+                resumeAttempts++;
+                resuming = true;
+            }
+        }
+    }
+
+    /**
+     * Removes the saved state of the upload, for example when the message is removed.
+     */
+    public void discard(String key) {
+        removeState(key);
+    }
+
+    private State create(File file, String mimeType, String key, long length) throws IOException {
+        Request request = new Request.Builder()
+                .url(uploadsUrl)
+                .header(HEADER_TUS_RESUMABLE, TUS_VERSION)
+                .header(HEADER_UPLOAD_LENGTH, String.valueOf(length))
+                .header(HEADER_UPLOAD_METADATA, "filename " + ByteString.encodeUtf8(file.getName()).base64() + ",filetype " + ByteString.encodeUtf8(mimeType).base64())
+                .header(MessageService.HEADER_IDEMPOTENCY_KEY, key)
+                .post(EMPTY_BODY)
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            String location = response.header(HEADER_LOCATION);
+            if (response.code() != 201 || location == null) {
+                throw new UploadException(response.code(), response.message());
+            }
+            HttpUrl url = response.request().url().resolve(location);
+            if (url == null) {
+                throw new UploadException(response.code(), "Invalid location " + location);
+            }
+            return new State(url.toString(), length, 0);
+        }
+    }
+
+    /**
+     * @return The offset the server received, or `null` if the upload doesn't exist (anymore).
+     */
+    @Nullable
+    private Long getOffset(State state) throws IOException {
+        Request request = new Request.Builder()
+                .url(state.url)
+                .header(HEADER_TUS_RESUMABLE, TUS_VERSION)
+                .head()
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (isExpired(response.code())) {
+                return null;
+            }
+            Long offset = parseOffset(response);
+            if (!response.isSuccessful() || offset == null) {
+                throw new UploadException(response.code(), response.message());
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * Uploads the next chunk, updating the offset of the state.
+     *
+     * @return The id of the uploaded media when the upload is complete, `null` when there are more chunks.
+     */
+    @Nullable
+    private String patch(State state, File file, @Nullable ProgressListener listener) throws IOException {
+        long chunkLength = Math.min(chunkSize, state.length - state.offset);
+        Request request = new Request.Builder()
+                .url(state.url)
+                .header(HEADER_TUS_RESUMABLE, TUS_VERSION)
+                .header(HEADER_UPLOAD_OFFSET, String.valueOf(state.offset))
+                .patch(new ChunkRequestBody(file, state.offset, chunkLength, state.length, listener))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() == 200) {
+                return parseMedia(response);
+            }
+            Long offset = parseOffset(response);
+            if (response.code() != 204 || offset == null || offset <= state.offset) {
+                throw new UploadException(response.code(), response.message());
+            }
+            state.offset = offset; // When the server received everything without responding with the media, it is retrieved next
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the media of an upload of which the server received all chunks.
+     *
+     * @return The id of the uploaded media.
+     */
+    private String complete(State state) throws IOException {
+        Request request = new Request.Builder()
+                .url(state.url)
+                .header(HEADER_TUS_RESUMABLE, TUS_VERSION)
+                .get()
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (response.code() != 200) {
+                throw new UploadException(response.code(), response.message());
+            }
+            return parseMedia(response);
+        }
+    }
+
+    private String parseMedia(Response response) throws IOException {
+        ResponseBody body = response.body();
+        ParleyResponse<ParleyResponsePostMedia> parsed;
+        try {
+            parsed = body == null ? null : gson.<ParleyResponse<ParleyResponsePostMedia>>fromJson(body.charStream(), RESPONSE_TYPE);
+        } catch (JsonParseException e) {
+            throw new UploadException(response.code(), "Invalid response");
+        }
+        if (parsed == null || parsed.getData() == null || parsed.getData().media == null) {
+            throw new UploadException(response.code(), "Missing media");
+        }
+        return parsed.getData().media;
+    }
+
+    private static boolean isExpired(int code) {
+        return code == 404 || code == 410;
+    }
+
+    @Nullable
+    private static Long parseOffset(Response response) {
+        String offset = response.header(HEADER_UPLOAD_OFFSET);
+        if (offset == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(offset.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // State
+
+    @Nullable
+    private State loadState(String key) {
+        String value;
+        if (dataSource == null) {
+            synchronized (memoryStates) {
+                value = memoryStates.get(key);
+            }
+        } else {
+            value = dataSource.get(ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + key);
+        }
+        if (value == null) {
+            return null;
+        }
+        try {
+            State state = gson.fromJson(value, State.class);
+            return state == null || state.url == null ? null : state;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private void saveState(String key, State state) {
+        String value = gson.toJson(state);
+        if (dataSource == null) {
+            synchronized (memoryStates) {
+                memoryStates.put(key, value);
+            }
+        } else {
+            dataSource.set(ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + key, value);
+        }
+    }
+
+    private void removeState(String key) {
+        if (dataSource == null) {
+            synchronized (memoryStates) {
+                memoryStates.remove(key);
+            }
+        } else {
+            dataSource.set(ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + key, null);
+        }
+    }
+
+    static final class State {
+
+        @SerializedName("url")
+        String url;
+        @SerializedName("length")
+        long length;
+        @SerializedName("offset")
+        long offset;
+
+        State(String url, long length, long offset) {
+            this.url = url;
+            this.length = length;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Part of the file, reporting the progress of the whole file while it is written.
+     */
+    private static final class ChunkRequestBody extends RequestBody {
+
+        private final File file;
+        private final long offset;
+        private final long length;
+        private final long total;
+        @Nullable
+        private final ProgressListener listener;
+
+        ChunkRequestBody(File file, long offset, long length, long total, @Nullable ProgressListener listener) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.total = total;
+            this.listener = listener;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MEDIA_TYPE_CHUNK;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+                input.seek(offset);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long written = 0;
+                while (written < length) {
+                    int read = input.read(buffer, 0, (int) Math.min(buffer.length, length - written));
+                    if (read == -1) {
+                        throw new IOException("File changed while uploading");
+                    }
+                    sink.write(buffer, 0, read);
+                    written += read;
+                    if (listener != null) {
+                        listener.onProgress(offset + written, total);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -10,6 +10,7 @@ import okhttp3.MultipartBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.Multipart;
 import retrofit2.http.POST;
 import retrofit2.http.Part;
@@ -18,6 +19,11 @@ import retrofit2.http.Url;
 
 public interface MessageService {
 
+    /**
+     * Header with a unique key per message, which allows the server to detect retries of the same message.
+     */
+    String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
     @GET("messages/{id}")
     Call<ParleyResponse<Message>> get(@Path("id") Integer id);
 
@@ -27,21 +33,31 @@ public interface MessageService {
     @GET
     Call<ParleyResponse<List<Message>>> getOlder(@Url String url);
 
+    /**
+     * Retrieves only the messages that are newer than the given message, and the messages that changed since then.
+     *
+     * @param id The id of the newest known message.
+     * @return response
+     */
+    @GET("messages/after:{id}")
+    Call<ParleyResponse<List<Message>>> findNewer(@Path("id") Integer id);
+
     @POST("messages")
-    Call<ParleyResponse<ParleyResponsePostMessage>> post(@Body Message chatMessage);
+    Call<ParleyResponse<ParleyResponsePostMessage>> post(@Header(HEADER_IDEMPOTENCY_KEY) String idempotencyKey, @Body Message chatMessage);
 
     /**
-     * @deprecated Use {@link MessageService#postMedia(MultipartBody.Part)} from API 1.6 and onwards.
+     * @deprecated Use {@link MessageService#postMedia(String, MultipartBody.Part)} from API 1.6 and onwards.
      *
+     * @param idempotencyKey The key that identifies this upload, a retry uses the same key so the server posts the image only once.
      * @param filePart
      * @return response
      */
     @Multipart
     @POST("messages")
-    Call<ParleyResponse<ParleyResponsePostMessage>> postImage(@Part MultipartBody.Part filePart);
+    Call<ParleyResponse<ParleyResponsePostMessage>> postImage(@Header(HEADER_IDEMPOTENCY_KEY) String idempotencyKey, @Part MultipartBody.Part filePart);
 
     @Multipart
     @POST("media")
-    Call<ParleyResponse<ParleyResponsePostMedia>> postMedia(@Part MultipartBody.Part filePart);
+    Call<ParleyResponse<ParleyResponsePostMedia>> postMedia(@Header(HEADER_IDEMPOTENCY_KEY) String idempotencyKey, @Part MultipartBody.Part filePart);
 
 }
@@ -22,7 +22,7 @@ public final class DeviceRepository {
         device.setUserAdditionalInformation(Parley.getInstance().getUserAdditionalInformation());
         device.setReferrer(Parley.getInstance().getReferrer());
 
-        Call<Void> registerCall = Connectivity.getRetrofit().create(DeviceService.class).register(device);
+        Call<Void> registerCall = Connectivity.getService(DeviceService.class).register(device);
         registerCall.enqueue(new Callback<Void>() {
             @Override
             public void onResponse(Call<Void> call, Response<Void> response) {
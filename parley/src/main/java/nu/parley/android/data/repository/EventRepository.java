@@ -9,7 +9,7 @@ import retrofit2.Response;
 public final class EventRepository {
 
     public void fire(String event) {
-        Call<Void> eventCall = Connectivity.getRetrofit().create(EventService.class).fire(event);
+        Call<Void> eventCall = Connectivity.getService(EventService.class).fire(event);
         eventCall.enqueue(new Callback<Void>() {
             @Override
             public void onResponse(Call<Void> call, Response<Void> response) {
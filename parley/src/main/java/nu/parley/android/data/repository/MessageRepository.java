@@ -1,17 +1,34 @@
 package nu.parley.android.data.repository;
 
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.Nullable;
+
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
+import nu.parley.android.Parley;
+import nu.parley.android.data.messages.UploadProgress;
 import nu.parley.android.data.model.Message;
 import nu.parley.android.data.net.Connectivity;
+import nu.parley.android.data.net.ContentUriRequestBody;
 import nu.parley.android.data.net.RepositoryCallback;
+import nu.parley.android.data.net.ResumableUpload;
 import nu.parley.android.data.net.response.ParleyResponsePostMedia;
 import nu.parley.android.data.net.response.ParleyResponsePostMessage;
 import nu.parley.android.data.net.response.ParleyPaging;
 import nu.parley.android.data.net.response.ParleyResponse;
 import nu.parley.android.data.net.service.MessageService;
 import nu.parley.android.util.FileUtil;
+import nu.parley.android.util.ImageCompressor;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
@@ -25,30 +42,22 @@ public final class MessageRepository {
 
     private final static String MIME_TYPE_IMAGE_FALLBACK = "image/*";
 
-    public void findAll(final RepositoryCallback<ParleyResponse<List<Message>>> callback) {
-        Call<ParleyResponse<List<Message>>> messagesCall = Connectivity.getRetrofit().create(MessageService.class).findAll();
+    // Uploads run blocking, the outbox decides how many run at the same time
+    private static final Executor uploadExecutor = Executors.newCachedThreadPool();
 
-        messagesCall.enqueue(new Callback<ParleyResponse<List<Message>>>() {
-            @Override
-            public void onResponse(Call<ParleyResponse<List<Message>>> call, Response<ParleyResponse<List<Message>>> response) {
-                if (response.isSuccessful()) {
-                    callback.onSuccess(response.body());
-                } else {
-                    callback.onFailed(response.code(), response.message());
-                }
-            }
+    public void findAll(final RepositoryCallback<ParleyResponse<List<Message>>> callback) {
+        getMessages(Connectivity.getService(MessageService.class).findAll(), callback);
+    }
 
-            @Override
-            public void onFailure(Call<ParleyResponse<List<Message>>> call, Throwable t) {
-                t.printStackTrace();
-                callback.onFailed(null, t.getMessage());
-            }
-        });
+    public void findNewer(Integer syncCursor, final RepositoryCallback<ParleyResponse<List<Message>>> callback) {
+        getMessages(Connectivity.getService(MessageService.class).findNewer(syncCursor), callback);
     }
 
     public void getOlder(final ParleyPaging previousPaging, final RepositoryCallback<ParleyResponse<List<Message>>> callback) {
-        Call<ParleyResponse<List<Message>>> messagesCall = Connectivity.getRetrofit().create(MessageService.class).getOlder(previousPaging.getBefore());
+        getMessages(Connectivity.getService(MessageService.class).getOlder(previousPaging.getBefore()), callback);
+    }
 
+    private void getMessages(Call<ParleyResponse<List<Message>>> messagesCall, final RepositoryCallback<ParleyResponse<List<Message>>> callback) {
         messagesCall.enqueue(new Callback<ParleyResponse<List<Message>>>() {
             @Override
             public void onResponse(Call<ParleyResponse<List<Message>>> call, Response<ParleyResponse<List<Message>>> response) {
@@ -68,28 +77,29 @@ public final class MessageRepository {
     }
 
     public void send(final Message message, final RepositoryCallback<Message> callback) {
-        Call<ParleyResponse<ParleyResponsePostMessage>> messagesCall;
         if (message.getLegacyImageUrl() == null) {
             // Text or media message
-            messagesCall = Connectivity.getRetrofit().create(MessageService.class).post(message);
+            post(message, Connectivity.getService(MessageService.class).post(message.getUuid().toString(), message), callback);
         } else {
             // Image message API V1.2: Uploading it together when sending the message
-            String url = message.getLegacyImageUrl();
-            File file = new File(url);
-            String mediaType = FileUtil.getMimeType(url);
-            if (mediaType == null) {
-                mediaType = MIME_TYPE_IMAGE_FALLBACK;
-            }
-            RequestBody requestBody = RequestBody.create(MediaType.parse(mediaType), file);
-
-            MultipartBody.Part filePart = MultipartBody.Part.createFormData("image", file.getName(), requestBody);
-            messagesCall = Connectivity.getRetrofit().create(MessageService.class).postImage(filePart);
+            prepareImage(message, new ImageCallback() {
+                @Override
+                public void onPrepared(PreparedImage image) {
+                    MultipartBody.Part filePart = image.createFormData("image");
+                    post(message, Connectivity.getService(MessageService.class).postImage(message.getUuid().toString(), filePart), callback);
+                }
+            });
         }
+    }
 
+    private void post(final Message message, Call<ParleyResponse<ParleyResponsePostMessage>> messagesCall, final RepositoryCallback<Message> callback) {
         messagesCall.enqueue(new Callback<ParleyResponse<ParleyResponsePostMessage>>() {
             @Override
             public void onResponse(Call<ParleyResponse<ParleyResponsePostMessage>> call, Response<ParleyResponse<ParleyResponsePostMessage>> response) {
                 if (response.isSuccessful()) {
+                    if (message.getLegacyImageUrl() != null) {
+                        Parley.getInstance().getImageCompressor().release(message.getUuid().toString());
+                    }
                     Message updatedMessage = Message.withIdAndStatus(message, response.body().getData().getMessageId(), SEND_STATUS_SUCCESS);
                     callback.onSuccess(updatedMessage);
                 } else {
@@ -107,21 +117,96 @@ public final class MessageRepository {
 
     public void sendMedia(final Message message, final RepositoryCallback<Message> callback) {
         // API V1.6+: Uploading media
-        String imagePath = message.getImage().toString();
-        File file = new File(imagePath);
-        String mediaType = FileUtil.getMimeType(imagePath);
-        if (mediaType == null) {
-            mediaType = MIME_TYPE_IMAGE_FALLBACK;
-        }
-        RequestBody requestBody = RequestBody.create(MediaType.parse(mediaType), file);
+        prepareImage(message, new ImageCallback() {
+            @Override
+            public void onPrepared(PreparedImage image) {
+                if (Parley.getInstance().isResumableUploadsEnabled() && image.file != null) {
+                    uploadMedia(message, image, callback);
+                } else {
+                    // Resuming needs a file, content is streamed in a single request
+                    postMedia(message, image.createFormData("media"), callback);
+                }
+            }
+        });
+    }
+
+    /**
+     * Uploads the media in chunks (see {@link ResumableUpload}) and shows the progress in the chat.
+     * Falls back to uploading it in a single request when the server doesn't support this.
+     */
+    private void uploadMedia(final Message message, final PreparedImage image, final RepositoryCallback<Message> callback) {
+        final Parley parley = Parley.getInstance();
+        final UploadProgress uploadProgress = parley.getUploadProgress();
+        final UUID uuid = message.getUuid();
+        final ResumableUpload upload = new ResumableUpload(
+                Connectivity.getClient(),
+                parley.getNetwork().getBaseUrl() + "media/uploads",
+                parley.getMessagesManager().getKeyValueDataSource(),
+                parley.getUploadChunkSize()
+        );
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        uploadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final String media = upload.upload(image.file, image.mediaType, uuid.toString(), new ResumableUpload.ProgressListener() {
+                        private int postedPercentage = -1;
 
-        MultipartBody.Part filePart = MultipartBody.Part.createFormData("media", file.getName(), requestBody);
+                        @Override
+                        public void onProgress(final long uploaded, final long total) {
+                            int percentage = total <= 0 ? 100 : (int) (uploaded * 100 / total);
+                            if (percentage == postedPercentage) {
+                                return; // Don't flood the main thread
+                            }
+                            postedPercentage = percentage;
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    uploadProgress.update(uuid, uploaded, total);
+                                }
+                            });
+                        }
+                    });
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            uploadProgress.remove(uuid);
+                            releaseImage(message);
+                            callback.onSuccess(Message.withMedia(message, media));
+                        }
+                    });
+                } catch (final IOException e) {
+                    e.printStackTrace();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            uploadProgress.remove(uuid);
+                            if (!(e instanceof ResumableUpload.UploadException)) {
+                                callback.onFailed(null, e.getMessage());
+                                return;
+                            }
+                            int code = ((ResumableUpload.UploadException) e).getCode();
+                            if (code == 404 || code == 405) {
+                                // Not supported by the server, keep using single requests
+                                parley.setResumableUploadsUnsupported();
+                                postMedia(message, image.createFormData("media"), callback);
+                            } else {
+                                callback.onFailed(code, e.getMessage());
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
 
-        Call<ParleyResponse<ParleyResponsePostMedia>> messagesCall = Connectivity.getRetrofit().create(MessageService.class).postMedia(filePart);
+    private void postMedia(final Message message, MultipartBody.Part filePart, final RepositoryCallback<Message> callback) {
+        Call<ParleyResponse<ParleyResponsePostMedia>> messagesCall = Connectivity.getService(MessageService.class).postMedia(message.getUuid().toString() + "/media", filePart);
         messagesCall.enqueue(new Callback<ParleyResponse<ParleyResponsePostMedia>>() {
             @Override
             public void onResponse(Call<ParleyResponse<ParleyResponsePostMedia>> call, Response<ParleyResponse<ParleyResponsePostMedia>> response) {
                 if (response.isSuccessful()) {
+                    releaseImage(message);
                     Message updatedMessage = Message.withMedia(message, response.body().getData().media);
                     callback.onSuccess(updatedMessage);
                 } else {
@@ -137,8 +222,97 @@ public final class MessageRepository {
         });
     }
 
+    private interface ImageCallback {
+        void onPrepared(PreparedImage image);
+    }
+
+    /**
+     * Image that is ready for uploading: a prepared file, or the original content uri when it is streamed as is.
+     */
+    private static final class PreparedImage {
+
+        @Nullable
+        final File file;
+        @Nullable
+        final Uri uri;
+        final String name;
+        final String mediaType;
+        private final ContentResolver contentResolver;
+
+        private PreparedImage(@Nullable File file, @Nullable Uri uri, String name, @Nullable String mediaType, ContentResolver contentResolver) {
+            this.file = file;
+            this.uri = uri;
+            this.name = name;
+            this.mediaType = mediaType == null ? MIME_TYPE_IMAGE_FALLBACK : mediaType;
+            this.contentResolver = contentResolver;
+        }
+
+        static PreparedImage ofFile(File file, ContentResolver contentResolver) {
+            return new PreparedImage(file, null, file.getName(), FileUtil.getMimeType(file.getAbsolutePath()), contentResolver);
+        }
+
+        static PreparedImage ofContentUri(Uri uri, String name, ContentResolver contentResolver) {
+            String mediaType = FileUtil.getMimeType(contentResolver, uri);
+            String extension = mediaType == null ? null : MimeTypeMap.getSingleton().getExtensionFromMimeType(mediaType);
+            return new PreparedImage(null, uri, extension == null ? name : name + "." + extension, mediaType, contentResolver);
+        }
+
+        MultipartBody.Part createFormData(String partName) {
+            RequestBody body = file != null
+                    ? RequestBody.create(MediaType.parse(mediaType), file)
+                    : new ContentUriRequestBody(contentResolver, uri, MediaType.parse(mediaType));
+            return MultipartBody.Part.createFormData(partName, name, body);
+        }
+    }
+
+    /**
+     * Prepares the image of the message for uploading in the background (see {@link ImageCompressor}).
+     * Images of a content uri are streamed from the content resolver when they are not prepared,
+     * instead of copying them first. The callback is called on the main thread.
+     */
+    private static void prepareImage(final Message message, final ImageCallback callback) {
+        final ImageCompressor imageCompressor = Parley.getInstance().getImageCompressor();
+        final ContentResolver contentResolver = Parley.getInstance().getApplicationContext().getContentResolver();
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        imageCompressor.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                String source = message.getLegacyImageUrl();
+                String name = message.getUuid().toString();
+                final PreparedImage image;
+                if (FileUtil.isContentUri(source)) {
+                    Uri uri = Uri.parse(source);
+                    File file = imageCompressor.prepare(contentResolver, uri, name);
+                    image = file == null ? PreparedImage.ofContentUri(uri, name, contentResolver) : PreparedImage.ofFile(file, contentResolver);
+                } else {
+                    image = PreparedImage.ofFile(imageCompressor.prepare(new File(source), name), contentResolver);
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPrepared(image);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Releases the prepared image and the original image after uploading the media, the message shows the uploaded media from now on.
+     */
+    private static void releaseImage(Message message) {
+        Parley parley = Parley.getInstance();
+        parley.getImageCompressor().release(message.getUuid().toString());
+        String source = message.getLegacyImageUrl();
+        if (FileUtil.isContentUri(source)) {
+            FileUtil.releasePersistableReadPermission(parley.getApplicationContext(), source);
+        } else if (source != null) {
+            FileUtil.deleteUploadCopy(parley.getApplicationContext(), new File(source));
+        }
+    }
+
     public void get(final Integer messageId, final RepositoryCallback<Message> callback) {
-        Call<ParleyResponse<Message>> messagesCall = Connectivity.getRetrofit().create(MessageService.class).get(messageId);
+        Call<ParleyResponse<Message>> messagesCall = Connectivity.getService(MessageService.class).get(messageId);
 
         messagesCall.enqueue(new Callback<ParleyResponse<Message>>() {
             @Override
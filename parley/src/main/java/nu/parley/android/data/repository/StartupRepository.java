@@ -0,0 +1,186 @@
+package nu.parley.android.data.repository;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+import nu.parley.android.data.model.Message;
+import nu.parley.android.data.net.RepositoryCallback;
+import nu.parley.android.data.net.response.ParleyResponse;
+
+/**
+ * Registers the device and retrieves the latest messages, which are both needed before the chat can be used.
+ *
+ * <p>
+ * In parallel mode both requests are started at once. When retrieving the messages fails, while
+ * registering succeeds, the messages are retrieved once more after the registration. This covers
+ * the case where the messages can only be retrieved for registered devices.
+ * </p>
+ */
+public final class StartupRepository {
+
+    private static final String TAG = "StartupRepository";
+
+    /**
+     * Convenience for start(parallel, null, callback), which retrieves the latest page of messages.
+     *
+     * @see #start(boolean, Integer, RepositoryCallback)
+     */
+    public void start(boolean parallel, RepositoryCallback<ParleyResponse<List<Message>>> callback) {
+        start(parallel, null, callback);
+    }
+
+    /**
+     * @param parallel   `true` to register and retrieve the messages at the same time, `false` to retrieve the messages after registering.
+     * @param syncCursor Id of the newest known message to only retrieve the messages after it, or `null` to retrieve the latest page of messages.
+     * @param callback   Called once, with the latest messages or with the first failure.
+     */
+    public void start(boolean parallel, @Nullable Integer syncCursor, RepositoryCallback<ParleyResponse<List<Message>>> callback) {
+        if (parallel) {
+            new ParallelStartup(syncCursor, callback).start();
+        } else {
+            startSerial(syncCursor, callback);
+        }
+    }
+
+    private static void findMessages(@Nullable Integer syncCursor, RepositoryCallback<ParleyResponse<List<Message>>> callback) {
+        if (syncCursor == null) {
+            new MessageRepository().findAll(callback);
+        } else {
+            new MessageRepository().findNewer(syncCursor, callback);
+        }
+    }
+
+    private void startSerial(@Nullable final Integer syncCursor, final RepositoryCallback<ParleyResponse<List<Message>>> callback) {
+        final long startTime = SystemClock.elapsedRealtime();
+        new DeviceRepository().register(new RepositoryCallback<Void>() {
+            @Override
+            public void onSuccess(Void data) {
+                final long registeredTime = SystemClock.elapsedRealtime();
+                findMessages(syncCursor, new RepositoryCallback<ParleyResponse<List<Message>>>() {
+                    @Override
+                    public void onSuccess(ParleyResponse<List<Message>> data) {
+                        long finishedTime = SystemClock.elapsedRealtime();
+                        Log.d(TAG, "start :: Serial startup took " + (finishedTime - startTime) + "ms (register: " + (registeredTime - startTime) + "ms, messages: " + (finishedTime - registeredTime) + "ms)");
+                        callback.onSuccess(data);
+                    }
+
+                    @Override
+                    public void onFailed(Integer code, String message) {
+                        callback.onFailed(code, message);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailed(Integer code, String message) {
+                callback.onFailed(code, message);
+            }
+        });
+    }
+
+    /**
+     * Joins the results of registering and retrieving the messages. Callbacks are delivered on the main thread, so no synchronization is needed.
+     */
+    private static final class ParallelStartup {
+
+        @Nullable
+        private final Integer syncCursor;
+        private final RepositoryCallback<ParleyResponse<List<Message>>> callback;
+        private final long startTime = SystemClock.elapsedRealtime();
+
+        private long registerDuration = -1;
+        private long messagesDuration = -1;
+        private boolean registered = false;
+        private boolean messagesFailed = false;
+        private boolean messagesRetrieved = false;
+        @Nullable
+        private ParleyResponse<List<Message>> messages;
+        private boolean finished = false;
+
+        private ParallelStartup(@Nullable Integer syncCursor, RepositoryCallback<ParleyResponse<List<Message>>> callback) {
+            this.syncCursor = syncCursor;
+            this.callback = callback;
+        }
+
+        private void start() {
+            new DeviceRepository().register(new RepositoryCallback<Void>() {
+                @Override
+                public void onSuccess(Void data) {
+                    registerDuration = SystemClock.elapsedRealtime() - startTime;
+                    registered = true;
+                    if (messagesFailed) {
+                        retryMessages();
+                    } else {
+                        finishIfCompleted();
+                    }
+                }
+
+                @Override
+                public void onFailed(Integer code, String message) {
+                    fail(code, message);
+                }
+            });
+            findMessages(syncCursor, new RepositoryCallback<ParleyResponse<List<Message>>>() {
+                @Override
+                public void onSuccess(ParleyResponse<List<Message>> data) {
+                    messagesDuration = SystemClock.elapsedRealtime() - startTime;
+                    messages = data;
+                    messagesRetrieved = true;
+                    finishIfCompleted();
+                }
+
+                @Override
+                public void onFailed(Integer code, String message) {
+                    if (ParleyResponse.isOfflineErrorCode(code)) {
+                        fail(code, message);
+                    } else if (registered) {
+                        retryMessages();
+                    } else {
+                        // Maybe the device needs to be registered first, wait for it
+                        messagesFailed = true;
+                    }
+                }
+            });
+        }
+
+        private void retryMessages() {
+            final long retryStartTime = SystemClock.elapsedRealtime();
+            Log.d(TAG, "retryMessages :: Retrieving messages again after registering");
+            findMessages(syncCursor, new RepositoryCallback<ParleyResponse<List<Message>>>() {
+                @Override
+                public void onSuccess(ParleyResponse<List<Message>> data) {
+                    messagesDuration = SystemClock.elapsedRealtime() - retryStartTime;
+                    messages = data;
+                    messagesRetrieved = true;
+                    finishIfCompleted();
+                }
+
+                @Override
+                public void onFailed(Integer code, String message) {
+                    fail(code, message);
+                }
+            });
+        }
+
+        private void finishIfCompleted() {
+            if (finished || !registered || !messagesRetrieved) {
+                return;
+            }
+            finished = true;
+            Log.d(TAG, "start :: Parallel startup took " + (SystemClock.elapsedRealtime() - startTime) + "ms (register: " + registerDuration + "ms, messages: " + messagesDuration + "ms)");
+            callback.onSuccess(messages);
+        }
+
+        private void fail(Integer code, String message) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            callback.onFailed(code, message);
+        }
+    }
+}
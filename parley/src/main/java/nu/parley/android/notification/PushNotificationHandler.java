@@ -3,8 +3,6 @@ package nu.parley.android.notification;
 import android.content.Context;
 import android.content.Intent;
 
-import com.google.gson.Gson;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -14,6 +12,7 @@ import java.util.Map;
 import nu.parley.android.data.model.Message;
 import nu.parley.android.data.model.PushEventBody;
 import nu.parley.android.data.model.PushMessage;
+import nu.parley.android.util.GsonUtil;
 
 public final class PushNotificationHandler {
 
@@ -62,11 +61,11 @@ public final class PushNotificationHandler {
     }
 
     private static PushEventBody getParleyPushEventBody(Map<String, String> data) {
-        return new Gson().fromJson(getParleyObjectStringValue(data, OBJECT), PushEventBody.class);
+        return GsonUtil.getGson().fromJson(getParleyObjectStringValue(data, OBJECT), PushEventBody.class);
     }
 
     private static PushMessage getParleyPushMessageBody(Map<String, String> data) {
-        return new Gson().fromJson(getParleyObjectStringValue(data, OBJECT), PushMessage.class);
+        return GsonUtil.getGson().fromJson(getParleyObjectStringValue(data, OBJECT), PushMessage.class);
     }
 
     private static String getParleyObjectStringValue(Map<String, String> data, String key) {
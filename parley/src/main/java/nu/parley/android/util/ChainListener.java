@@ -1,6 +0,0 @@
-package nu.parley.android.util;
-
-public interface ChainListener {
-
-    void onNext();
-}
@@ -1,22 +1,40 @@
 package nu.parley.android.util;
 
 import android.annotation.SuppressLint;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.Intent;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
 import android.webkit.MimeTypeMap;
 
+import androidx.annotation.Nullable;
+
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import nu.parley.android.data.model.Message;
 
 public final class FileUtil {
 
     public static final String MIME_TYPE_IMAGE = "image/*";
+    public static final String DIRECTORY_UPLOADS = "parley_uploads"; // In the cache directory
+    // In the files directory, not trimmed: a copy is the only version of the image until it is uploaded
+    public static final String DIRECTORY_UPLOAD_COPIES = "parley_upload_copies";
+
+    private static final int BUFFER_SIZE = 8 * 1024; // Bytes
+    // Name of the copies of selected images that were made in the pictures directory before, camera images have an extension
+    private static final Pattern LEGACY_COPY_NAME = Pattern.compile("image_\\d{8}_\\d{6}_");
 
     private static String getUniqueImageFileName() {
         @SuppressLint("SimpleDateFormat")
@@ -35,25 +53,91 @@ public final class FileUtil {
         return image;
     }
 
-    public static File getFileFromContentUri(Context context, Uri uri) {
+    /**
+     * Keeps access to the selected content after the app is restarted, so a pending message only needs to store the uri.
+     *
+     * @param flags Flags of the result intent of the picker.
+     * @return `true` if the access is persisted, `false` if the content can only be read until the app is closed.
+     */
+    public static boolean takePersistableReadPermission(Context context, Uri uri, int flags) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || (flags & Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION) == 0) {
+            return false;
+        }
         try {
-            InputStream inputStream = context.getContentResolver().openInputStream(uri);
-            File file = new File(new File(context.getExternalFilesDir(Environment.DIRECTORY_PICTURES).getPath() + "/" + FileUtil.getUniqueImageFileName()).getAbsolutePath());
-            copyInputStreamToFile(inputStream, file);
+            context.getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            return true;
+        } catch (SecurityException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 
+    /**
+     * Releases the access to the content, the number of persisted permissions per app is limited.
+     */
+    public static void releasePersistableReadPermission(Context context, String contentUri) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        try {
+            context.getContentResolver().releasePersistableUriPermission(Uri.parse(contentUri), Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException e) {
+            // Not persisted
+        }
+    }
+
+    /**
+     * Copies the content into the directory of upload copies, for content that can't be read anymore
+     * after the app is closed. The copy is kept until {@link #deleteUploadCopy(Context, File)}.
+     *
+     * @return The copy, or `null` if it could not be copied.
+     */
+    @Nullable
+    public static File copyToUploadDirectory(Context context, Uri uri) {
+        File directory = new File(context.getFilesDir(), DIRECTORY_UPLOAD_COPIES);
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+        File file = new File(directory, getUniqueImageFileName() + UUID.randomUUID().toString());
+        try (InputStream inputStream = context.getContentResolver().openInputStream(uri)) {
+            if (inputStream == null) {
+                return null;
+            }
+            copyInputStreamToFile(inputStream, file);
             return file;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
+        } catch (IOException | SecurityException e) {
             e.printStackTrace();
+            file.delete();
         }
         return null;
     }
 
+    /**
+     * Removes the copy of an original image, if it was made by {@link #copyToUploadDirectory(Context, Uri)}.
+     */
+    public static void deleteUploadCopy(Context context, File source) {
+        if (new File(context.getFilesDir(), DIRECTORY_UPLOAD_COPIES).equals(source.getParentFile())) {
+            source.delete();
+        }
+    }
+
+    /**
+     * Removes all copies of original images, for example when the pending messages are removed.
+     */
+    public static void deleteUploadCopies(Context context) {
+        File[] files = new File(context.getFilesDir(), DIRECTORY_UPLOAD_COPIES).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
     private static void copyInputStreamToFile(InputStream inputStream, File file) throws IOException {
         try (FileOutputStream outputStream = new FileOutputStream(file)) {
             int read;
-            byte[] bytes = new byte[1024];
+            byte[] bytes = new byte[BUFFER_SIZE];
 
             while ((read = inputStream.read(bytes)) != -1) {
                 outputStream.write(bytes, 0, read);
@@ -61,6 +145,43 @@ public final class FileUtil {
         }
     }
 
+    /**
+     * Removes the copies of selected images that previous versions made in the pictures directory and never removed.
+     *
+     * @param pendingMessages Messages that are not sent yet, their copies are kept.
+     */
+    public static void deleteLegacyCopies(Context context, List<Message> pendingMessages) {
+        File directory = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        File[] files = directory == null ? null : directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> pendingPaths = new HashSet<>();
+        for (Message message : pendingMessages) {
+            if (message.getLegacyImageUrl() != null) {
+                pendingPaths.add(message.getLegacyImageUrl());
+            }
+        }
+        for (File file : files) {
+            if (LEGACY_COPY_NAME.matcher(file.getName()).matches() && !pendingPaths.contains(file.getAbsolutePath())) {
+                file.delete();
+            }
+        }
+    }
+
+    public static boolean isContentUri(@Nullable String path) {
+        return path != null && path.startsWith(ContentResolver.SCHEME_CONTENT + "://");
+    }
+
+    @Nullable
+    public static String getMimeType(ContentResolver contentResolver, Uri uri) {
+        String mimeType = contentResolver.getType(uri);
+        if (mimeType == null) {
+            mimeType = getMimeType(uri.toString());
+        }
+        return mimeType;
+    }
+
     public static String getMimeType(String url) {
         String mimeType = null;
         String extension = MimeTypeMap.getFileExtensionFromUrl(url);
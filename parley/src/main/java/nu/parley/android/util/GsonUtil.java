@@ -0,0 +1,26 @@
+package nu.parley.android.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import nu.parley.android.data.model.ModelTypeAdapterFactory;
+
+/**
+ * Provides the Gson instance that is shared by the network, the cache and the push notifications.
+ *
+ * <p>
+ * The models of messages are read and written with streaming type adapters instead of reflection.
+ * Gson also caches the type adapters it creates per instance, sharing one instance means they are
+ * created only once.
+ * </p>
+ */
+public final class GsonUtil {
+
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+            .create();
+
+    public static Gson getGson() {
+        return gson;
+    }
+}
@@ -0,0 +1,327 @@
+package nu.parley.android.util;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares images before they are uploaded: the image is decoded at a reduced size, scaled down to
+ * the maximum dimension, rotated according to its EXIF orientation and encoded again. The encoded
+ * image has no EXIF data anymore, so no location or camera information is uploaded.
+ *
+ * <p>
+ * The original image is kept as is, the prepared image is written to a separate file per message.
+ * Preparing is blocking, use {@link #getExecutor()} to run it in the background.
+ * </p>
+ *
+ * <p>
+ * Files in the directory are removed when they are older than {@link #MAX_FILE_AGE}, or when the
+ * directory exceeds {@link #MAX_DIRECTORY_SIZE} (oldest first). They can be prepared again from the
+ * original image when needed.
+ * </p>
+ */
+public final class ImageCompressor {
+
+    public static final int DEFAULT_MAX_DIMENSION = 1920; // Pixels
+    public static final int DEFAULT_QUALITY = 80;
+    public static final long MAX_DIRECTORY_SIZE = 50 * 1024 * 1024; // Bytes
+    public static final long MAX_FILE_AGE = TimeUnit.DAYS.toMillis(7);
+
+    private static final String TAG = "ImageCompressor";
+
+    private final Executor executor = Executors.newSingleThreadExecutor();
+
+    @Nullable
+    private volatile File directory;
+    private volatile int maxDimension = DEFAULT_MAX_DIMENSION;
+    private volatile int quality = DEFAULT_QUALITY;
+    private volatile Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+
+    /**
+     * @param maxDimension Maximum width and height of the uploaded image in pixels, `0` to upload the original image.
+     * @param quality      Quality (0-100) of the encoded image.
+     * @param format       Format of the encoded image, JPEG or WEBP.
+     */
+    public void configure(int maxDimension, int quality, Bitmap.CompressFormat format) {
+        this.maxDimension = maxDimension;
+        this.quality = Math.max(0, Math.min(100, quality));
+        this.format = format;
+    }
+
+    /**
+     * @param directory Directory for the prepared images, `null` to upload the original images.
+     */
+    public void setDirectory(@Nullable File directory) {
+        this.directory = directory;
+        if (directory != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    trim(null);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return Executor to prepare images on, images are prepared one at a time to limit memory usage.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Prepares the image for uploading, or returns the already prepared image of this name.
+     *
+     * <p>
+     * <b>Note:</b> Blocking, should not be called on the main thread.
+     * </p>
+     *
+     * @param source Original image.
+     * @param name   Unique name of the prepared image, for example the uuid of the message.
+     * @return The prepared image, or the original image when it could not be prepared or when preparing is disabled.
+     */
+    public File prepare(final File source, String name) {
+        File prepared = prepare(new ImageSource() {
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(source);
+            }
+
+            @Override
+            public long length() {
+                return source.length();
+            }
+        }, name);
+        return prepared == null ? source : prepared;
+    }
+
+    /**
+     * Prepares the image of the content uri for uploading, or returns the already prepared image of this name.
+     *
+     * <p>
+     * <b>Note:</b> Blocking, should not be called on the main thread.
+     * </p>
+     *
+     * @param contentResolver Resolver to read the original image with.
+     * @param source          Content uri of the original image.
+     * @param name            Unique name of the prepared image, for example the uuid of the message.
+     * @return The prepared image, or `null` when it could not be prepared or when preparing is disabled, to upload the original image.
+     */
+    @Nullable
+    public File prepare(final ContentResolver contentResolver, final Uri source, String name) {
+        return prepare(new ImageSource() {
+            @Override
+            public InputStream open() throws IOException {
+                try {
+                    InputStream input = contentResolver.openInputStream(source);
+                    if (input == null) {
+                        throw new FileNotFoundException("Unable to open " + source);
+                    }
+                    return input;
+                } catch (SecurityException e) {
+                    throw new IOException("No access to " + source, e);
+                }
+            }
+
+            @Override
+            public long length() {
+                return -1; // Unknown, only used for logging
+            }
+        }, name);
+    }
+
+    @Nullable
+    private File prepare(ImageSource source, String name) {
+        File targetDirectory = directory;
+        if (targetDirectory == null || maxDimension <= 0) {
+            return null;
+        }
+        File target = new File(targetDirectory, name + (format == Bitmap.CompressFormat.JPEG ? ".jpg" : ".webp"));
+        if (target.exists() && target.length() > 0) {
+            target.setLastModified(System.currentTimeMillis()); // Still needed, keep it when trimming
+            return target; // Prepared before, for example when retrying
+        }
+        try {
+            if (!targetDirectory.exists() && !targetDirectory.mkdirs()) {
+                return null;
+            }
+            long startTime = System.currentTimeMillis();
+            Bitmap bitmap = decode(source, maxDimension);
+            if (bitmap == null) {
+                return null;
+            }
+            try (FileOutputStream output = new FileOutputStream(target)) {
+                if (!bitmap.compress(format, quality, output)) {
+                    target.delete();
+                    return null;
+                }
+            } finally {
+                bitmap.recycle();
+            }
+            Log.d(TAG, "prepare :: " + source.length() + " bytes to " + target.length() + " bytes in " + (System.currentTimeMillis() - startTime) + "ms");
+            trim(target);
+            return target;
+        } catch (IOException | OutOfMemoryError e) {
+            e.printStackTrace();
+            target.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Removes the prepared image of this name, for example after it is uploaded.
+     */
+    public void release(String name) {
+        File targetDirectory = directory;
+        if (targetDirectory == null) {
+            return;
+        }
+        new File(targetDirectory, name + ".jpg").delete();
+        new File(targetDirectory, name + ".webp").delete();
+    }
+
+    /**
+     * Removes all prepared images.
+     */
+    public void clear() {
+        File targetDirectory = directory;
+        if (targetDirectory == null || !targetDirectory.exists()) {
+            return;
+        }
+        File[] files = targetDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Removes the files that are too old, and the oldest files while the directory is too large.
+     *
+     * @param keep File that is about to be uploaded, it is never removed.
+     */
+    private void trim(@Nullable File keep) {
+        File targetDirectory = directory;
+        File[] files = targetDirectory == null ? null : targetDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long lastModified1 = o1.lastModified();
+                long lastModified2 = o2.lastModified();
+                return lastModified1 < lastModified2 ? 1 : (lastModified1 == lastModified2 ? 0 : -1); // Newest first
+            }
+        });
+        long now = System.currentTimeMillis();
+        long size = 0;
+        for (File file : files) {
+            if (file.equals(keep)) {
+                size += file.length();
+                continue;
+            }
+            if (now - file.lastModified() > MAX_FILE_AGE || size + file.length() > MAX_DIRECTORY_SIZE) {
+                file.delete();
+            } else {
+                size += file.length();
+            }
+        }
+    }
+
+    private interface ImageSource {
+
+        InputStream open() throws IOException;
+
+        long length();
+    }
+
+    @Nullable
+    private static Bitmap decode(ImageSource source, int maxDimension) throws IOException {
+        // Decode only the bounds first, to choose the sample size
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream input = source.open()) {
+            BitmapFactory.decodeStream(input, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null; // Not an image
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, maxDimension);
+        Bitmap sampled;
+        try (InputStream input = source.open()) {
+            sampled = BitmapFactory.decodeStream(input, null, options);
+        }
+        if (sampled == null) {
+            return null;
+        }
+
+        Matrix matrix = new Matrix();
+        float scale = Math.min(1f, maxDimension / (float) Math.max(sampled.getWidth(), sampled.getHeight()));
+        matrix.postScale(scale, scale);
+        int rotation = getRotation(source);
+        if (rotation != 0) {
+            matrix.postRotate(rotation);
+        }
+        if (matrix.isIdentity()) {
+            return sampled;
+        }
+        Bitmap result = Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(), sampled.getHeight(), matrix, true);
+        if (result != sampled) {
+            sampled.recycle();
+        }
+        return result;
+    }
+
+    /**
+     * @return The largest power of 2 that keeps both dimensions at least the max dimension, so the image is only scaled down afterwards.
+     */
+    static int getSampleSize(int width, int height, int maxDimension) {
+        int sampleSize = 1;
+        int largest = Math.max(width, height);
+        while (largest / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int getRotation(ImageSource source) throws IOException {
+        int orientation;
+        try (InputStream input = source.open()) {
+            orientation = new ExifInterface(input).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import android.graphics.Paint;
 import android.text.Layout;
 import android.text.Spanned;
 import android.text.style.LeadingMarginSpan;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -25,6 +26,10 @@ import org.commonmark.node.Paragraph;
 import org.commonmark.node.SoftLineBreak;
 import org.commonmark.node.ThematicBreak;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
 import io.noties.markwon.AbstractMarkwonPlugin;
 import io.noties.markwon.Markwon;
 import io.noties.markwon.MarkwonConfiguration;
@@ -37,8 +42,50 @@ import io.noties.markwon.linkify.LinkifyPlugin;
 
 public final class MarkdownUtil {
 
+    private static final int CACHE_SIZE = 200; // Rendered texts
+
+    // Markwon only uses the context for the display density, so a renderer is shared per density
+    private static final Map<Float, Markwon> renderers = new HashMap<>();
+    private static final LruCache<String, RenderedText> cache = new LruCache<>(CACHE_SIZE);
+
     public static Spanned convert(Context context, String text) {
-        Markwon markwon = Markwon.builder(context)
+        return getRenderer(context).toMarkdown(text);
+    }
+
+    /**
+     * Converts the text of a message, the result is cached so showing the same text again does not parse it again.
+     *
+     * @param context The context.
+     * @param uuid    Uuid of the message that has this text, or `null` to not use the cache.
+     * @param text    The text to convert.
+     * @return The converted text.
+     */
+    public static Spanned convert(Context context, @Nullable UUID uuid, String text) {
+        if (uuid == null) {
+            return convert(context, text);
+        }
+        Markwon renderer = getRenderer(context);
+        String key = uuid.toString() + ":" + text.hashCode();
+        RenderedText renderedText = cache.get(key);
+        if (renderedText == null || renderedText.renderer != renderer || !renderedText.text.equals(text)) {
+            renderedText = new RenderedText(renderer, text, renderer.toMarkdown(text));
+            cache.put(key, renderedText);
+        }
+        return renderedText.spanned;
+    }
+
+    private static synchronized Markwon getRenderer(Context context) {
+        float density = context.getResources().getDisplayMetrics().density;
+        Markwon renderer = renderers.get(density);
+        if (renderer == null) {
+            renderer = createRenderer(context.getApplicationContext());
+            renderers.put(density, renderer);
+        }
+        return renderer;
+    }
+
+    private static Markwon createRenderer(Context context) {
+        return Markwon.builder(context)
                 .usePlugin(new AbstractMarkwonPlugin() {
                     @Override
                     public void configureSpansFactory(@NonNull MarkwonSpansFactory.Builder builder) {
@@ -70,7 +117,19 @@ public final class MarkdownUtil {
                 })
                 .usePlugin(LinkifyPlugin.create())
                 .build();
-        return markwon.toMarkdown(text);
+    }
+
+    private static final class RenderedText {
+
+        private final Markwon renderer;
+        private final String text;
+        private final Spanned spanned;
+
+        private RenderedText(Markwon renderer, String text, Spanned spanned) {
+            this.renderer = renderer;
+            this.text = text;
+            this.spanned = spanned;
+        }
     }
 
     private static class EmptySpanFactory implements SpanFactory {
@@ -0,0 +1,95 @@
+package nu.parley.android.util;
+
+import android.content.Context;
+import android.text.Spanned;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the converted text of messages on a background thread, so showing a long message only
+ * needs to break the measured text into lines. The measured text is only used for text views with
+ * the same text parameters (font, size, direction) as it was measured with.
+ */
+public final class PrecomputedTextUtil {
+
+    private static final int CACHE_SIZE = 200; // Measured texts
+
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+    private static final LruCache<String, MeasuredText> cache = new LruCache<>(CACHE_SIZE);
+
+    /**
+     * Measures the text of a message in the background, when it isn't measured yet.
+     *
+     * @param context Context to convert the Markdown with.
+     * @param uuid    Uuid of the message that has this text.
+     * @param text    The text to convert and measure.
+     * @param params  Text parameters of the text view that will show it, see {@link TextViewCompat#getTextMetricsParams}.
+     */
+    public static void precompute(final Context context, final UUID uuid, final String text, final PrecomputedTextCompat.Params params) {
+        final String key = getKey(uuid, text, params);
+        if (get(key, text) != null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (get(key, text) != null) {
+                    return; // Measured while this was waiting
+                }
+                Spanned spanned = MarkdownUtil.convert(context, uuid, text);
+                cache.put(key, new MeasuredText(text, PrecomputedTextCompat.create(spanned, params)));
+            }
+        });
+    }
+
+    /**
+     * Shows the text, using the measured text when it is available.
+     *
+     * @param uuid    Uuid of the message that has this text, or `null` if it isn't measured ahead of time.
+     * @param text    The text before it was converted.
+     * @param spanned The converted text, shown when the text isn't measured yet.
+     */
+    public static void setText(TextView textView, @Nullable UUID uuid, String text, Spanned spanned) {
+        if (uuid != null) {
+            PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(textView);
+            PrecomputedTextCompat precomputed = get(getKey(uuid, text, params), text);
+            if (precomputed != null && precomputed.getParams().equals(params)) {
+                TextViewCompat.setPrecomputedText(textView, precomputed);
+                return;
+            }
+        }
+        textView.setText(spanned);
+    }
+
+    @Nullable
+    private static PrecomputedTextCompat get(String key, String text) {
+        MeasuredText measuredText = cache.get(key);
+        if (measuredText == null || !measuredText.text.equals(text)) {
+            return null;
+        }
+        return measuredText.precomputed;
+    }
+
+    private static String getKey(UUID uuid, String text, PrecomputedTextCompat.Params params) {
+        return uuid.toString() + ":" + text.hashCode() + ":" + params.hashCode();
+    }
+
+    private static final class MeasuredText {
+
+        private final String text;
+        private final PrecomputedTextCompat precomputed;
+
+        private MeasuredText(String text, PrecomputedTextCompat precomputed) {
+            this.text = text;
+            this.precomputed = precomputed;
+        }
+    }
+}
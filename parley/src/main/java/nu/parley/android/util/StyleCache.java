@@ -0,0 +1,58 @@
+package nu.parley.android.util;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.TypedArray;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+
+/**
+ * Resolves the attributes of a style once, and keeps the result for every view that uses the same
+ * style. The results are resolved again when the configuration changes, for example the density
+ * or the locale.
+ *
+ * <p>
+ * <b>Note:</b> The resolved styles are shared, they should not contain drawables or other state
+ * of a view. Keep the resource id of a drawable instead, see {@link StyleUtil#getResourceId}.
+ * </p>
+ *
+ * @param <T> Immutable result of resolving a style.
+ */
+public abstract class StyleCache<T> {
+
+    private final int[] attributes;
+    private final SparseArray<T> styles = new SparseArray<>();
+    @Nullable
+    private Configuration configuration;
+
+    protected StyleCache(int[] attributes) {
+        this.attributes = attributes;
+    }
+
+    /**
+     * @return The resolved style, resolves it when it isn't known yet. Can be called from any thread.
+     */
+    public synchronized T get(Context context, @StyleRes int style) {
+        Configuration currentConfiguration = context.getResources().getConfiguration();
+        if (configuration == null || configuration.diff(currentConfiguration) != 0) {
+            styles.clear();
+            configuration = new Configuration(currentConfiguration);
+        }
+
+        T resolved = styles.get(style);
+        if (resolved == null) {
+            TypedArray ta = context.obtainStyledAttributes(style, attributes);
+            try {
+                resolved = resolve(context, ta);
+            } finally {
+                ta.recycle();
+            }
+            styles.put(style, resolved);
+        }
+        return resolved;
+    }
+
+    protected abstract T resolve(Context context, TypedArray ta);
+}
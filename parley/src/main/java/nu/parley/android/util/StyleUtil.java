@@ -25,13 +25,27 @@ import nu.parley.android.view.BalloonView;
 public final class StyleUtil {
 
     public static Drawable getDrawable(Context context, TypedArray attributesArray, int key) {
-        int drawableResourceId = attributesArray.getResourceId(key, -1);
+        return getDrawable(context, getResourceId(attributesArray, key));
+    }
+
+    /**
+     * @param drawableResourceId Resource id as returned by {@link #getResourceId}.
+     * @return A new drawable for this resource, or `null` if it isn't set.
+     */
+    public static Drawable getDrawable(Context context, int drawableResourceId) {
         if (drawableResourceId == -1) {
             return null;
         }
         return AppCompatResources.getDrawable(context, drawableResourceId);
     }
 
+    /**
+     * @return The resource id of the attribute, or `-1` if it isn't set.
+     */
+    public static int getResourceId(TypedArray attributesArray, int key) {
+        return attributesArray.getResourceId(key, -1);
+    }
+
     public static ColorStateList getColorStateList(TypedArray attributesArray, int key) {
         return attributesArray.getColorStateList(key);
     }
@@ -163,7 +177,10 @@ public final class StyleUtil {
          * @param key
          */
         public static void applyBackgroundColor(View view, TypedArray ta, int key) {
-            @ColorInt @Nullable Integer backgroundColor = StyleUtil.getColor(ta, key);
+            applyBackgroundColor(view, StyleUtil.getColor(ta, key));
+        }
+
+        public static void applyBackgroundColor(View view, @ColorInt @Nullable Integer backgroundColor) {
             if (backgroundColor != null) {
                 view.getBackground().setColorFilter(backgroundColor, PorterDuff.Mode.SRC_IN);
             }
@@ -177,6 +194,10 @@ public final class StyleUtil {
             loader.getIndeterminateDrawable().setColorFilter(color, PorterDuff.Mode.SRC_IN);
         }
 
+        public static void applyProgressTint(ProgressBar progressBar, @ColorInt int color) {
+            progressBar.getProgressDrawable().setColorFilter(color, PorterDuff.Mode.SRC_IN);
+        }
+
         public static void applyCornerRadius(GradientDrawable mutatingDrawable, int topLeft, int topRight, int bottomRight, int bottomLeft) {
             mutatingDrawable.setCornerRadii(new float[] {topLeft, topLeft, topRight, topRight, bottomRight, bottomRight, bottomLeft, bottomLeft});
         }
@@ -19,9 +19,14 @@ import android.widget.TextView;
 import androidx.annotation.ColorInt;
 import androidx.annotation.Nullable;
 import androidx.appcompat.widget.AppCompatImageView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
 import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.MultiTransformation;
 import com.bumptech.glide.load.Transformation;
@@ -35,9 +40,11 @@ import com.bumptech.glide.request.target.Target;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 import nu.parley.android.R;
 import nu.parley.android.util.MarkdownUtil;
+import nu.parley.android.util.PrecomputedTextUtil;
 import nu.parley.android.util.StyleUtil;
 import nu.parley.android.view.chat.action.MessageAdditionAdapter;
 
@@ -63,6 +70,7 @@ public final class BalloonView extends FrameLayout {
     private ImageView contentImageView;
     private AppCompatImageView contentImagePlaceholderView;
     private ProgressBar imageLoader;
+    private ProgressBar uploadProgressBar;
 
     private ViewGroup metaLayout;
     private TextView timeTextView;
@@ -110,6 +118,7 @@ public final class BalloonView extends FrameLayout {
         contentImageView = findViewById(R.id.image_view);
         contentImagePlaceholderView = findViewById(R.id.image_placeholder_view);
         imageLoader = findViewById(R.id.image_loader);
+        uploadProgressBar = findViewById(R.id.upload_progress_bar);
 
         metaLayout = findViewById(R.id.meta_layout);
         timeTextView = findViewById(R.id.time_text_view);
@@ -132,23 +141,55 @@ public final class BalloonView extends FrameLayout {
     }
 
     public void setTitle(@Nullable String text) {
+        setTitle(null, text);
+    }
+
+    /**
+     * @param uuid Uuid of the message, used to cache the converted text. Can be `null` to not cache it.
+     */
+    public void setTitle(@Nullable UUID uuid, @Nullable String text) {
         titleTextView.setVisibility(text == null ? View.GONE : View.VISIBLE);
         if (text != null) {
-            titleTextView.setText(MarkdownUtil.convert(getContext(), text));
+            PrecomputedTextUtil.setText(titleTextView, uuid, text, MarkdownUtil.convert(getContext(), uuid, text));
         }
     }
 
     public void setText(@Nullable String text) {
+        setText(null, text);
+    }
+
+    /**
+     * @param uuid Uuid of the message, used to cache the converted text. Can be `null` to not cache it.
+     */
+    public void setText(@Nullable UUID uuid, @Nullable String text) {
         messageTextView.setVisibility(text == null ? View.GONE : View.VISIBLE);
         if (text != null) {
-            messageTextView.setText(MarkdownUtil.convert(getContext(), text));
+            PrecomputedTextUtil.setText(messageTextView, uuid, text, MarkdownUtil.convert(getContext(), uuid, text));
         }
     }
 
+    /**
+     * @return Text parameters of the title, to measure titles ahead of time with {@link PrecomputedTextUtil}.
+     */
+    public PrecomputedTextCompat.Params getTitleParams() {
+        return TextViewCompat.getTextMetricsParams(titleTextView);
+    }
+
+    /**
+     * @return Text parameters of the text, to measure texts ahead of time with {@link PrecomputedTextUtil}.
+     */
+    public PrecomputedTextCompat.Params getTextParams() {
+        return TextViewCompat.getTextMetricsParams(messageTextView);
+    }
+
     public void setHasTextContent(boolean hasTextContent) {
         messageLayout.setVisibility(hasTextContent ? View.VISIBLE : View.GONE);
     }
 
+    public ImageView getImageView() {
+        return contentImageView;
+    }
+
     public void setImage(@Nullable Object imageUrl, boolean applyBottomCornerRadius) {
         Glide.with(this).clear(contentImageView);
 
@@ -157,7 +198,7 @@ public final class BalloonView extends FrameLayout {
             return;
         }
 
-        if (!(imageUrl instanceof GlideUrl) && !(imageUrl instanceof String)) {
+        if (!isValidImage(imageUrl)) {
             Log.d(getClass().toString(), "setImage :: Detected invalid image url");
             imageUrl = null;
         }
@@ -169,9 +210,7 @@ public final class BalloonView extends FrameLayout {
         renderImageShadows(isNameEmpty, applyBottomCornerRadius);
 
         contentImageView.setVisibility(View.VISIBLE);
-        Glide.with(this)
-                .load(imageUrl)
-                .transform(getImageTransformations(applyBottomCornerRadius))
+        createImageRequest(Glide.with(this), imageUrl, imageCornerRadius, applyBottomCornerRadius)
                 .listener(new RequestListener<Drawable>() {
                     @Override
                     public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Drawable> target, boolean isFirstResource) {
@@ -190,7 +229,23 @@ public final class BalloonView extends FrameLayout {
                 .into(contentImageView);
     }
 
-    private Transformation<Bitmap> getImageTransformations(boolean applyBottomCornerRadius) {
+    /**
+     * Creates the request for the image of a balloon. Preloading uses the same request, so the preloaded image is used when the balloon is shown.
+     */
+    public static RequestBuilder<Drawable> createImageRequest(RequestManager requestManager, Object imageUrl, int imageCornerRadius, boolean applyBottomCornerRadius) {
+        return requestManager
+                .load(imageUrl)
+                .transform(getImageTransformations(imageCornerRadius, applyBottomCornerRadius));
+    }
+
+    /**
+     * @return `true` if the image can be shown, images are a GlideUrl or a String.
+     */
+    public static boolean isValidImage(@Nullable Object imageUrl) {
+        return imageUrl instanceof GlideUrl || imageUrl instanceof String;
+    }
+
+    private static Transformation<Bitmap> getImageTransformations(int imageCornerRadius, boolean applyBottomCornerRadius) {
         List<Transformation<Bitmap>> transformations = new ArrayList<>();
         transformations.add(new CenterCrop()); // Always CenterCrop
         if (imageCornerRadius != 0) {
@@ -220,6 +275,18 @@ public final class BalloonView extends FrameLayout {
         nameShadowView.setVisibility(hideName ? View.GONE : View.VISIBLE);
     }
 
+    /**
+     * @param percentage Progress of uploading the image (0-100), or `null` to hide it.
+     */
+    public void setUploadProgress(@Nullable Integer percentage) {
+        if (percentage == null) {
+            uploadProgressBar.setVisibility(View.GONE);
+            return;
+        }
+        uploadProgressBar.setProgress(percentage);
+        uploadProgressBar.setVisibility(View.VISIBLE);
+    }
+
     private void clearImage() {
         contentImageView.setVisibility(View.GONE);
         imageLoader.setVisibility(View.GONE);
@@ -266,8 +333,21 @@ public final class BalloonView extends FrameLayout {
         statusImageView.setVisibility(visibility);
     }
 
+    /**
+     * Shares the view holders of the actions with other balloons of the same style.
+     */
+    public void setAdditionViewPool(RecyclerView.RecycledViewPool viewPool) {
+        actionsRecyclerView.setRecycledViewPool(viewPool);
+        if (actionsRecyclerView.getLayoutManager() instanceof LinearLayoutManager) {
+            // Return the actions to the pool when this balloon is recycled
+            ((LinearLayoutManager) actionsRecyclerView.getLayoutManager()).setRecycleChildrenOnDetach(true);
+        }
+    }
+
     public void setAddition(@Nullable MessageAdditionAdapter adapter) {
-        actionsRecyclerView.setAdapter(adapter);
+        if (actionsRecyclerView.getAdapter() != adapter) {
+            actionsRecyclerView.setAdapter(adapter); // Setting an adapter recycles all views, also when it is the same one
+        }
 
         boolean hasAdditions = adapter != null && adapter.getItemCount() > 0;
         messageMetaSpace.setVisibility(hasAdditions ? View.GONE : View.VISIBLE);
@@ -366,6 +446,7 @@ public final class BalloonView extends FrameLayout {
             return;
         }
         StyleUtil.Helper.applyLoaderTint(imageLoader, color);
+        StyleUtil.Helper.applyProgressTint(uploadProgressBar, color);
     }
 
     public void setNameTextSize(int complexUnit, int dimension) {
@@ -23,6 +23,7 @@ import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.bumptech.glide.Glide;
 import com.google.android.material.snackbar.Snackbar;
 
 import java.util.List;
@@ -38,6 +39,8 @@ import nu.parley.android.data.model.ParleyPosition;
 import nu.parley.android.util.ConnectivityMonitor;
 import nu.parley.android.util.StyleUtil;
 import nu.parley.android.view.chat.MessageAdapter;
+import nu.parley.android.view.chat.MessageImagePreloader;
+import nu.parley.android.view.chat.MessageViewPreinflater;
 import nu.parley.android.view.chat.ParleyMessageListener;
 import nu.parley.android.view.compose.ParleyComposeListener;
 import nu.parley.android.view.compose.ParleyComposeView;
@@ -51,6 +54,7 @@ public final class ParleyView extends FrameLayout implements ParleyListener, Con
     public static final int REQUEST_PERMISSION_ACCESS_CAMERA = 1663;
     public static final long TIME_TYPING_START_TRIGGER = 20 * 1000; // 20 seconds
     public static final long TIME_TYPING_STOP_TRIGGER = 15 * 1000; // 15 seconds
+    private static final int DEFAULT_PREINFLATED_MESSAGE_COUNT = 6; // About a screen of messages
     // Appearance
     private ParleyPosition.Vertical notificationsPosition = ParleyPosition.Vertical.TOP;
     // Views
@@ -69,6 +73,9 @@ public final class ParleyView extends FrameLayout implements ParleyListener, Con
     private ParleyComposeListener composeListener = new ParleyComposeListener();
     private ParleyMessageListener parleyMessageListener = new ParleyMessageListener();
     private MessageAdapter adapter = new MessageAdapter(parleyMessageListener);
+    private MessageImagePreloader imagePreloader;
+    private MessageViewPreinflater viewPreinflater;
+    private int preinflatedMessageCount = DEFAULT_PREINFLATED_MESSAGE_COUNT;
     // Is typing
     private Handler isTypingAgentHandler = new Handler();
     private Runnable isTypingAgentRunnable = null;
@@ -126,6 +133,16 @@ public final class ParleyView extends FrameLayout implements ParleyListener, Con
         updateRecyclerViewPadding();
     }
 
+    /**
+     * Sets the amount of message views that are inflated in advance, on a background thread while
+     * Parley is configuring. This prevents the first messages from being inflated on the main thread.
+     *
+     * @param count The amount of views for messages of the user and for messages of the agent, `0` to disable this.
+     */
+    public void setPreinflatedMessageCount(int count) {
+        this.preinflatedMessageCount = count;
+    }
+
     private MessagesManager getMessagesManager() {
         return Parley.getInstance().getMessagesManager();
     }
@@ -149,6 +166,10 @@ public final class ParleyView extends FrameLayout implements ParleyListener, Con
         // Configure
         setLaunchCallback(new DefaultParleyLaunchCallback(getContext()));
         recyclerView.setAdapter(adapter);
+        imagePreloader = new MessageImagePreloader(getContext(), Glide.with(this), adapter);
+        adapter.setImagePreloader(imagePreloader);
+        recyclerView.addOnScrollListener(imagePreloader.createScrollListener());
+        viewPreinflater = new MessageViewPreinflater(getContext(), recyclerView, adapter);
         composeView.setStartTypingTriggerInterval(TIME_TYPING_START_TRIGGER);
         composeView.setStopTypingTriggerTime(TIME_TYPING_STOP_TRIGGER);
 
@@ -170,6 +191,10 @@ public final class ParleyView extends FrameLayout implements ParleyListener, Con
                     int first = ((LinearLayoutManager) recyclerView.getLayoutManager()).findFirstVisibleItemPosition();
                     isAtBottom = !canScrollDown || first <= 1; // When having quick replies, item 0 isn't visible (that message has no content)
                 }
+                if (isAtBottom && newState == RecyclerView.SCROLL_STATE_IDLE && getMessagesManager().trimToWindow()) {
+                    // Back at the newest messages, the older messages are read from the data source again when needed
+                    renderMessages();
+                }
             }
 
             @Override
@@ -275,6 +300,18 @@ public final class ParleyView extends FrameLayout implements ParleyListener, Con
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        adapter.onChatAttached(recyclerView);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        adapter.onChatDetached(recyclerView); // Upload progress of the messages is observed on the Parley instance
+    }
+
     @Override
     public void onNetworkAvailable() {
         updateNetworkState(true);
@@ -319,6 +356,7 @@ public final class ParleyView extends FrameLayout implements ParleyListener, Con
             case CONFIGURING:
                 statusLoader.setVisibility(View.VISIBLE);
                 recyclerView.setVisibility(View.VISIBLE);
+                viewPreinflater.preinflate(preinflatedMessageCount);
                 break;
             case FAILED:
                 statusTextView.setText(R.string.parley_state_failed);
@@ -350,6 +388,8 @@ public final class ParleyView extends FrameLayout implements ParleyListener, Con
         Log.d("ParleyView", "onReceivedMoreMessages()");
 
         getMessagesManager().moreLoad(messages);
+        imagePreloader.warmDiskCache(messages);
+        adapter.precomputeText(messages);
         renderMessages();
     }
 
@@ -427,12 +467,15 @@ public final class ParleyView extends FrameLayout implements ParleyListener, Con
     }
 
     private void renderMessages() {
-        adapter.setMessages(getMessagesManager().getMessages(), getMessagesManager().canLoadMore());
-
-        if (isAtBottom) {
-            // Keep at bottom of the list when messages are added to the bottom
-            recyclerView.scrollToPosition(0);
-        }
+        adapter.setMessages(getMessagesManager().getMessages(), getMessagesManager().canLoadMore(), new Runnable() {
+            @Override
+            public void run() {
+                if (isAtBottom) {
+                    // Keep at bottom of the list when messages are added to the bottom
+                    recyclerView.scrollToPosition(0);
+                }
+            }
+        });
 
         renderSuggestions();
     }
@@ -4,7 +4,9 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import androidx.recyclerview.widget.DiffUtil;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AsyncListDiffer;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
@@ -18,50 +20,180 @@ import nu.parley.android.view.chat.holder.ParleyBaseViewHolder;
 public final class MessageAdapter extends RecyclerView.Adapter<ParleyBaseViewHolder> {
 
     private MessageListener listener;
-    private List<Message> messages = new ArrayList<>();
+    @Nullable
+    private MessageImagePreloader imagePreloader;
+    // Calculates the differences on a background thread, newer lists replace lists that are still being compared
+    private final AsyncListDiffer<Message> differ = new AsyncListDiffer<>(this, new MessageDiffCallback());
+    private final MessageViewPools viewPools = new MessageViewPools();
+    private final MessageTextPrecomputer textPrecomputer = new MessageTextPrecomputer();
+    @Nullable
+    private View preinflatedView;
 
     public MessageAdapter(MessageListener listener) {
         this.listener = listener;
     }
 
+    public void setImagePreloader(@Nullable MessageImagePreloader imagePreloader) {
+        this.imagePreloader = imagePreloader;
+    }
+
     @Override
     public ParleyBaseViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        int viewResource = MessageViewHolderFactory.getViewResource(viewType);
-        View itemView = LayoutInflater.from(parent.getContext()).inflate(viewResource, parent, false);
-        return MessageViewHolderFactory.getViewHolder(viewType, itemView, listener);
+        View itemView = preinflatedView;
+        if (itemView == null) {
+            int viewResource = MessageViewHolderFactory.getViewResource(viewType);
+            itemView = LayoutInflater.from(parent.getContext()).inflate(viewResource, parent, false);
+        }
+        ParleyBaseViewHolder holder = MessageViewHolderFactory.getViewHolder(viewType, itemView, listener);
+        if (holder instanceof MessageViewHolder) {
+            ((MessageViewHolder) holder).setViewPools(viewPools);
+            ((MessageViewHolder) holder).setTextPrecomputer(textPrecomputer);
+        }
+        return holder;
+    }
+
+    /**
+     * Creates a view holder for a view that was inflated in advance, see {@link MessageViewPreinflater}.
+     */
+    ParleyBaseViewHolder createViewHolder(ViewGroup parent, int viewType, View itemView) {
+        preinflatedView = itemView;
+        try {
+            return createViewHolder(parent, viewType); // Sets the view type of the holder
+        } finally {
+            preinflatedView = null;
+        }
     }
 
     @Override
     public int getItemViewType(int position) {
-        return MessageViewHolderFactory.getViewType(messages.get(position));
+        return MessageViewHolderFactory.getViewType(differ.getCurrentList().get(position));
     }
 
     @Override
     public void onBindViewHolder(final ParleyBaseViewHolder holder, int position) {
-        final Message message = messages.get(position);
+        final Message message = differ.getCurrentList().get(position);
         holder.show(message);
 
+        if (imagePreloader != null && holder instanceof MessageViewHolder && message.getImage() != null) {
+            imagePreloader.onImageShown(message, ((MessageViewHolder) holder).getImageView());
+        }
+
         if (message.getTypeId() == MessageViewHolderFactory.MESSAGE_TYPE_LOADER) {
             Parley.getInstance().loadMoreMessages();
         }
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull ParleyBaseViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        // Payloads of changes that were not bound yet are combined
+        int changes = 0;
+        for (Object payload : payloads) {
+            if (!(payload instanceof Integer)) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+            changes |= (Integer) payload;
+        }
+        holder.update(differ.getCurrentList().get(position), changes);
+    }
+
+    @Override
+    public void onViewAttachedToWindow(@NonNull ParleyBaseViewHolder holder) {
+        holder.onAttached();
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(@NonNull ParleyBaseViewHolder holder) {
+        holder.onDetached();
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ParleyBaseViewHolder holder) {
+        holder.onRecycled();
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        onChatDetached(recyclerView);
+    }
+
+    /**
+     * Lets the shown messages observe their changes again, see {@link #onChatDetached(RecyclerView)}.
+     */
+    public void onChatAttached(RecyclerView recyclerView) {
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            ((ParleyBaseViewHolder) recyclerView.getChildViewHolder(recyclerView.getChildAt(i))).onAttached();
+        }
+    }
+
+    /**
+     * Stops observing the changes of the shown messages, the RecyclerView doesn't notify the adapter
+     * when it is detached from the window itself.
+     */
+    public void onChatDetached(RecyclerView recyclerView) {
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            ((ParleyBaseViewHolder) recyclerView.getChildViewHolder(recyclerView.getChildAt(i))).onDetached();
+        }
+    }
+
     @Override
     public int getItemCount() {
-        return messages.size();
+        return differ.getCurrentList().size();
     }
 
-    public void setMessages(List<Message> messages, Boolean canLoadMore) {
-        MessageDiffCallback callback = new MessageDiffCallback(new ArrayList<>(this.messages));
+    /**
+     * @return The message at this position, or `null` if the position is out of range.
+     */
+    @Nullable
+    Message getMessage(int position) {
+        List<Message> currentMessages = differ.getCurrentList();
+        if (position < 0 || position >= currentMessages.size()) {
+            return null;
+        }
+        return currentMessages.get(position);
+    }
 
-        this.messages.clear();
-        this.messages.addAll(messages);
+    /**
+     * Shows the messages. The differences with the current messages are calculated on a background thread.
+     *
+     * @param messages       The messages to show, a copy is made so the list can be changed afterwards.
+     * @param canLoadMore    `true` to show a loader after the messages.
+     * @param commitCallback Called on the main thread when these messages are shown, not called when newer messages were set in the meantime.
+     */
+    public void setMessages(List<Message> messages, Boolean canLoadMore, @Nullable Runnable commitCallback) {
+        List<Message> snapshot = new ArrayList<>(messages.size() + 1);
+        snapshot.addAll(messages);
 
         if (canLoadMore) {
-            this.messages.add(Message.ofLoaderType());
+            snapshot.add(getLoaderMessage());
         }
 
-        callback.setNewList(this.messages);
-        DiffUtil.calculateDiff(callback).dispatchUpdatesTo(this);
+        textPrecomputer.precompute(messages);
+        differ.submitList(snapshot, commitCallback);
+    }
+
+    /**
+     * Measures the texts of the messages on a background thread, for example of an older page of messages.
+     */
+    public void precomputeText(List<Message> messages) {
+        textPrecomputer.precompute(messages);
+    }
+
+    /**
+     * @return The loader that is currently shown, or a new one. Reusing it prevents the loader from being removed and added again.
+     */
+    private Message getLoaderMessage() {
+        List<Message> currentMessages = differ.getCurrentList();
+        if (!currentMessages.isEmpty()) {
+            Message lastMessage = currentMessages.get(currentMessages.size() - 1);
+            if (lastMessage.getTypeId() == MessageViewHolderFactory.MESSAGE_TYPE_LOADER) {
+                return lastMessage;
+            }
+        }
+        return Message.ofLoaderType();
     }
 }
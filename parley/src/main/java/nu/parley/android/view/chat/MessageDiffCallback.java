@@ -1,41 +1,62 @@
 package nu.parley.android.view.chat;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.DiffUtil;
 
-import java.util.List;
-
 import nu.parley.android.data.model.Message;
+import nu.parley.android.util.CompareUtil;
 
-public final class MessageDiffCallback extends DiffUtil.Callback {
-
-    private List<Message> oldList;
-    private List<Message> newList;
-
-    MessageDiffCallback(List<Message> oldList) {
-        this.oldList = oldList;
-    }
-
-    void setNewList(List<Message> newList) {
-        this.newList = newList;
-    }
+public final class MessageDiffCallback extends DiffUtil.ItemCallback<Message> {
 
-    @Override
-    public int getOldListSize() {
-        return oldList.size();
-    }
+    /**
+     * Changes of a message that a view holder can apply without showing the whole message again.
+     * The payload of a change is an {@link Integer} with one or more of these flags.
+     */
+    public static final int CHANGE_STATUS = 1;
+    public static final int CHANGE_TIME = 1 << 1;
+    public static final int CHANGE_IMAGE = 1 << 2;
+    public static final int CHANGE_TEXT = 1 << 3;
 
     @Override
-    public int getNewListSize() {
-        return newList.size();
+    public boolean areItemsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+        return oldItem.getUuid().equals(newItem.getUuid());
     }
 
     @Override
-    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-        return oldList.get(oldItemPosition).getUuid() == newList.get(newItemPosition).getUuid();
+    public boolean areContentsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+        return oldItem.isEqualVisually(newItem);
     }
 
+    /**
+     * @return The changed fields as flags, or `null` when the layout of the message changes and it should be shown again completely.
+     */
+    @Nullable
     @Override
-    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-        return oldList.get(oldItemPosition).isEqualVisually(newList.get(newItemPosition));
+    public Object getChangePayload(@NonNull Message oldItem, @NonNull Message newItem) {
+        if (oldItem.getTypeId() != newItem.getTypeId() ||
+                !CompareUtil.equals(oldItem.getAgent(), newItem.getAgent()) ||
+                !CompareUtil.equals(oldItem.getActions(), newItem.getActions()) ||
+                !CompareUtil.equals(oldItem.getCarousel(), newItem.getCarousel()) ||
+                !CompareUtil.equals(oldItem.getQuickReplies(), newItem.getQuickReplies()) ||
+                oldItem.hasImageContent() != newItem.hasImageContent() ||
+                oldItem.hasTextContent() != newItem.hasTextContent()) {
+            return null; // Other content, or the balloon is laid out differently
+        }
+
+        int changes = 0;
+        if (oldItem.getSendStatus() != newItem.getSendStatus()) {
+            changes |= CHANGE_STATUS;
+        }
+        if (!CompareUtil.equals(oldItem.getDate(), newItem.getDate())) {
+            changes |= CHANGE_TIME;
+        }
+        if (!CompareUtil.equals(oldItem.getLegacyImageUrl(), newItem.getLegacyImageUrl()) || !CompareUtil.equals(oldItem.getMedia(), newItem.getMedia())) {
+            changes |= CHANGE_IMAGE;
+        }
+        if (!CompareUtil.equals(oldItem.getTitle(), newItem.getTitle()) || !CompareUtil.equals(oldItem.getMessage(), newItem.getMessage())) {
+            changes |= CHANGE_TEXT;
+        }
+        return changes == 0 ? null : changes;
     }
 }
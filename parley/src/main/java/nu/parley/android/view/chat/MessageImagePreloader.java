@@ -0,0 +1,104 @@
+package nu.parley.android.view.chat;
+
+import android.content.Context;
+import android.util.SparseArray;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.ViewPreloadSizeProvider;
+
+import java.util.Collections;
+import java.util.List;
+
+import nu.parley.android.R;
+import nu.parley.android.data.model.Message;
+import nu.parley.android.view.BalloonView;
+import nu.parley.android.view.chat.holder.MessageStyle;
+
+/**
+ * Loads the images of the messages that are about to be shown while scrolling, in the scroll
+ * direction. The request is the same as the one of {@link BalloonView}, with the size of the image
+ * views that were shown before, so the images are taken from the memory cache when the message is
+ * shown.
+ */
+public final class MessageImagePreloader implements ListPreloader.PreloadModelProvider<Message>, ListPreloader.PreloadSizeProvider<Message> {
+
+    private static final int MAX_PRELOAD = 6; // Messages ahead
+
+    private final RequestManager requestManager;
+    private final MessageAdapter adapter;
+    private final int ownImageCornerRadius;
+    private final int agentImageCornerRadius;
+    // The size of an image depends on the balloon: the style and whether it also shows text
+    private final SparseArray<ViewPreloadSizeProvider<Message>> sizeProviders = new SparseArray<>();
+
+    public MessageImagePreloader(Context context, RequestManager requestManager, MessageAdapter adapter) {
+        this.requestManager = requestManager;
+        this.adapter = adapter;
+        this.ownImageCornerRadius = MessageStyle.get(context, R.style.ParleyMessageUserStyle).imageCornerRadius;
+        this.agentImageCornerRadius = MessageStyle.get(context, R.style.ParleyMessageAgentStyle).imageCornerRadius;
+    }
+
+    /**
+     * @return Scroll listener that preloads the images, add it to the RecyclerView of the adapter.
+     */
+    public RecyclerView.OnScrollListener createScrollListener() {
+        return new RecyclerViewPreloader<>(requestManager, this, this, MAX_PRELOAD);
+    }
+
+    /**
+     * Measures the size of the images of this kind of message, called when a message with an image is shown.
+     */
+    void onImageShown(Message message, ImageView imageView) {
+        int key = getSizeKey(message);
+        if (sizeProviders.get(key) == null) {
+            sizeProviders.put(key, new ViewPreloadSizeProvider<Message>(imageView));
+        }
+    }
+
+    /**
+     * Downloads the images of the messages into the disk cache, for example of an older page of messages.
+     */
+    public void warmDiskCache(List<Message> messages) {
+        for (Message message : messages) {
+            if (BalloonView.isValidImage(message.getImage())) {
+                requestManager.downloadOnly().load(message.getImage()).preload();
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<Message> getPreloadItems(int position) {
+        Message message = adapter.getMessage(position);
+        if (message == null || !BalloonView.isValidImage(message.getImage()) || sizeProviders.get(getSizeKey(message)) == null) {
+            return Collections.emptyList(); // No image, or the size is not known yet
+        }
+        return Collections.singletonList(message);
+    }
+
+    @Nullable
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Message message) {
+        int imageCornerRadius = message.getTypeId() == MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_OWN ? ownImageCornerRadius : agentImageCornerRadius;
+        return BalloonView.createImageRequest(requestManager, message.getImage(), imageCornerRadius, message.isImageOnly());
+    }
+
+    @Nullable
+    @Override
+    public int[] getPreloadSize(@NonNull Message message, int adapterPosition, int perItemPosition) {
+        ViewPreloadSizeProvider<Message> sizeProvider = sizeProviders.get(getSizeKey(message));
+        return sizeProvider == null ? null : sizeProvider.getPreloadSize(message, adapterPosition, perItemPosition);
+    }
+
+    private static int getSizeKey(Message message) {
+        return message.getTypeId() * 2 + (message.isImageOnly() ? 1 : 0);
+    }
+}
@@ -0,0 +1,83 @@
+package nu.parley.android.view.chat;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.List;
+
+import nu.parley.android.R;
+import nu.parley.android.data.model.Message;
+import nu.parley.android.util.PrecomputedTextUtil;
+
+/**
+ * Measures the texts of messages on a background thread before they are shown, with the text
+ * parameters of the balloons that will show them. The balloons of each style report their
+ * parameters when they are created.
+ *
+ * <p>
+ * <b>Note:</b> Only accessed on the main thread.
+ * </p>
+ */
+public final class MessageTextPrecomputer {
+
+    private static final int MAX_PRECOMPUTE = 50; // Messages per call, the newest first
+
+    @Nullable
+    private Context context;
+    private final SparseArray<PrecomputedTextCompat.Params> titleParams = new SparseArray<>();
+    private final SparseArray<PrecomputedTextCompat.Params> textParams = new SparseArray<>();
+
+    /**
+     * Sets the text parameters of the balloons with this style.
+     */
+    public void setParams(Context context, @StyleRes int style, PrecomputedTextCompat.Params titleParams, PrecomputedTextCompat.Params textParams) {
+        this.context = context.getApplicationContext();
+        this.titleParams.put(style, titleParams);
+        this.textParams.put(style, textParams);
+    }
+
+    /**
+     * Measures the title and text of the messages, for the styles that are known already.
+     */
+    public void precompute(List<Message> messages) {
+        if (context == null) {
+            return; // No balloons yet
+        }
+        int count = Math.min(messages.size(), MAX_PRECOMPUTE);
+        for (int i = 0; i < count; i++) {
+            Message message = messages.get(i);
+            if (!message.hasTextContent()) {
+                continue;
+            }
+            int style = getStyle(message);
+            if (style == 0) {
+                continue;
+            }
+            if (message.getTitle() != null && titleParams.get(style) != null) {
+                PrecomputedTextUtil.precompute(context, message.getUuid(), message.getTitle(), titleParams.get(style));
+            }
+            if (message.getMessage() != null && textParams.get(style) != null) {
+                PrecomputedTextUtil.precompute(context, message.getUuid(), message.getMessage(), textParams.get(style));
+            }
+        }
+    }
+
+    /**
+     * @return The style of the balloon of the message, or `0` if it isn't shown in a balloon.
+     */
+    @StyleRes
+    private static int getStyle(Message message) {
+        switch (message.getTypeId()) {
+            case MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_OWN:
+                return R.style.ParleyMessageUserStyle;
+            case MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_AGENT:
+                return R.style.ParleyMessageAgentStyle;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package nu.parley.android.view.chat;
+
+import android.util.SparseArray;
+
+import androidx.annotation.StyleRes;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * View holders of the lists inside messages, shared by all messages of the chat. A recycled message
+ * returns its carousel items and actions here, so the next message can reuse them instead of
+ * inflating its own.
+ */
+public final class MessageViewPools {
+
+    private static final int MAX_CAROUSEL_ITEMS = 10;
+    private static final int MAX_ACTIONS = 10;
+
+    private final RecyclerView.RecycledViewPool carouselPool = new RecyclerView.RecycledViewPool();
+    // Actions are styled when they are created, so each message style has its own pool
+    private final SparseArray<RecyclerView.RecycledViewPool> actionPools = new SparseArray<>();
+
+    public MessageViewPools() {
+        carouselPool.setMaxRecycledViews(MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_AGENT, MAX_CAROUSEL_ITEMS);
+    }
+
+    public RecyclerView.RecycledViewPool getCarouselPool() {
+        return carouselPool;
+    }
+
+    public RecyclerView.RecycledViewPool getActionPool(@StyleRes int style) {
+        RecyclerView.RecycledViewPool actionPool = actionPools.get(style);
+        if (actionPool == null) {
+            actionPool = new RecyclerView.RecycledViewPool();
+            actionPool.setMaxRecycledViews(MessageViewHolderFactory.MESSAGE_TYPE_ACTION, MAX_ACTIONS);
+            actionPools.put(style, actionPool);
+        }
+        return actionPool;
+    }
+}
@@ -0,0 +1,71 @@
+package nu.parley.android.view.chat;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.asynclayoutinflater.view.AsyncLayoutInflater;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Inflates the views of the first messages on a background thread while Parley is configuring, and
+ * puts their view holders in the pool of the chat. The first messages are then shown without
+ * inflating their views on the main thread.
+ *
+ * <p>
+ * Views that can't be inflated on a background thread are inflated on the main thread by the
+ * {@link AsyncLayoutInflater}.
+ * </p>
+ */
+public final class MessageViewPreinflater {
+
+    private static final int DEFAULT_MAX_POOL_SIZE = 5; // Of the RecyclerView.RecycledViewPool
+    private static final int MAX_OTHER_VIEWS = 2; // Dates and info messages
+
+    private final RecyclerView recyclerView;
+    private final MessageAdapter adapter;
+    private final AsyncLayoutInflater inflater;
+    private boolean started = false;
+
+    public MessageViewPreinflater(Context context, RecyclerView recyclerView, MessageAdapter adapter) {
+        this.recyclerView = recyclerView;
+        this.adapter = adapter;
+        this.inflater = new AsyncLayoutInflater(context);
+    }
+
+    /**
+     * Starts inflating the views, only the first call has effect.
+     *
+     * @param messageCount The amount of views to inflate for the messages of the user and for the messages of the agent.
+     */
+    public void preinflate(int messageCount) {
+        if (started || messageCount <= 0) {
+            return;
+        }
+        started = true;
+
+        preinflate(MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_AGENT, messageCount);
+        preinflate(MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_OWN, messageCount);
+        preinflate(MessageViewHolderFactory.MESSAGE_TYPE_DATE, Math.min(messageCount, MAX_OTHER_VIEWS));
+        preinflate(MessageViewHolderFactory.MESSAGE_TYPE_INFO, Math.min(messageCount, MAX_OTHER_VIEWS));
+    }
+
+    private void preinflate(final int viewType, int count) {
+        if (count > DEFAULT_MAX_POOL_SIZE) {
+            recyclerView.getRecycledViewPool().setMaxRecycledViews(viewType, count);
+        }
+        AsyncLayoutInflater.OnInflateFinishedListener listener = new AsyncLayoutInflater.OnInflateFinishedListener() {
+            @Override
+            public void onInflateFinished(@NonNull View view, int resid, @Nullable ViewGroup parent) {
+                // Called on the main thread, creating the view holder only applies the resolved styles
+                recyclerView.getRecycledViewPool().putRecycledView(adapter.createViewHolder(recyclerView, viewType, view));
+            }
+        };
+        int viewResource = MessageViewHolderFactory.getViewResource(viewType);
+        for (int i = 0; i < count; i++) {
+            inflater.inflate(viewResource, recyclerView, listener);
+        }
+    }
+}
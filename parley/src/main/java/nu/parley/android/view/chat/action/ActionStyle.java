@@ -0,0 +1,51 @@
+package nu.parley.android.view.chat.action;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Typeface;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+
+import nu.parley.android.R;
+import nu.parley.android.util.StyleCache;
+import nu.parley.android.util.StyleUtil;
+
+/**
+ * Resolved `ParleyMessageAction` attributes of a message style, shared by all actions of messages with that style.
+ */
+final class ActionStyle {
+
+    private static final StyleCache<ActionStyle> CACHE = new StyleCache<ActionStyle>(R.styleable.ParleyMessageAction) {
+        @Override
+        protected ActionStyle resolve(Context context, TypedArray ta) {
+            return new ActionStyle(context, ta);
+        }
+    };
+
+    static ActionStyle get(Context context, @StyleRes int style) {
+        return CACHE.get(context, style);
+    }
+
+    final StyleUtil.StyleSpacing dividerMargin;
+    @ColorInt
+    @Nullable
+    final Integer dividerColor;
+    final StyleUtil.StyleSpacing titlePadding;
+    final int textSize;
+    final ColorStateList titleColor;
+    final Typeface font;
+    final int fontStyle;
+
+    private ActionStyle(Context context, TypedArray ta) {
+        dividerMargin = StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageAction_parley_action_divider_margin, R.styleable.ParleyMessageAction_parley_action_divider_margin_top, R.styleable.ParleyMessageAction_parley_action_divider_margin_right, R.styleable.ParleyMessageAction_parley_action_divider_margin_bottom, R.styleable.ParleyMessageAction_parley_action_divider_margin_left);
+        dividerColor = StyleUtil.getColor(ta, R.styleable.ParleyMessageAction_parley_action_divider_color);
+        titlePadding = StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageAction_parley_action_padding, R.styleable.ParleyMessageAction_parley_action_padding_top, R.styleable.ParleyMessageAction_parley_action_padding_right, R.styleable.ParleyMessageAction_parley_action_padding_bottom, R.styleable.ParleyMessageAction_parley_action_padding_left);
+        textSize = StyleUtil.getDimension(ta, R.styleable.ParleyMessageAction_parley_action_text_size);
+        titleColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageAction_parley_action_title_color);
+        font = StyleUtil.getFont(context, ta, R.styleable.ParleyMessageAction_parley_action_font_family);
+        fontStyle = StyleUtil.getFontStyle(ta, R.styleable.ParleyMessageAction_parley_action_font_style);
+    }
+}
@@ -5,9 +5,11 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.StyleRes;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.Collections;
 import java.util.List;
 
 import nu.parley.android.data.model.Action;
@@ -15,24 +17,41 @@ import nu.parley.android.view.chat.MessageViewHolderFactory;
 
 public final class MessageAdditionAdapter extends RecyclerView.Adapter<MessageAdditionViewHolder> {
 
-    private List<Action> actions;
+    private List<Action> actions = Collections.emptyList();
     private boolean showTopDivider;
     private MessageAdditionListener listener;
     @StyleRes
     private int currentStyle;
 
-    public MessageAdditionAdapter(List<Action> actions, boolean showTopDivider, MessageAdditionListener listener, @StyleRes int style) {
-        this.actions = actions;
-        this.showTopDivider = showTopDivider;
+    public MessageAdditionAdapter(MessageAdditionListener listener, @StyleRes int style) {
         this.listener = listener;
         this.currentStyle = style;
     }
 
+    /**
+     * Shows the actions of a message. The adapter is kept by the view holder of the message and reused for the next message it shows.
+     */
+    public void setActions(@Nullable List<Action> actions, boolean showTopDivider) {
+        this.actions = actions == null ? Collections.<Action>emptyList() : actions;
+        this.showTopDivider = showTopDivider;
+        notifyDataSetChanged();
+    }
+
     @NonNull
     @Override
     public MessageAdditionViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View itemView = LayoutInflater.from(parent.getContext()).inflate(MessageViewHolderFactory.getViewResource(viewType), parent, false);
-        return new MessageAdditionViewHolder(itemView, currentStyle);
+        final MessageAdditionViewHolder holder = new MessageAdditionViewHolder(itemView, currentStyle);
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = holder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    listener.onActionClicked(v, actions.get(position));
+                }
+            }
+        });
+        return holder;
     }
 
     @Override
@@ -42,15 +61,7 @@ public final class MessageAdditionAdapter extends RecyclerView.Adapter<MessageAd
 
     @Override
     public void onBindViewHolder(@NonNull MessageAdditionViewHolder holder, int position) {
-        final Action action = actions.get(position);
-        holder.show(action, action == actions.get(0) && showTopDivider);
-
-        holder.itemView.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                listener.onActionClicked(v, action);
-            }
-        });
+        holder.show(actions.get(position), position == 0 && showTopDivider);
     }
 
     @Override
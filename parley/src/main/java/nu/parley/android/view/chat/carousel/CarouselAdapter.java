@@ -5,29 +5,47 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.List;
-
 import nu.parley.android.data.model.Message;
 import nu.parley.android.view.chat.MessageListener;
 import nu.parley.android.view.chat.MessageViewHolderFactory;
+import nu.parley.android.view.chat.MessageViewPools;
 
 public final class CarouselAdapter extends RecyclerView.Adapter<CarouselViewHolder> {
 
-    private final Message carouselMessage;
+    @Nullable
+    private Message carouselMessage;
     private final MessageListener listener;
+    @Nullable
+    private MessageViewPools viewPools;
 
-    public CarouselAdapter(Message carouselMessage, MessageListener listener) {
-        this.carouselMessage = carouselMessage;
+    public CarouselAdapter(MessageListener listener) {
         this.listener = listener;
     }
 
+    public void setViewPools(@Nullable MessageViewPools viewPools) {
+        this.viewPools = viewPools;
+    }
+
+    /**
+     * Shows the carousel of a message. The adapter is kept by the view holder of the message and reused for the next message it shows.
+     */
+    public void setMessage(@Nullable Message carouselMessage) {
+        this.carouselMessage = carouselMessage;
+        notifyDataSetChanged();
+    }
+
     @NonNull
     @Override
     public CarouselViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View itemView = LayoutInflater.from(parent.getContext()).inflate(MessageViewHolderFactory.getViewResource(viewType), parent, false);
-        return new CarouselViewHolder(itemView, listener);
+        CarouselViewHolder holder = new CarouselViewHolder(itemView, listener);
+        if (viewPools != null) {
+            holder.setViewPools(viewPools);
+        }
+        return holder;
     }
 
     @Override
@@ -37,7 +55,7 @@ public final class CarouselAdapter extends RecyclerView.Adapter<CarouselViewHold
 
     @Override
     public void onBindViewHolder(@NonNull CarouselViewHolder holder, int position) {
-        if (carouselMessage.getCarousel() == null) {
+        if (carouselMessage == null || carouselMessage.getCarousel() == null) {
             return;
         }
         final Message message = carouselMessage.getCarousel().get(position);
@@ -46,7 +64,7 @@ public final class CarouselAdapter extends RecyclerView.Adapter<CarouselViewHold
 
     @Override
     public int getItemCount() {
-        if (carouselMessage.getCarousel() == null) {
+        if (carouselMessage == null || carouselMessage.getCarousel() == null) {
             return 0;
         } else {
             return carouselMessage.getCarousel().size();
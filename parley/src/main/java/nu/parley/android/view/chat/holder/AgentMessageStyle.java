@@ -0,0 +1,54 @@
+package nu.parley.android.view.chat.holder;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Typeface;
+
+import androidx.annotation.StyleRes;
+
+import nu.parley.android.R;
+import nu.parley.android.util.StyleCache;
+import nu.parley.android.util.StyleUtil;
+
+/**
+ * Resolved `ParleyMessageAgent` attributes of an agent message style.
+ */
+final class AgentMessageStyle {
+
+    private static final StyleCache<AgentMessageStyle> CACHE = new StyleCache<AgentMessageStyle>(R.styleable.ParleyMessageAgent) {
+        @Override
+        protected AgentMessageStyle resolve(Context context, TypedArray ta) {
+            return new AgentMessageStyle(context, ta);
+        }
+    };
+
+    static AgentMessageStyle get(Context context, @StyleRes int style) {
+        return CACHE.get(context, style);
+    }
+
+    final StyleUtil.StyleSpacing namePadding;
+    final boolean showName;
+    final ColorStateList nameColor;
+    final Typeface nameFont;
+    final int nameFontStyle;
+    final int nameTextSize;
+    final ColorStateList titleColor;
+    final Typeface titleFont;
+    final int titleFontStyle;
+    final int titleTextSize;
+
+    private AgentMessageStyle(Context context, TypedArray ta) {
+        namePadding = StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageAgent_parley_name_padding, R.styleable.ParleyMessageAgent_parley_name_padding_top, R.styleable.ParleyMessageAgent_parley_name_padding_right, R.styleable.ParleyMessageAgent_parley_name_padding_bottom, R.styleable.ParleyMessageAgent_parley_name_padding_left);
+        showName = StyleUtil.getBoolean(ta, R.styleable.ParleyMessageAgent_parley_show_name, true); // Default `true`
+
+        nameColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageAgent_parley_name_color);
+        nameFont = StyleUtil.getFont(context, ta, R.styleable.ParleyMessageAgent_parley_name_font_family);
+        nameFontStyle = StyleUtil.getFontStyle(ta, R.styleable.ParleyMessageAgent_parley_name_font_style);
+        nameTextSize = StyleUtil.getDimension(ta, R.styleable.ParleyMessageAgent_parley_name_text_size);
+        titleColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageAgent_parley_title_color);
+        titleFont = StyleUtil.getFont(context, ta, R.styleable.ParleyMessageAgent_parley_title_font_family);
+        titleFontStyle = StyleUtil.getFontStyle(ta, R.styleable.ParleyMessageAgent_parley_title_font_style);
+        titleTextSize = StyleUtil.getDimension(ta, R.styleable.ParleyMessageAgent_parley_title_text_size);
+    }
+}
@@ -46,6 +46,6 @@ public final class InfoViewHolder extends ParleyBaseViewHolder {
 
     @Override
     public void show(Message message) {
-        messageTextView.setText(MarkdownUtil.convert(getContext(), message.getMessage()));
+        messageTextView.setText(MarkdownUtil.convert(getContext(), message.getUuid(), message.getMessage()));
     }
 }
@@ -0,0 +1,85 @@
+package nu.parley.android.view.chat.holder;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Typeface;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.Nullable;
+import androidx.annotation.StyleRes;
+
+import nu.parley.android.R;
+import nu.parley.android.util.StyleCache;
+import nu.parley.android.util.StyleUtil;
+
+/**
+ * Resolved `ParleyMessageBase` attributes of a message style, shared by all messages with that style.
+ */
+public final class MessageStyle {
+
+    private static final StyleCache<MessageStyle> CACHE = new StyleCache<MessageStyle>(R.styleable.ParleyMessageBase) {
+        @Override
+        protected MessageStyle resolve(Context context, TypedArray ta) {
+            return new MessageStyle(context, ta);
+        }
+    };
+
+    public static MessageStyle get(Context context, @StyleRes int style) {
+        return CACHE.get(context, style);
+    }
+
+    public final int backgroundResourceId;
+    @ColorInt
+    @Nullable
+    public final Integer backgroundTintColor;
+    public final StyleUtil.StyleSpacing margin;
+    public final StyleUtil.StyleSpacing messageContentPadding;
+    public final StyleUtil.StyleSpacing imageContentPadding;
+    public final StyleUtil.StyleSpacing metaPadding;
+
+    public final int imageCornerRadius;
+    public final int imagePlaceholderResourceId;
+    public final ColorStateList imagePlaceholderTintColor;
+    @ColorInt
+    @Nullable
+    public final Integer imageLoaderTintColor;
+
+    public final Typeface textFont;
+    public final int textFontStyle;
+    public final int textSize;
+    public final ColorStateList textColor;
+    public final ColorStateList tintColor;
+
+    public final Typeface timeFont;
+    public final int timeFontStyle;
+    public final int timeTextSize;
+    public final ColorStateList messageTimeColor;
+    public final ColorStateList imageTimeColor;
+
+    private MessageStyle(Context context, TypedArray ta) {
+        backgroundResourceId = StyleUtil.getResourceId(ta, R.styleable.ParleyMessageBase_parley_background);
+        backgroundTintColor = StyleUtil.getColor(ta, R.styleable.ParleyMessageBase_parley_background_tint_color);
+        margin = StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageBase_parley_margin, R.styleable.ParleyMessageBase_parley_margin_top, R.styleable.ParleyMessageBase_parley_margin_right, R.styleable.ParleyMessageBase_parley_margin_bottom, R.styleable.ParleyMessageBase_parley_margin_left);
+        messageContentPadding = StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageBase_parley_message_content_padding, R.styleable.ParleyMessageBase_parley_message_content_padding_top, R.styleable.ParleyMessageBase_parley_message_content_padding_right, R.styleable.ParleyMessageBase_parley_message_content_padding_bottom, R.styleable.ParleyMessageBase_parley_message_content_padding_left);
+        imageContentPadding = StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageBase_parley_image_content_padding, R.styleable.ParleyMessageBase_parley_image_content_padding_top, R.styleable.ParleyMessageBase_parley_image_content_padding_right, R.styleable.ParleyMessageBase_parley_image_content_padding_bottom, R.styleable.ParleyMessageBase_parley_image_content_padding_left);
+        metaPadding = StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageBase_parley_meta_padding, R.styleable.ParleyMessageBase_parley_meta_padding_top, R.styleable.ParleyMessageBase_parley_meta_padding_right, R.styleable.ParleyMessageBase_parley_meta_padding_bottom, R.styleable.ParleyMessageBase_parley_meta_padding_left);
+
+        imageCornerRadius = StyleUtil.getDimension(ta, R.styleable.ParleyMessageBase_parley_image_corner_radius);
+        imagePlaceholderResourceId = StyleUtil.getResourceId(ta, R.styleable.ParleyMessageBase_parley_image_placeholder);
+        imagePlaceholderTintColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_image_placeholder_tint_color);
+        imageLoaderTintColor = StyleUtil.getColor(ta, R.styleable.ParleyMessageBase_parley_image_loader_tint_color);
+
+        textFont = StyleUtil.getFont(context, ta, R.styleable.ParleyMessageBase_parley_font_family);
+        textFontStyle = StyleUtil.getFontStyle(ta, R.styleable.ParleyMessageBase_parley_font_style);
+        textSize = StyleUtil.getDimension(ta, R.styleable.ParleyMessageBase_parley_text_size);
+        textColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_text_color);
+        tintColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_tint_color);
+
+        timeFont = StyleUtil.getFont(context, ta, R.styleable.ParleyMessageBase_parley_time_font_family);
+        timeFontStyle = StyleUtil.getFontStyle(ta, R.styleable.ParleyMessageBase_parley_time_font_style);
+        timeTextSize = StyleUtil.getDimension(ta, R.styleable.ParleyMessageBase_parley_time_text_size);
+        messageTimeColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_message_time_color);
+        imageTimeColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_image_time_color);
+    }
+}
@@ -1,23 +1,31 @@
 package nu.parley.android.view.chat.holder;
 
-import android.content.res.TypedArray;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.StyleRes;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.Date;
+import java.util.UUID;
 
+import nu.parley.android.Parley;
 import nu.parley.android.R;
+import nu.parley.android.data.messages.UploadProgress;
 import nu.parley.android.data.model.Action;
 import nu.parley.android.data.model.Message;
 import nu.parley.android.util.StyleUtil;
 import nu.parley.android.view.BalloonView;
+import nu.parley.android.view.chat.MessageDiffCallback;
 import nu.parley.android.view.chat.MessageListener;
+import nu.parley.android.view.chat.MessageTextPrecomputer;
 import nu.parley.android.view.chat.MessageViewHolderFactory;
+import nu.parley.android.view.chat.MessageViewPools;
 import nu.parley.android.view.chat.action.MessageAdditionAdapter;
 import nu.parley.android.view.chat.action.MessageAdditionListener;
 import nu.parley.android.view.chat.carousel.CarouselAdapter;
@@ -28,6 +36,19 @@ public abstract class MessageViewHolder extends ParleyBaseViewHolder {
     BalloonView balloonView;
     private RecyclerView carouselRecyclerView;
     MessageListener listener;
+    // Kept for the next messages, so binding a message doesn't create new adapters or listeners
+    private final MessageAdditionAdapter additionAdapter;
+    private final CarouselAdapter carouselAdapter;
+    @Nullable
+    private Message shownMessage;
+    @Nullable
+    private UUID observedUploadUuid;
+    private final UploadProgress.Listener uploadProgressListener = new UploadProgress.Listener() {
+        @Override
+        public void onProgress(@Nullable Integer percentage) {
+            balloonView.setUploadProgress(percentage);
+        }
+    };
 
     MessageViewHolder(View itemView, MessageListener listener) {
         super(itemView);
@@ -37,6 +58,45 @@ public abstract class MessageViewHolder extends ParleyBaseViewHolder {
         carouselRecyclerView = itemView.findViewById(R.id.carousel_recycler_view);
         this.listener = listener;
         applyBaseStyle();
+
+        additionAdapter = new MessageAdditionAdapter(new MessageAdditionListener() {
+            @Override
+            public void onActionClicked(View view, Action action) {
+                MessageViewHolder.this.listener.onActionClicked(view, action);
+            }
+        }, getStyleTheme());
+        carouselAdapter = new CarouselAdapter(listener);
+        carouselRecyclerView.setAdapter(carouselAdapter);
+        balloonView.setOnContentClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                onContentClicked();
+            }
+        });
+    }
+
+    /**
+     * Reports the text parameters of this style, so texts of messages can be measured before they are shown.
+     */
+    public void setTextPrecomputer(MessageTextPrecomputer textPrecomputer) {
+        textPrecomputer.setParams(getContext(), getStyleTheme(), balloonView.getTitleParams(), balloonView.getTextParams());
+    }
+
+    /**
+     * Shares the view holders of the carousel and actions with the other messages of the chat.
+     */
+    public void setViewPools(MessageViewPools viewPools) {
+        carouselRecyclerView.setRecycledViewPool(viewPools.getCarouselPool());
+        if (carouselRecyclerView.getLayoutManager() instanceof LinearLayoutManager) {
+            // Return the carousel items to the pool when this message is recycled
+            ((LinearLayoutManager) carouselRecyclerView.getLayoutManager()).setRecycleChildrenOnDetach(true);
+        }
+        carouselAdapter.setViewPools(viewPools);
+        balloonView.setAdditionViewPool(viewPools.getActionPool(getStyleTheme()));
+    }
+
+    public ImageView getImageView() {
+        return balloonView.getImageView();
     }
 
     protected abstract boolean shouldShowName();
@@ -49,31 +109,28 @@ public abstract class MessageViewHolder extends ParleyBaseViewHolder {
     abstract int getStyleTheme();
 
     private void applyBaseStyle() {
-        TypedArray ta = getContext().obtainStyledAttributes(getStyleTheme(), R.styleable.ParleyMessageBase);
-        balloonView.setBackground(StyleUtil.getDrawable(getContext(), ta, R.styleable.ParleyMessageBase_parley_background));
-        StyleUtil.Helper.applyBackgroundColor(balloonView, ta, R.styleable.ParleyMessageBase_parley_background_tint_color);
-
-        StyleUtil.StyleSpacing styleSpacingMargin = StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageBase_parley_margin, R.styleable.ParleyMessageBase_parley_margin_top, R.styleable.ParleyMessageBase_parley_margin_right, R.styleable.ParleyMessageBase_parley_margin_bottom, R.styleable.ParleyMessageBase_parley_margin_left);
-        balloonLayout.setPadding(styleSpacingMargin.left, styleSpacingMargin.top, styleSpacingMargin.right, styleSpacingMargin.bottom);
-        balloonView.setMessageContentPadding(StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageBase_parley_message_content_padding, R.styleable.ParleyMessageBase_parley_message_content_padding_top, R.styleable.ParleyMessageBase_parley_message_content_padding_right, R.styleable.ParleyMessageBase_parley_message_content_padding_bottom, R.styleable.ParleyMessageBase_parley_message_content_padding_left));
-        balloonView.setImageContentPadding(StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageBase_parley_image_content_padding, R.styleable.ParleyMessageBase_parley_image_content_padding_top, R.styleable.ParleyMessageBase_parley_image_content_padding_right, R.styleable.ParleyMessageBase_parley_image_content_padding_bottom, R.styleable.ParleyMessageBase_parley_image_content_padding_left));
-        balloonView.setMetaPadding(StyleUtil.getSpacingData(ta, R.styleable.ParleyMessageBase_parley_meta_padding, R.styleable.ParleyMessageBase_parley_meta_padding_top, R.styleable.ParleyMessageBase_parley_meta_padding_right, R.styleable.ParleyMessageBase_parley_meta_padding_bottom, R.styleable.ParleyMessageBase_parley_meta_padding_left));
-
-        balloonView.setImageCornerRadius(StyleUtil.getDimension(ta, R.styleable.ParleyMessageBase_parley_image_corner_radius));
-        balloonView.setImagePlaceholder(StyleUtil.getDrawable(getContext(), ta, R.styleable.ParleyMessageBase_parley_image_placeholder));
-        balloonView.setImagePlaceholerTintColor(StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_image_placeholder_tint_color));
-        balloonView.setImageLoadingTintColor(StyleUtil.getColor(ta, R.styleable.ParleyMessageBase_parley_image_loader_tint_color));
-
-        balloonView.setTextFont(StyleUtil.getFont(getContext(), ta, R.styleable.ParleyMessageBase_parley_font_family), StyleUtil.getFontStyle(ta, R.styleable.ParleyMessageBase_parley_font_style));
-        balloonView.setTextSize(TypedValue.COMPLEX_UNIT_PX, StyleUtil.getDimension(ta, R.styleable.ParleyMessageBase_parley_text_size));
-        balloonView.setTextColor(StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_text_color));
-        balloonView.setTintColor(StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_tint_color));
-
-        balloonView.setTimeFont(StyleUtil.getFont(getContext(), ta, R.styleable.ParleyMessageBase_parley_time_font_family), StyleUtil.getFontStyle(ta, R.styleable.ParleyMessageBase_parley_time_font_style));
-        balloonView.setTimeTextSize(TypedValue.COMPLEX_UNIT_PX, StyleUtil.getDimension(ta, R.styleable.ParleyMessageBase_parley_time_text_size));
-        balloonView.setTimeColor(StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_message_time_color), StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageBase_parley_image_time_color));
-
-        ta.recycle();
+        MessageStyle style = MessageStyle.get(getContext(), getStyleTheme());
+        balloonView.setBackground(StyleUtil.getDrawable(getContext(), style.backgroundResourceId));
+        StyleUtil.Helper.applyBackgroundColor(balloonView, style.backgroundTintColor);
+
+        StyleUtil.Helper.applySpacing(balloonLayout, style.margin);
+        balloonView.setMessageContentPadding(style.messageContentPadding);
+        balloonView.setImageContentPadding(style.imageContentPadding);
+        balloonView.setMetaPadding(style.metaPadding);
+
+        balloonView.setImageCornerRadius(style.imageCornerRadius);
+        balloonView.setImagePlaceholder(StyleUtil.getDrawable(getContext(), style.imagePlaceholderResourceId));
+        balloonView.setImagePlaceholerTintColor(style.imagePlaceholderTintColor);
+        balloonView.setImageLoadingTintColor(style.imageLoaderTintColor);
+
+        balloonView.setTextFont(style.textFont, style.textFontStyle);
+        balloonView.setTextSize(TypedValue.COMPLEX_UNIT_PX, style.textSize);
+        balloonView.setTextColor(style.textColor);
+        balloonView.setTintColor(style.tintColor);
+
+        balloonView.setTimeFont(style.timeFont, style.timeFontStyle);
+        balloonView.setTimeTextSize(TypedValue.COMPLEX_UNIT_PX, style.timeTextSize);
+        balloonView.setTimeColor(style.messageTimeColor, style.imageTimeColor);
     }
 
     public void show(final Message message) {
@@ -101,9 +158,10 @@ public abstract class MessageViewHolder extends ParleyBaseViewHolder {
 
         // Content: A message has either an image or some text
         balloonView.setImage(message.getImage(), message.isImageOnly());
+        showUploadProgress(message);
         balloonView.setHasTextContent(message.hasTextContent());
-        balloonView.setTitle(message.getTitle());
-        balloonView.setText(message.getMessage());
+        balloonView.setTitle(message.getUuid(), message.getTitle());
+        balloonView.setText(message.getUuid(), message.getMessage());
 
         // Meta
         balloonView.setTime(messageTime);
@@ -111,35 +169,81 @@ public abstract class MessageViewHolder extends ParleyBaseViewHolder {
         balloonView.setStatusVisible(shouldShowStatus());
 
         // Additional data
-        if (message.getActions() == null) {
-            balloonView.setAddition(null);
-        } else {
-            MessageAdditionAdapter messageAdditionAdapter = new MessageAdditionAdapter(
-                    message.getActions(),
-                    showAgentName || message.hasTextContent(),
-                    new MessageAdditionListener() {
-                        @Override
-                        public void onActionClicked(View view, Action action) {
-                            listener.onActionClicked(view, action);
-                        }
-                    },
-                    getStyleTheme()
-            );
-            balloonView.setAddition(messageAdditionAdapter);
+        additionAdapter.setActions(message.getActions(), showAgentName || message.hasTextContent());
+        balloonView.setAddition(additionAdapter);
+
+        handleCarousel(message);
+        shownMessage = message;
+    }
+
+    /**
+     * Shows only the changed parts of the message, so for example a new status doesn't load the image or render the text again.
+     */
+    @Override
+    public void update(Message message, int changes) {
+        if ((changes & MessageDiffCallback.CHANGE_IMAGE) != 0) {
+            balloonView.setImage(message.getImage(), message.isImageOnly());
         }
+        if ((changes & MessageDiffCallback.CHANGE_TEXT) != 0) {
+            balloonView.setTitle(message.getUuid(), message.getTitle());
+            balloonView.setText(message.getUuid(), message.getMessage());
+        }
+        if ((changes & MessageDiffCallback.CHANGE_TIME) != 0) {
+            balloonView.setTime(message.getDate());
+        }
+        if ((changes & MessageDiffCallback.CHANGE_STATUS) != 0) {
+            balloonView.setStatus(message.getSendStatus());
+        }
+        if ((changes & MessageDiffCallback.CHANGE_TIME) != 0 && message.hasCarouselContent()) {
+            carouselAdapter.setMessage(message); // The carousel shows the time of the message
+        }
+        showUploadProgress(message);
+        shownMessage = message; // Clicks use the current status
+    }
 
-        balloonView.setOnContentClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                if (message.getTypeId() == MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_OWN && message.getSendStatus() == Message.SEND_STATUS_FAILED) {
-                    listener.onRetryMessageClicked(message);
-                } else if (message.getImage() != null) {
-                    listener.onImageClicked(itemView.getContext(), message);
-                }
-            }
-        });
+    private void onContentClicked() {
+        Message message = shownMessage;
+        if (message == null) {
+            return;
+        }
+        if (message.getTypeId() == MessageViewHolderFactory.MESSAGE_TYPE_MESSAGE_OWN && message.getSendStatus() == Message.SEND_STATUS_FAILED) {
+            listener.onRetryMessageClicked(message);
+        } else if (message.getImage() != null) {
+            listener.onImageClicked(itemView.getContext(), message);
+        }
+    }
 
-        handleCarousel(message);
+    private void showUploadProgress(Message message) {
+        UploadProgress uploadProgress = Parley.getInstance().getUploadProgress();
+        onDetached();
+        observedUploadUuid = null;
+        if (message.getSendStatus() == Message.SEND_STATUS_PENDING && message.hasImageContent()) {
+            observedUploadUuid = message.getUuid();
+            uploadProgress.observe(observedUploadUuid, uploadProgressListener);
+        }
+        balloonView.setUploadProgress(observedUploadUuid == null ? null : uploadProgress.get(observedUploadUuid));
+    }
+
+    @Override
+    public void onAttached() {
+        if (observedUploadUuid != null) {
+            UploadProgress uploadProgress = Parley.getInstance().getUploadProgress();
+            uploadProgress.observe(observedUploadUuid, uploadProgressListener);
+            balloonView.setUploadProgress(uploadProgress.get(observedUploadUuid));
+        }
+    }
+
+    @Override
+    public void onDetached() {
+        if (observedUploadUuid != null) {
+            Parley.getInstance().getUploadProgress().unobserve(observedUploadUuid, uploadProgressListener);
+        }
+    }
+
+    @Override
+    public void onRecycled() {
+        super.onRecycled();
+        observedUploadUuid = null;
     }
 
     private void handleCarousel(Message message) {
@@ -148,6 +252,10 @@ public abstract class MessageViewHolder extends ParleyBaseViewHolder {
         } else {
             carouselRecyclerView.setVisibility(View.VISIBLE);
         }
-        carouselRecyclerView.setAdapter(new CarouselAdapter(message, listener));
+        boolean otherCarousel = shownMessage == null || !shownMessage.getUuid().equals(message.getUuid());
+        carouselAdapter.setMessage(message);
+        if (otherCarousel && carouselAdapter.getItemCount() > 0) {
+            carouselRecyclerView.scrollToPosition(0); // Don't keep the scroll position of the previous message
+        }
     }
 }
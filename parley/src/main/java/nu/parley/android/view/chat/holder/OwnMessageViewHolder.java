@@ -1,10 +1,8 @@
 package nu.parley.android.view.chat.holder;
 
-import android.content.res.TypedArray;
 import android.view.View;
 
 import nu.parley.android.R;
-import nu.parley.android.util.StyleUtil;
 import nu.parley.android.view.chat.MessageListener;
 
 public final class OwnMessageViewHolder extends MessageViewHolder {
@@ -35,9 +33,8 @@ public final class OwnMessageViewHolder extends MessageViewHolder {
     }
 
     private void applyStyle() {
-        TypedArray ta = getContext().obtainStyledAttributes(getStyleTheme(), R.styleable.ParleyMessageUser);
-        balloonView.setMessageStatusColor(StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageUser_parley_message_status_color));
-        balloonView.setImageStatusColor(StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageUser_parley_image_status_color));
-        ta.recycle();
+        UserMessageStyle style = UserMessageStyle.get(getContext(), getStyleTheme());
+        balloonView.setMessageStatusColor(style.messageStatusColor);
+        balloonView.setImageStatusColor(style.imageStatusColor);
     }
 }
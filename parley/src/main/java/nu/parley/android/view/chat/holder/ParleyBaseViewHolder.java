@@ -6,6 +6,7 @@ import android.view.View;
 import androidx.recyclerview.widget.RecyclerView;
 
 import nu.parley.android.data.model.Message;
+import nu.parley.android.view.chat.MessageDiffCallback;
 
 public abstract class ParleyBaseViewHolder extends RecyclerView.ViewHolder {
 
@@ -18,4 +19,35 @@ public abstract class ParleyBaseViewHolder extends RecyclerView.ViewHolder {
     }
 
     public abstract void show(final Message message);
+
+    /**
+     * Shows the changes of the message, see {@link MessageDiffCallback} for the flags. Shows the whole message by default.
+     *
+     * @param changes The changed parts of the message.
+     */
+    public void update(Message message, int changes) {
+        show(message);
+    }
+
+    /**
+     * Called when the view of the holder is attached again, see {@link #onDetached()}.
+     */
+    public void onAttached() {
+        // Nothing observed by default
+    }
+
+    /**
+     * Called when the view of the holder is detached, stop observing changes of the shown message so
+     * the holder (and its views) aren't kept.
+     */
+    public void onDetached() {
+        // Nothing observed by default
+    }
+
+    /**
+     * Called when the holder is recycled, it doesn't show its message anymore.
+     */
+    public void onRecycled() {
+        onDetached();
+    }
 }
@@ -0,0 +1,36 @@
+package nu.parley.android.view.chat.holder;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+
+import androidx.annotation.StyleRes;
+
+import nu.parley.android.R;
+import nu.parley.android.util.StyleCache;
+import nu.parley.android.util.StyleUtil;
+
+/**
+ * Resolved `ParleyMessageUser` attributes of a user message style.
+ */
+final class UserMessageStyle {
+
+    private static final StyleCache<UserMessageStyle> CACHE = new StyleCache<UserMessageStyle>(R.styleable.ParleyMessageUser) {
+        @Override
+        protected UserMessageStyle resolve(Context context, TypedArray ta) {
+            return new UserMessageStyle(ta);
+        }
+    };
+
+    static UserMessageStyle get(Context context, @StyleRes int style) {
+        return CACHE.get(context, style);
+    }
+
+    final ColorStateList messageStatusColor;
+    final ColorStateList imageStatusColor;
+
+    private UserMessageStyle(TypedArray ta) {
+        messageStatusColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageUser_parley_message_status_color);
+        imageStatusColor = StyleUtil.getColorStateList(ta, R.styleable.ParleyMessageUser_parley_image_status_color);
+    }
+}
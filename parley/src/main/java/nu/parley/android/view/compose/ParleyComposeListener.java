@@ -1,5 +1,7 @@
 package nu.parley.android.view.compose;
 
+import android.net.Uri;
+
 import java.io.File;
 
 import nu.parley.android.Parley;
@@ -20,6 +22,15 @@ public final class ParleyComposeListener implements ComposeListener {
         Parley.getInstance().sendImageMessage(file);
     }
 
+    /**
+     * Only used by {@link ParleyComposeView}, other listeners receive a copy of the image with {@link #onSendImage(File)}.
+     *
+     * @param uri Content uri of the selected image, with a persisted read permission.
+     */
+    void onSendImage(Uri uri) {
+        Parley.getInstance().sendImageMessage(uri);
+    }
+
     @Override
     public void onStartedTyping() {
         fireEvent(EVENT_START_TYPING);
@@ -214,9 +214,22 @@ public final class ParleyComposeView extends FrameLayout implements View.OnClick
 
     public void submitSelectedImage(Intent data) {
         if (data != null && data.getData() != null) {
-            Uri uri = data.getData();
+            final Uri uri = data.getData();
 
-            final File file = FileUtil.getFileFromContentUri(getContext(), uri);
+            if (listener instanceof ParleyComposeListener && FileUtil.takePersistableReadPermission(getContext(), uri, data.getFlags())) {
+                // Only the uri is kept, the image is streamed when it is uploaded
+                final ParleyComposeListener parleyListener = (ParleyComposeListener) listener;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        parleyListener.onSendImage(uri);
+                    }
+                });
+                return;
+            }
+
+            // The image can't be read anymore after a restart, keep a copy until it is uploaded
+            final File file = FileUtil.copyToUploadDirectory(getContext(), uri);
             if (file != null) {
                 post(new Runnable() {
                     @Override
@@ -1,21 +1,38 @@
 package nu.parley.android;
 
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import nu.parley.android.data.messages.MessagesManager;
+import nu.parley.android.data.messages.ParleyDataSource;
+import nu.parley.android.data.messages.ParleyPagedMessageDataSource;
 import nu.parley.android.data.model.Message;
+import nu.parley.android.data.net.response.ParleyPaging;
+import nu.parley.android.util.ListUtil;
+import nu.parley.android.view.chat.MessageViewHolderFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class MessagesManagerUnitTest {
 
     private static final String MESSAGE_WELCOME_TEXT = "Welcome message";
     private static final String MESSAGE_STICKY_TEXT = "Sticky message";
+    private static final int LARGE_HISTORY_SIZE = 10000;
+    private static final long DAY = 1000 * 60 * 60 * 24;
 
     @Test
     public void messagesManager_stickyMessage() {
@@ -76,4 +93,443 @@ public class MessagesManagerUnitTest {
         assertEquals("4: The today date message", todayDate.toString(), currentMessages.get(3).getMessage());
         assertEquals("5: The today message", todayMessageText, currentMessages.get(4).getMessage());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void messagesManager_update_byUuid() {
+        MessagesManager messagesManager = new MessagesManager();
+        messagesManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, new ArrayList<Message>(), null);
+
+        Message pendingMessage = Message.ofTypeOwnMessage("Hello!");
+        messagesManager.add(pendingMessage);
+        assertFalse(messagesManager.hasMessage(42));
+
+        Message sentMessage = Message.withIdAndStatus(pendingMessage, 42, Message.SEND_STATUS_SUCCESS);
+        messagesManager.update(sentMessage);
+
+        assertTrue(messagesManager.hasMessage(42));
+        assertSame(sentMessage, messagesManager.getMessage(pendingMessage.getUuid()));
+        assertSame(sentMessage, messagesManager.getMessages().get(0));
+        assertEquals(0, getPendingMessages(messagesManager).size());
+    }
+
+    @Test
+    public void messagesManager_addOnlyNew_beforePendingMessages() {
+        MessagesManager messagesManager = new MessagesManager();
+        messagesManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, createMessages(0, 2), null);
+        Message sentMessage = Message.ofTypeOwnMessage("Sent");
+        Message pendingMessage = Message.ofTypeOwnMessage("Pending");
+        messagesManager.add(sentMessage);
+        messagesManager.add(pendingMessage);
+        messagesManager.update(Message.withIdAndStatus(sentMessage, 2, Message.SEND_STATUS_SUCCESS));
+
+        messagesManager.addOnlyNew(createMessages(3, 4));
+
+        List<Message> messages = messagesManager.getMessages();
+        assertSame(pendingMessage, messages.get(0));
+        assertEquals(Integer.valueOf(3), messages.get(1).getId());
+        assertEquals(Integer.valueOf(2), messages.get(2).getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void messagesManager_update_nonExisting() {
+        MessagesManager messagesManager = new MessagesManager();
+        messagesManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, new ArrayList<Message>(), null);
+
+        messagesManager.update(Message.ofTypeOwnMessage("Unknown"));
+    }
+
+    @Test
+    public void messagesManager_hasAnyMessage() {
+        MessagesManager messagesManager = new MessagesManager();
+        messagesManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, createMessages(0, 10), null);
+
+        assertTrue(messagesManager.hasAnyMessage(createMessages(9, 20)));
+        assertFalse(messagesManager.hasAnyMessage(createMessages(10, 20)));
+        assertFalse(messagesManager.isEmpty());
+    }
+
+    @Test
+    public void messagesManager_largeHistory() {
+        MessagesManager messagesManager = new MessagesManager();
+        List<Message> history = createMessages(0, LARGE_HISTORY_SIZE);
+        messagesManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, history, null);
+
+        // Reconnect: the server returns the complete history plus some new messages
+        List<Message> synced = createMessages(0, LARGE_HISTORY_SIZE + 100);
+        messagesManager.addOnlyNew(synced);
+
+        assertTrue(messagesManager.hasMessage(LARGE_HISTORY_SIZE + 99));
+        assertFalse(messagesManager.hasMessage(LARGE_HISTORY_SIZE + 100));
+
+        // Send acknowledgements
+        List<Message> pendingMessages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Message pendingMessage = Message.ofTypeOwnMessage("Pending " + i);
+            messagesManager.add(pendingMessage);
+            pendingMessages.add(pendingMessage);
+        }
+        messagesManager.addAgentTypingMessage();
+        List<Message> shownBefore = new ArrayList<>(messagesManager.getMessages());
+        for (int i = 0; i < pendingMessages.size(); i++) {
+            messagesManager.update(Message.withIdAndStatus(pendingMessages.get(i), 2 * LARGE_HISTORY_SIZE + i, Message.SEND_STATUS_SUCCESS));
+        }
+
+        assertEquals(0, getPendingMessages(messagesManager).size());
+        assertTrue(messagesManager.hasMessage(2 * LARGE_HISTORY_SIZE));
+        // Every message is updated in place, the other items are kept
+        List<Message> shownAfter = messagesManager.getMessages();
+        assertEquals(shownBefore.size(), shownAfter.size());
+        for (int i = 0; i < shownAfter.size(); i++) {
+            Message before = shownBefore.get(i);
+            Message after = shownAfter.get(i);
+            if (pendingMessages.contains(before)) {
+                assertEquals(before.getUuid(), after.getUuid());
+                assertEquals(Message.SEND_STATUS_SUCCESS, after.getSendStatus());
+            } else {
+                assertSame(before, after);
+            }
+        }
+        for (int i = 0; i < pendingMessages.size(); i++) {
+            assertEquals(Integer.valueOf(2 * LARGE_HISTORY_SIZE + i), messagesManager.getMessage(pendingMessages.get(i).getUuid()).getId());
+        }
+    }
+
+    @Test
+    public void messagesManager_moreLoad_keepsDateMessages() {
+        Date today = new Date();
+        List<Message> newestPage = new ArrayList<>();
+        newestPage.add(createMessage(6, new Date(today.getTime())));
+        newestPage.add(createMessage(5, new Date(today.getTime() - DAY)));
+        newestPage.add(createMessage(4, new Date(today.getTime() - DAY)));
+        List<Message> olderPage = new ArrayList<>();
+        olderPage.add(createMessage(3, new Date(today.getTime() - DAY)));
+        olderPage.add(createMessage(2, new Date(today.getTime() - 2 * DAY)));
+        olderPage.add(createMessage(1, new Date(today.getTime() - 3 * DAY)));
+
+        MessagesManager messagesManager = new MessagesManager();
+        messagesManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, new ArrayList<>(newestPage), createPaging(true));
+        List<Message> initialDateMessages = getDateMessages(messagesManager.getMessages());
+
+        messagesManager.applyPaging(createPaging(false));
+        messagesManager.moreLoad(olderPage);
+
+        List<Message> allMessages = new ArrayList<>(newestPage);
+        allMessages.addAll(olderPage);
+        assertFormattedEquals(allMessages, messagesManager.getMessages());
+
+        List<Message> dateMessages = getDateMessages(messagesManager.getMessages());
+        assertEquals(4, dateMessages.size());
+        assertSame("Today's date message is kept", initialDateMessages.get(0), dateMessages.get(0));
+        assertSame("Yesterday's date message is kept", initialDateMessages.get(1), dateMessages.get(1));
+    }
+
+    @Test
+    public void messagesManager_addOnlyNew_keepsDateMessages() {
+        Date today = new Date();
+        List<Message> existingMessages = new ArrayList<>();
+        existingMessages.add(createMessage(3, new Date(today.getTime() - DAY)));
+        existingMessages.add(createMessage(2, new Date(today.getTime() - DAY)));
+        existingMessages.add(createMessage(1, new Date(today.getTime() - 2 * DAY)));
+
+        MessagesManager messagesManager = new MessagesManager();
+        messagesManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, new ArrayList<>(existingMessages), null);
+        List<Message> initialDateMessages = getDateMessages(messagesManager.getMessages());
+
+        List<Message> newMessages = new ArrayList<>();
+        newMessages.add(createMessage(5, today));
+        newMessages.add(createMessage(4, new Date(today.getTime() - DAY)));
+        List<Message> retrievedMessages = new ArrayList<>(newMessages);
+        retrievedMessages.addAll(existingMessages);
+        messagesManager.addOnlyNew(retrievedMessages);
+
+        List<Message> allMessages = new ArrayList<>(newMessages);
+        allMessages.addAll(existingMessages);
+        assertFormattedEquals(allMessages, messagesManager.getMessages());
+
+        List<Message> dateMessages = getDateMessages(messagesManager.getMessages());
+        assertEquals(3, dateMessages.size());
+        assertSame("Yesterday's date message is kept", initialDateMessages.get(0), dateMessages.get(1));
+        assertSame("Oldest date message is kept", initialDateMessages.get(1), dateMessages.get(2));
+    }
+
+    @Test
+    public void messagesManager_syncCursor() {
+        MessagesManager messagesManager = new MessagesManager();
+        messagesManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, new ArrayList<Message>(), null);
+        assertEquals(null, messagesManager.getSyncCursor());
+
+        messagesManager.addOnlyNew(createMessages(0, 10));
+        assertEquals(Integer.valueOf(9), messagesManager.getSyncCursor());
+
+        Message pendingMessage = Message.ofTypeOwnMessage("Hello!");
+        messagesManager.add(pendingMessage);
+        assertEquals("Pending messages are unknown by the server", Integer.valueOf(9), messagesManager.getSyncCursor());
+
+        messagesManager.update(Message.withIdAndStatus(pendingMessage, 10, Message.SEND_STATUS_SUCCESS));
+        assertEquals(Integer.valueOf(10), messagesManager.getSyncCursor());
+    }
+
+    @Test
+    public void messagesManager_applySync() {
+        MessagesManager messagesManager = new MessagesManager();
+        messagesManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, createMessages(0, 10), null);
+        Message knownMessage = messagesManager.getMessages().get(0);
+        assertEquals(Integer.valueOf(9), knownMessage.getId());
+
+        List<Message> syncedMessages = createMessages(10, 12);
+        Message changedMessage = Message.withIdAndStatus(Message.ofTypeOwnMessage("Changed"), 9, Message.SEND_STATUS_SUCCESS);
+        syncedMessages.add(changedMessage);
+        messagesManager.applySync(syncedMessages);
+
+        assertEquals(Integer.valueOf(11), messagesManager.getSyncCursor());
+        Message updatedMessage = messagesManager.getMessage(knownMessage.getUuid());
+        assertEquals("Known message is replaced, keeping its uuid", "Changed", updatedMessage.getMessage());
+        assertEquals(Integer.valueOf(11), messagesManager.getMessages().get(0).getId());
+        assertEquals(Integer.valueOf(10), messagesManager.getMessages().get(1).getId());
+        assertSame(updatedMessage, messagesManager.getMessages().get(2));
+    }
+
+    @Test
+    public void messagesManager_pagedDataSource() {
+        List<Message> storedMessages = createMessages(0, 350);
+        MessagesManager messagesManager = new MessagesManager();
+        PagedDataSource dataSource = new PagedDataSource(storedMessages);
+        dataSource.set(ParleyDataSource.KEY_MESSAGE_INFO, MESSAGE_WELCOME_TEXT);
+        messagesManager.setDataSource(dataSource);
+
+        assertEquals("Only the newest messages are read", 200, getIdMessages(messagesManager.getMessages()).size());
+        assertTrue(messagesManager.canLoadMore());
+
+        assertTrue(loadStoredOlderMessages(messagesManager));
+        assertEquals(300, getIdMessages(messagesManager.getMessages()).size());
+        assertTrue(loadStoredOlderMessages(messagesManager));
+        assertFalse("All stored messages are read", loadStoredOlderMessages(messagesManager));
+        assertFalse(messagesManager.canLoadMore());
+        assertFormattedEquals(storedMessages, messagesManager.getMessages());
+
+        Message removedMessage = ListUtil.getLast(getIdMessages(messagesManager.getMessages()));
+        assertTrue(messagesManager.trimToWindow());
+        assertFalse(messagesManager.trimToWindow());
+        List<Message> windowMessages = getIdMessages(messagesManager.getMessages());
+        assertEquals(200, windowMessages.size());
+        assertEquals(Integer.valueOf(150), ListUtil.getLast(windowMessages).getId());
+        assertNull(messagesManager.getMessage(removedMessage.getUuid()));
+        assertTrue(messagesManager.canLoadMore());
+
+        Message storedMessage = dataSource.findById(0);
+        messagesManager.applySync(Collections.singletonList(Message.withIdAndStatus(Message.ofTypeOwnMessage("Changed"), 0, Message.SEND_STATUS_SUCCESS))); // A change of a message that is only stored
+        assertEquals("Stored messages are not added as new messages", 200, getIdMessages(messagesManager.getMessages()).size());
+        assertEquals("Stored messages are updated", "Changed", dataSource.findById(0).getMessage());
+        assertEquals(storedMessage.getUuid(), dataSource.findById(0).getUuid());
+
+        assertTrue(loadStoredOlderMessages(messagesManager));
+        assertEquals(Integer.valueOf(50), ListUtil.getLast(getIdMessages(messagesManager.getMessages())).getId());
+    }
+
+    @Test
+    public void messagesManager_pagedDataSource_storedPendingMessages() {
+        List<Message> storedMessages = createMessages(0, 250);
+        Message storedPendingMessage = Message.withIdAndStatus(storedMessages.get(249), null, Message.SEND_STATUS_PENDING);
+        storedMessages.set(249, storedPendingMessage);
+        PagedDataSource dataSource = new PagedDataSource(storedMessages);
+        MessagesManager messagesManager = new MessagesManager();
+        messagesManager.setDataSource(dataSource);
+
+        List<Message> pendingMessages = getPendingMessages(messagesManager);
+        assertEquals("Pending messages outside the window are found", 1, pendingMessages.size());
+        assertEquals(storedPendingMessage.getUuid(), pendingMessages.get(0).getUuid());
+
+        messagesManager.update(Message.withIdAndStatus(storedPendingMessage, 1000, Message.SEND_STATUS_SUCCESS));
+        assertEquals("Messages outside the window are updated in the data source", 0, getPendingMessages(messagesManager).size());
+    }
+
+    /**
+     * @return The pending messages, the data source of these tests calls back right away.
+     */
+    private static List<Message> getPendingMessages(MessagesManager messagesManager) {
+        final List<List<Message>> result = new ArrayList<>();
+        messagesManager.getPendingMessages(true, new ParleyPagedMessageDataSource.Callback<List<Message>>() {
+            @Override
+            public void onResult(List<Message> pendingMessages) {
+                result.add(pendingMessages);
+            }
+        });
+        assertEquals(1, result.size());
+        return result.get(0);
+    }
+
+    /**
+     * @return `true` if stored messages were loaded, the data source of these tests calls back right away.
+     */
+    private static boolean loadStoredOlderMessages(MessagesManager messagesManager) {
+        final List<Boolean> result = new ArrayList<>();
+        messagesManager.loadStoredOlderMessages(new ParleyPagedMessageDataSource.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean loaded) {
+                result.add(loaded);
+            }
+        });
+        assertEquals(1, result.size());
+        return result.get(0);
+    }
+
+    /**
+     * Asserts that the incrementally formatted messages equal the messages that are formatted at once.
+     */
+    private static void assertFormattedEquals(List<Message> allMessages, List<Message> formattedMessages) {
+        MessagesManager expectedManager = new MessagesManager();
+        expectedManager.begin(MESSAGE_WELCOME_TEXT, MESSAGE_STICKY_TEXT, allMessages, null);
+        List<Message> expectedMessages = expectedManager.getMessages();
+
+        assertEquals(expectedMessages.size(), formattedMessages.size());
+        for (int i = 0; i < expectedMessages.size(); i++) {
+            assertEquals("Type at " + i, expectedMessages.get(i).getTypeId(), formattedMessages.get(i).getTypeId());
+            if (expectedMessages.get(i).getId() != null) {
+                assertSame("Message at " + i, expectedMessages.get(i), formattedMessages.get(i));
+            }
+        }
+    }
+
+    private static List<Message> getDateMessages(List<Message> messages) {
+        List<Message> dateMessages = new ArrayList<>();
+        for (Message message : messages) {
+            if (message.getTypeId() == MessageViewHolderFactory.MESSAGE_TYPE_DATE) {
+                dateMessages.add(message);
+            }
+        }
+        return dateMessages;
+    }
+
+    private static List<Message> getIdMessages(List<Message> messages) {
+        List<Message> idMessages = new ArrayList<>();
+        for (Message message : messages) {
+            if (message.getId() != null) {
+                idMessages.add(message);
+            }
+        }
+        return idMessages;
+    }
+
+    private static Message createMessage(int id, Date date) {
+        String text = "Message " + id;
+        return Message.withIdAndStatus(Message.withMessageAndDate(Message.ofTypeOwnMessage(text), text, date), id, Message.SEND_STATUS_SUCCESS);
+    }
+
+    private static ParleyPaging createPaging(boolean canLoadMore) {
+        return new Gson().fromJson(canLoadMore ? "{\"before\":\"?before=1\"}" : "{}", ParleyPaging.class);
+    }
+
+    /**
+     * @return Messages with the ids in the given range, newest first like the server returns them.
+     */
+    private static List<Message> createMessages(int fromId, int toId) {
+        List<Message> messages = new ArrayList<>();
+        for (int id = toId - 1; id >= fromId; id--) {
+            messages.add(Message.withIdAndStatus(Message.ofTypeOwnMessage("Message " + id), id, Message.SEND_STATUS_SUCCESS));
+        }
+        return messages;
+    }
+
+    private static final class PagedDataSource implements ParleyDataSource, ParleyPagedMessageDataSource {
+
+        private final List<Message> messages = new ArrayList<>();
+        private final Map<String, String> values = new HashMap<>();
+
+        PagedDataSource(List<Message> messages) {
+            this.messages.addAll(messages);
+        }
+
+        @Override
+        public int count() {
+            return messages.size();
+        }
+
+        @Override
+        public List<Message> get(int offset, int limit) {
+            int from = Math.min(offset, messages.size());
+            return new ArrayList<>(messages.subList(from, Math.min(from + limit, messages.size())));
+        }
+
+        @Override
+        public void get(int offset, int limit, Callback<List<Message>> callback) {
+            callback.onResult(get(offset, limit));
+        }
+
+        @Override
+        public void findById(int id, Callback<Message> callback) {
+            callback.onResult(findById(id));
+        }
+
+        @Override
+        public void getPending(Callback<List<Message>> callback) {
+            List<Message> pendingMessages = new ArrayList<>();
+            for (Message message : messages) {
+                if (message.getSendStatus() == Message.SEND_STATUS_PENDING) {
+                    pendingMessages.add(message);
+                }
+            }
+            callback.onResult(pendingMessages);
+        }
+
+        @Nullable
+        Message findById(int id) {
+            for (Message message : messages) {
+                if (message.getId() != null && message.getId() == id) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void clear() {
+            messages.clear();
+            values.clear();
+        }
+
+        @Override
+        public List<Message> getAll() {
+            return new ArrayList<>(messages);
+        }
+
+        @Override
+        public void add(List<Message> messages) {
+            this.messages.addAll(messages);
+        }
+
+        @Override
+        public void add(int index, List<Message> messages) {
+            this.messages.addAll(index, messages);
+        }
+
+        @Override
+        public void add(Message message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void add(int index, Message message) {
+            messages.add(index, message);
+        }
+
+        @Override
+        public void update(Message message) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (messages.get(i).getUuid().equals(message.getUuid())) {
+                    messages.set(i, message);
+                }
+            }
+        }
+
+        @Nullable
+        @Override
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void set(String key, @Nullable String value) {
+            values.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package nu.parley.android.data.messages;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ParleyKeyDerivationUnitTest {
+
+    @Test
+    public void hkdf_rfc5869_testCase1() throws GeneralSecurityException {
+        byte[] inputKeyMaterial = hex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+        byte[] salt = hex("000102030405060708090a0b0c");
+        byte[] info = hex("f0f1f2f3f4f5f6f7f8f9");
+
+        byte[] result = ParleyKeyDerivation.hkdf(inputKeyMaterial, salt, info, 42);
+        assertArrayEquals(hex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865"), result);
+    }
+
+    @Test
+    public void hkdf_rfc5869_testCase3_emptySaltAndInfo() throws GeneralSecurityException {
+        byte[] inputKeyMaterial = hex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+
+        byte[] result = ParleyKeyDerivation.hkdf(inputKeyMaterial, new byte[0], new byte[0], 42);
+        assertArrayEquals(hex("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8"), result);
+    }
+
+    private static byte[] hex(String value) {
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(value.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,128 @@
+package nu.parley.android.data.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+import nu.parley.android.data.net.response.ParleyResponse;
+import nu.parley.android.util.GsonUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ModelTypeAdapterUnitTest {
+
+    private static final int PAGE_SIZE = 500;
+
+    private static final Type PAGE_TYPE = new TypeToken<ParleyResponse<List<Message>>>() {
+    }.getType();
+
+    private final Gson reflectiveGson = new Gson();
+    private final Gson gson = GsonUtil.getGson();
+
+    @Test
+    public void read_equalsReflective() {
+        String page = createPage(PAGE_SIZE);
+
+        ParleyResponse<List<Message>> expected = reflectiveGson.fromJson(page, PAGE_TYPE);
+        ParleyResponse<List<Message>> actual = gson.fromJson(page, PAGE_TYPE);
+
+        assertEquals(PAGE_SIZE, actual.getData().size());
+        assertEquals(expected.getPaging().getBefore(), actual.getPaging().getBefore());
+        assertEquals(expected.getAgent().getName(), actual.getAgent().getName());
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            assertEquals("Message at " + i, withoutUuid(reflectiveGson.toJsonTree(expected.getData().get(i))), withoutUuid(reflectiveGson.toJsonTree(actual.getData().get(i))));
+        }
+    }
+
+    @Test
+    public void write_equalsReflective() {
+        List<Message> messages = gson.<ParleyResponse<List<Message>>>fromJson(createPage(50), PAGE_TYPE).getData();
+        messages.add(Message.ofTypeOwnMessage("Pending"));
+
+        for (Message message : messages) {
+            assertEquals(reflectiveGson.toJsonTree(message), gson.toJsonTree(message));
+        }
+    }
+
+    @Test
+    public void readWrite_keepsUuid() {
+        Message message = Message.ofTypeOwnImage("/data/image.jpg");
+
+        Message readMessage = gson.fromJson(gson.toJson(message), Message.class);
+
+        assertEquals(message.getUuid(), readMessage.getUuid());
+        assertEquals(message.getSendStatus(), readMessage.getSendStatus());
+        assertEquals(message.getLegacyImageUrl(), readMessage.getLegacyImageUrl());
+    }
+
+    @Test
+    public void read_lenient() {
+        Message message = gson.fromJson("{\"id\":\"12\",\"time\":null,\"buttons\":[null,{\"type\":\"unknown\"}],\"unknown\":{\"a\":[1]},\"send_status\":null}", Message.class);
+
+        assertEquals(Integer.valueOf(12), message.getId());
+        assertNull(message.getDate());
+        assertEquals(2, message.getActions().size());
+        assertNull(message.getActions().get(0));
+        assertNull(message.getActions().get(1).getType());
+        assertEquals(Message.SEND_STATUS_SUCCESS, message.getSendStatus());
+    }
+
+    /**
+     * @return The message without the uuids, which are generated when reading a message from the server.
+     */
+    private static JsonElement withoutUuid(JsonElement element) {
+        JsonObject object = element.getAsJsonObject().deepCopy();
+        object.remove("uuid");
+        if (object.has("carousel")) {
+            JsonArray carousel = new JsonArray();
+            for (JsonElement carouselItem : object.getAsJsonArray("carousel")) {
+                carousel.add(withoutUuid(carouselItem));
+            }
+            object.add("carousel", carousel);
+        }
+        return object;
+    }
+
+    /**
+     * @return A page of messages like the server returns it, with all kinds of messages.
+     */
+    private static String createPage(int size) {
+        StringBuilder builder = new StringBuilder("{\"data\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            int id = size - i;
+            builder.append("{\"id\":").append(id)
+                    .append(",\"time\":").append(1600000000L + id * 60)
+                    .append(",\"message\":\"Message **").append(id).append("** with some text\"");
+            switch (i % 4) {
+                case 0:
+                    builder.append(",\"typeId\":1,\"send_status\":1");
+                    break;
+                case 1:
+                    builder.append(",\"typeId\":2,\"agent\":{\"id\":3,\"name\":\"Agent\",\"avatar\":\"avatar.png\",\"isTyping\":null}")
+                            .append(",\"quickReplies\":[\"Yes\",\"No\"]");
+                    break;
+                case 2:
+                    builder.append(",\"typeId\":2,\"title\":\"Title\",\"media\":{\"id\":\"img/1/2022/media").append(id).append(".jpg\",\"description\":\"Image\"}")
+                            .append(",\"buttons\":[{\"title\":\"Open\",\"payload\":\"https://www.parley.nu\",\"type\":\"webUrl\"},{\"title\":\"Reply\",\"payload\":\"Yes\",\"type\":\"reply\"}]");
+                    break;
+                default:
+                    builder.append(",\"typeId\":2,\"carousel\":[{\"title\":\"Card 1\",\"message\":\"First\",\"typeId\":2,\"buttons\":[{\"title\":\"Call\",\"payload\":\"0123\",\"type\":\"phoneNumber\"}]},{\"title\":\"Card 2\",\"image\":\"image.png\",\"typeId\":2}]");
+                    break;
+            }
+            builder.append(",\"unknownField\":{\"nested\":[1,2,3]}}");
+        }
+        builder.append("],\"agent\":{\"id\":3,\"name\":\"Agent\"},\"paging\":{\"before\":\"/messages?before=1\",\"after\":\"/messages?after=500\"},\"welcomeMessage\":\"Welcome\"}");
+        return builder.toString();
+    }
+}
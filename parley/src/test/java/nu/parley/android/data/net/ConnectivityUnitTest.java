@@ -0,0 +1,145 @@
+package nu.parley.android.data.net;
+
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nu.parley.android.ParleyNetwork;
+import nu.parley.android.data.model.ApiVersion;
+import nu.parley.android.data.net.service.MessageService;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectivityUnitTest {
+
+    private static final int CALLS = 100;
+    private static final String BODY = "{\"data\":[]}";
+
+    private MockWebServer server;
+    private ParleyNetwork network;
+    private String secret = "secret";
+    private final AtomicInteger clients = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        network = new ParleyNetwork(server.url("/").toString(), "clientApi/v1.6/", ApiVersion.V1_6, 0, new HashMap<String, String>());
+        Connectivity.setConfiguration(new Connectivity.Configuration() {
+            @Override
+            public ParleyNetwork getNetwork() {
+                return network;
+            }
+
+            @Nullable
+            @Override
+            public String getSecret() {
+                return secret;
+            }
+
+            @Override
+            public OkHttpClient createClient() {
+                clients.incrementAndGet();
+                return newClient();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Connectivity.invalidate();
+        server.shutdown();
+    }
+
+    @Test
+    public void getService_reusesProxyAndConnection() throws Exception {
+        MessageService service = Connectivity.getService(MessageService.class);
+        OkHttpClient client = Connectivity.getClient();
+
+        for (int i = 0; i < CALLS; i++) {
+            assertSame(service, Connectivity.getService(MessageService.class));
+            findAll();
+        }
+
+        assertSame(client, Connectivity.getClient());
+        assertEquals(1, clients.get());
+        assertEquals(1, connections.get());
+        assertEquals(CALLS, server.getRequestCount());
+    }
+
+    @Test
+    public void invalidate_createsNewClient() throws Exception {
+        MessageService service = Connectivity.getService(MessageService.class);
+        OkHttpClient client = Connectivity.getClient();
+        findAll();
+
+        Connectivity.invalidate();
+
+        assertEquals(0, client.connectionPool().connectionCount());
+        MessageService newService = Connectivity.getService(MessageService.class);
+        assertNotSame(service, newService);
+        assertNotSame(client, Connectivity.getClient());
+        findAll();
+        findAll();
+        assertSame(newService, Connectivity.getService(MessageService.class));
+        assertEquals(2, clients.get());
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void secretChanged_createsNewClient() throws Exception {
+        MessageService service = Connectivity.getService(MessageService.class);
+        OkHttpClient client = Connectivity.getClient();
+
+        secret = "other";
+
+        assertNotSame(service, Connectivity.getService(MessageService.class));
+        assertNotSame(client, Connectivity.getClient());
+        assertEquals(2, clients.get());
+    }
+
+    private void findAll() throws IOException {
+        server.enqueue(new MockResponse().setBody(BODY));
+        assertTrue(Connectivity.getService(MessageService.class).findAll().execute().isSuccessful());
+    }
+
+    /**
+     * @return Client that is built like the shared client of {@link Connectivity}, without SSL pinning.
+     */
+    private OkHttpClient newClient() {
+        return Connectivity.newOkHttpClientBuilder(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                return chain.proceed(chain.request().newBuilder()
+                        .addHeader("x-iris-identification", secret + ":device")
+                        .build());
+            }
+        }, null)
+                .eventListener(new EventListener() {
+                    @Override
+                    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+                        connections.incrementAndGet();
+                    }
+                })
+                .build();
+    }
+}
@@ -0,0 +1,118 @@
+package nu.parley.android.data.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import okhttp3.Cache;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpCacheMetricsUnitTest {
+
+    private static final String BODY = "{\"data\":[]}";
+
+    private MockWebServer server;
+    private Cache cache;
+    private OkHttpClient client;
+    private final HttpCacheMetrics metrics = new HttpCacheMetrics();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        File directory = Files.createTempDirectory("parley_http").toFile();
+        cache = new Cache(directory, 1024 * 1024);
+        client = new OkHttpClient.Builder()
+                .addInterceptor(metrics.getInterceptor())
+                .cache(cache)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.delete();
+        server.shutdown();
+    }
+
+    @Test
+    public void conditionalHit() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setHeader("Cache-Control", "no-cache").setBody(BODY));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+
+        assertEquals(BODY, get());
+        assertEquals(BODY, get());
+
+        server.takeRequest();
+        RecordedRequest revalidation = server.takeRequest();
+        assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+
+        assertEquals(2, metrics.getRequestCount());
+        assertEquals(0, metrics.getHitCount());
+        assertEquals(1, metrics.getConditionalHitCount());
+        assertEquals(0.5f, metrics.getHitRatio(), 0.001f);
+        assertEquals(BODY.length(), metrics.getBytesSaved());
+    }
+
+    @Test
+    public void hit() throws Exception {
+        server.enqueue(new MockResponse().setHeader("Cache-Control", "max-age=60").setBody(BODY));
+
+        assertEquals(BODY, get());
+        assertEquals(BODY, get());
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, metrics.getHitCount());
+        assertEquals(BODY.length(), metrics.getBytesSaved());
+    }
+
+    @Test
+    public void changed() throws Exception {
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setHeader("Cache-Control", "no-cache").setBody(BODY));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setHeader("Cache-Control", "no-cache").setBody("{}"));
+
+        assertEquals(BODY, get());
+        assertEquals("{}", get());
+
+        assertEquals(2, metrics.getRequestCount());
+        assertEquals(0.0f, metrics.getHitRatio(), 0.001f);
+        assertEquals(0, metrics.getBytesSaved());
+
+        metrics.reset();
+        assertEquals(0, metrics.getRequestCount());
+    }
+
+    @Test
+    public void onlyCacheableRequestsCounted() throws Exception {
+        server.enqueue(new MockResponse().setBody(BODY));
+        server.enqueue(new MockResponse().setHeader("Cache-Control", "no-store").setBody(BODY));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setHeader("Cache-Control", "no-cache").setBody(BODY));
+
+        Request post = new Request.Builder().url(server.url("/messages")).post(RequestBody.create(MediaType.parse("application/json"), BODY)).build();
+        client.newCall(post).execute().close();
+        assertEquals(BODY, get()); // Not stored
+        assertEquals(BODY, get());
+
+        assertEquals(1, metrics.getRequestCount());
+        assertEquals(0, metrics.getHitCount());
+    }
+
+    private String get() throws IOException {
+        Request request = new Request.Builder().url(server.url("/messages")).build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.body().string();
+        }
+    }
+}
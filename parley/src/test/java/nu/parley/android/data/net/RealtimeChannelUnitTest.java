@@ -0,0 +1,146 @@
+package nu.parley.android.data.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import nu.parley.android.data.model.Message;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RealtimeChannelUnitTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private MockWebServer server;
+    private RealtimeChannel channel;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (channel != null) {
+            channel.close();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void receivesMessagesAndEvents() throws Exception {
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.send("{\"type\":\"event\",\"object\":{\"name\":\"startTyping\"}}");
+                webSocket.send("{\"type\":\"message\",\"object\":{\"id\":12,\"message\":\"Hello\",\"typeId\":2}}");
+                webSocket.send("{\"type\":\"unknown\",\"object\":{}}");
+                webSocket.send("not json");
+                webSocket.send("{\"type\":\"event\",\"object\":{\"name\":\"stopTyping\"}}");
+            }
+        }));
+
+        channel = createChannel();
+        channel.open();
+
+        assertEquals("connected:false", poll());
+        assertEquals("event:startTyping", poll());
+        assertEquals("message:12:Hello", poll());
+        assertEquals("event:stopTyping", poll()); // Unsupported frames are skipped
+        assertTrue(channel.isConnected());
+    }
+
+    @Test
+    public void reconnectsAfterConnectionLost() throws Exception {
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.close(1001, "Going away");
+            }
+        }));
+        server.enqueue(new MockResponse().setResponseCode(503)); // Failed attempt in between
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.send("{\"type\":\"event\",\"object\":{\"name\":\"startTyping\"}}");
+            }
+        }));
+
+        channel = createChannel();
+        channel.open();
+
+        assertEquals("connected:false", poll());
+        assertEquals("disconnected", poll());
+        assertEquals("connected:true", poll());
+        assertEquals("event:startTyping", poll());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void close_stopsDelivering() throws Exception {
+        server.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+        }));
+
+        channel = createChannel();
+        channel.open();
+        assertEquals("connected:false", poll());
+
+        channel.close();
+        assertFalse(channel.isConnected());
+        assertEquals(null, received.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private RealtimeChannel createChannel() {
+        return new RealtimeChannel(new OkHttpClient(), server.url("/realtime").toString(), DIRECT, new RealtimeChannel.Listener() {
+            @Override
+            public void onConnected(boolean reconnected) {
+                received.add("connected:" + reconnected);
+            }
+
+            @Override
+            public void onDisconnected() {
+                received.add("disconnected");
+            }
+
+            @Override
+            public void onMessage(Message message) {
+                received.add("message:" + message.getId() + ":" + message.getMessage());
+            }
+
+            @Override
+            public void onEvent(String name) {
+                received.add("event:" + name);
+            }
+        }, 10);
+    }
+
+    private String poll() throws InterruptedException {
+        String value = received.poll(5, TimeUnit.SECONDS);
+        if (value == null) {
+            throw new AssertionError("Nothing received in time");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,283 @@
+package nu.parley.android.data.net;
+
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import nu.parley.android.data.messages.ParleyKeyValueDataSource;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ResumableUploadUnitTest {
+
+    private static final String KEY = "c0ffee00-0000-0000-0000-000000000001";
+    private static final byte[] CONTENT = "0123456789".getBytes();
+    private static final int CHUNK_SIZE = 4;
+    private static final String MEDIA_BODY = "{\"data\":{\"media\":\"img/1/2022/media.jpg\"}}";
+
+    private MockWebServer server;
+    private File file;
+    private final MemoryDataSource dataSource = new MemoryDataSource();
+    private final RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        file = File.createTempFile("parley_upload", ".jpg");
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(CONTENT);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+        server.shutdown();
+    }
+
+    @Test
+    public void upload_inChunks() throws Exception {
+        server.enqueue(created());
+        server.enqueue(offset(4));
+        server.enqueue(offset(8));
+        server.enqueue(new MockResponse().setBody(MEDIA_BODY));
+
+        assertEquals("img/1/2022/media.jpg", createUpload().upload(file, "image/jpeg", KEY, listener));
+
+        RecordedRequest create = server.takeRequest();
+        assertEquals("POST", create.getMethod());
+        assertEquals("10", create.getHeader("Upload-Length"));
+        assertEquals(KEY, create.getHeader("Idempotency-Key"));
+        assertPatch(server.takeRequest(), 0, "0123");
+        assertPatch(server.takeRequest(), 4, "4567");
+        assertPatch(server.takeRequest(), 8, "89");
+
+        assertEquals(10, listener.uploaded);
+        assertEquals(10, listener.total);
+        assertNull(dataSource.get(ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + KEY));
+    }
+
+    @Test
+    public void upload_connectionDropped_resumesAtServerOffset() throws Exception {
+        server.enqueue(created());
+        server.enqueue(offset(4));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_DURING_REQUEST_BODY));
+        server.enqueue(offset(6)); // HEAD: the server kept only a part of the dropped chunk
+        server.enqueue(offset(10).setBody(MEDIA_BODY).setResponseCode(200));
+
+        assertEquals("img/1/2022/media.jpg", createUpload().upload(file, "image/jpeg", KEY, listener));
+
+        server.takeRequest(); // Create
+        assertPatch(server.takeRequest(), 0, "0123");
+        assertEquals(4, Long.parseLong(server.takeRequest().getHeader("Upload-Offset"))); // Dropped
+        assertEquals("HEAD", server.takeRequest().getMethod());
+        assertPatch(server.takeRequest(), 6, "6789");
+        assertEquals(5, server.getRequestCount()); // Only the part of the dropped chunk the server didn't receive is uploaded again
+    }
+
+    @Test
+    public void upload_lastResponseLost_retrievesMedia() throws Exception {
+        server.enqueue(created());
+        server.enqueue(offset(4));
+        server.enqueue(offset(8));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST)); // The server received the last chunk
+        server.enqueue(offset(10)); // HEAD: complete
+        server.enqueue(new MockResponse().setBody(MEDIA_BODY));
+
+        assertEquals("img/1/2022/media.jpg", createUpload().upload(file, "image/jpeg", KEY, listener));
+
+        server.takeRequest(); // Create
+        assertPatch(server.takeRequest(), 0, "0123");
+        assertPatch(server.takeRequest(), 4, "4567");
+        assertPatch(server.takeRequest(), 8, "89");
+        assertEquals("HEAD", server.takeRequest().getMethod());
+        RecordedRequest complete = server.takeRequest();
+        assertEquals("GET", complete.getMethod());
+        assertEquals("/media/uploads/1", complete.getPath());
+        assertEquals(6, server.getRequestCount()); // No empty chunk
+        assertNull(dataSource.get(ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + KEY));
+    }
+
+    @Test
+    public void upload_connectionDroppedPerChunk_resumesEachTime() throws Exception {
+        server.enqueue(created());
+        for (int offset = 0; offset < CONTENT.length; offset += CHUNK_SIZE) {
+            server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_DURING_REQUEST_BODY));
+            server.enqueue(offset(offset)); // HEAD: the server didn't receive the dropped chunk
+            if (offset == 0) {
+                // Dropped twice in a row
+                server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_DURING_REQUEST_BODY));
+                server.enqueue(offset(offset));
+            }
+            server.enqueue(offset + CHUNK_SIZE < CONTENT.length ? offset(offset + CHUNK_SIZE) : new MockResponse().setBody(MEDIA_BODY));
+        }
+
+        // More interruptions than attempts in total, but never more than the attempts in a row
+        assertEquals("img/1/2022/media.jpg", createUpload().upload(file, "image/jpeg", KEY, listener));
+        assertEquals(12, server.getRequestCount());
+    }
+
+    @Test
+    public void upload_emptyFile_completesAfterCreate() throws Exception {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[0]);
+        }
+        server.enqueue(created());
+        server.enqueue(new MockResponse().setBody(MEDIA_BODY));
+
+        assertEquals("img/1/2022/media.jpg", createUpload().upload(file, "image/jpeg", KEY, listener));
+
+        assertEquals("0", server.takeRequest().getHeader("Upload-Length"));
+        RecordedRequest complete = server.takeRequest();
+        assertEquals("GET", complete.getMethod());
+        assertEquals("/media/uploads/1", complete.getPath());
+        assertEquals(2, server.getRequestCount()); // No empty chunk
+        assertEquals(0, listener.total);
+        assertNull(dataSource.get(ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + KEY));
+    }
+
+    @Test
+    public void upload_failedBefore_continuesFromSavedState() throws Exception {
+        server.enqueue(created());
+        server.enqueue(offset(4));
+        server.enqueue(new MockResponse().setResponseCode(503));
+
+        try {
+            createUpload().upload(file, "image/jpeg", KEY, listener);
+            fail("Expected the upload to fail");
+        } catch (ResumableUpload.UploadException e) {
+            assertEquals(503, e.getCode());
+        }
+        assertNotNull(dataSource.get(ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + KEY));
+
+        // Next pass, for example after the app is restarted
+        server.enqueue(offset(4));
+        server.enqueue(offset(8));
+        server.enqueue(new MockResponse().setBody(MEDIA_BODY));
+
+        assertEquals("img/1/2022/media.jpg", createUpload().upload(file, "image/jpeg", KEY, listener));
+
+        server.takeRequest(); // Create
+        server.takeRequest(); // First chunk
+        server.takeRequest(); // Failed chunk
+        RecordedRequest head = server.takeRequest();
+        assertEquals("HEAD", head.getMethod());
+        assertEquals("/media/uploads/1", head.getPath());
+        assertPatch(server.takeRequest(), 4, "4567");
+        assertPatch(server.takeRequest(), 8, "89");
+    }
+
+    @Test
+    public void upload_expired_startsOver() throws Exception {
+        dataSource.set(ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + KEY, "{\"url\":\"" + server.url("/media/uploads/0") + "\",\"length\":10,\"offset\":4}");
+        server.enqueue(new MockResponse().setResponseCode(404)); // HEAD
+        server.enqueue(created());
+        server.enqueue(offset(4));
+        server.enqueue(offset(8));
+        server.enqueue(new MockResponse().setBody(MEDIA_BODY));
+
+        assertEquals("img/1/2022/media.jpg", createUpload().upload(file, "image/jpeg", KEY, listener));
+
+        assertEquals("HEAD", server.takeRequest().getMethod());
+        assertEquals("POST", server.takeRequest().getMethod());
+        assertPatch(server.takeRequest(), 0, "0123");
+    }
+
+    @Test
+    public void upload_unsupported() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+
+        try {
+            createUpload().upload(file, "image/jpeg", KEY, listener);
+            fail("Expected the upload to fail");
+        } catch (ResumableUpload.UploadException e) {
+            assertEquals(404, e.getCode());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void upload_offline_keepsState() throws Exception {
+        server.enqueue(created());
+        server.enqueue(offset(4));
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        }
+
+        try {
+            createUpload().upload(file, "image/jpeg", KEY, listener);
+            fail("Expected the upload to fail");
+        } catch (IOException e) {
+            // Expected, the connection was lost too often
+        }
+        assertNotNull(dataSource.get(ParleyKeyValueDataSource.KEY_UPLOAD_PREFIX + KEY));
+    }
+
+    private ResumableUpload createUpload() {
+        return new ResumableUpload(new OkHttpClient(), server.url("/media/uploads").toString(), dataSource, CHUNK_SIZE);
+    }
+
+    private static MockResponse created() {
+        return new MockResponse().setResponseCode(201).setHeader("Location", "/media/uploads/1");
+    }
+
+    private static MockResponse offset(long offset) {
+        return new MockResponse().setResponseCode(204).setHeader("Upload-Offset", offset);
+    }
+
+    private static void assertPatch(RecordedRequest request, long offset, String body) {
+        assertEquals("PATCH", request.getMethod());
+        assertEquals("/media/uploads/1", request.getPath());
+        assertEquals(String.valueOf(offset), request.getHeader("Upload-Offset"));
+        assertEquals(body, request.getBody().readUtf8());
+    }
+
+    private static final class MemoryDataSource implements ParleyKeyValueDataSource {
+
+        private final Map<String, String> values = new HashMap<>();
+
+        @Nullable
+        @Override
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void set(String key, @Nullable String value) {
+            if (value == null) {
+                values.remove(key);
+            } else {
+                values.put(key, value);
+            }
+        }
+    }
+
+    private static final class RecordingListener implements ResumableUpload.ProgressListener {
+
+        private long uploaded;
+        private long total;
+
+        @Override
+        public void onProgress(long uploaded, long total) {
+            this.uploaded = uploaded;
+            this.total = total;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package nu.parley.android.view.chat;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import nu.parley.android.data.model.Message;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MessageDiffCallbackUnitTest {
+
+    private final MessageDiffCallback callback = new MessageDiffCallback();
+
+    @Test
+    public void changePayload_status() {
+        Message pending = Message.ofTypeOwnMessage("Hello");
+        Message success = Message.withIdAndStatus(pending, 1, Message.SEND_STATUS_SUCCESS);
+
+        assertEquals(MessageDiffCallback.CHANGE_STATUS, callback.getChangePayload(pending, success));
+    }
+
+    @Test
+    public void changePayload_textAndTime() {
+        Message message = Message.ofTypeOwnMessage("Hello");
+        Message edited = Message.withMessageAndDate(message, "Hello there", new Date(message.getDate().getTime() + 60000));
+
+        assertEquals(MessageDiffCallback.CHANGE_TEXT | MessageDiffCallback.CHANGE_TIME, callback.getChangePayload(message, edited));
+    }
+
+    @Test
+    public void changePayload_uploadedImage() {
+        Message local = Message.ofTypeOwnImage("/data/image.jpg");
+        Message uploaded = Message.withMedia(local, "img/1/2022/media.jpg");
+
+        assertEquals(MessageDiffCallback.CHANGE_IMAGE, callback.getChangePayload(local, uploaded));
+    }
+
+    @Test
+    public void changePayload_layoutChanged_showsAgain() {
+        Message text = Message.ofTypeOwnMessage("");
+        Message textWithContent = Message.withMessageAndDate(text, "Hello", text.getDate());
+        Message typing = Message.ofTypeAgentTyping();
+
+        assertNull(callback.getChangePayload(text, textWithContent)); // The balloon now shows text
+        assertNull(callback.getChangePayload(typing, Message.withUuid(Message.ofTypeInfo("Info"), typing.getUuid())));
+    }
+}